@@ -0,0 +1,93 @@
+package io.github.smank.secretdoors;
+
+import org.bukkit.Material;
+import org.bukkit.block.Block;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Material classification in SecretDoorHelper and the checks built on it in SecretDoors.
+ * The Material benchmarks cycle through every Material so the lookups can't be constant folded.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class ClassificationBenchmark {
+
+    private DoorFixture fixture;
+    private Material[] materials;
+    private int next = 0;
+
+    private Block door;
+    private Block concealing;
+    private Block trapdoor;
+
+    @Setup
+    public void setup() {
+        fixture = new DoorFixture(0);
+        materials = Material.values();
+        door = fixture.door();
+        concealing = fixture.concealing();
+        trapdoor = fixture.trapdoor();
+    }
+
+    @TearDown
+    public void tearDown() {
+        fixture.close();
+    }
+
+    private Material nextMaterial() {
+        Material m = materials[next];
+        next = next + 1 == materials.length ? 0 : next + 1;
+        return m;
+    }
+
+    @Benchmark
+    public boolean isValidDoor() {
+        return SecretDoorHelper.isValidDoor(nextMaterial());
+    }
+
+    @Benchmark
+    public boolean isValidTrapDoor() {
+        return SecretDoorHelper.isValidTrapDoor(nextMaterial());
+    }
+
+    @Benchmark
+    public boolean isAttachableItem() {
+        return SecretDoorHelper.isAttachableItem(nextMaterial());
+    }
+
+    @Benchmark
+    public boolean isAllowedMaterial() {
+        return fixture.plugin.getSettings().isAllowedMaterial(nextMaterial());
+    }
+
+    @Benchmark
+    public boolean isValidBlock() {
+        return fixture.plugin.isValidBlock(concealing);
+    }
+
+    @Benchmark
+    public boolean canBeSecretDoor() {
+        return fixture.plugin.canBeSecretDoor(door);
+    }
+
+    // The common case: a block that is not a door at all.
+    @Benchmark
+    public boolean canBeSecretDoorMiss() {
+        return fixture.plugin.canBeSecretDoor(concealing);
+    }
+
+    @Benchmark
+    public boolean canBeSecretTrapdoor() {
+        return fixture.plugin.canBeSecretTrapdoor(trapdoor);
+    }
+}
@@ -0,0 +1,129 @@
+package io.github.smank.secretdoors;
+
+import io.github.smank.secretdoors.fake.FakeBlockData;
+import io.github.smank.secretdoors.fake.FakeServer;
+import io.github.smank.secretdoors.fake.FakeWorld;
+import io.github.smank.secretdoors.fake.Fakes;
+import org.bukkit.Material;
+import org.bukkit.block.Block;
+import org.bukkit.block.BlockFace;
+import org.bukkit.entity.Player;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.UUID;
+import java.util.stream.Stream;
+
+/**
+ * A fake server with the plugin enabled and a world containing one closed door and one closed trapdoor, both
+ * concealed by STONE.
+ * <pre>
+ *   x: -1     0
+ *      STONE  OAK_DOOR (facing EAST, y = 64 and 65)     SecretDoor at (0, 64, 0)
+ *      STONE
+ *
+ *   x: 8      STONE    (y = 65)                          SecretTrapdoor at (8, 64, 0)
+ *             OAK_TRAPDOOR (y = 64)
+ * </pre>
+ */
+public final class DoorFixture {
+
+    public static final int DOOR_X = 0, DOOR_Y = 64, DOOR_Z = 0;
+    public static final int TRAPDOOR_X = 8, TRAPDOOR_Y = 64, TRAPDOOR_Z = 0;
+
+    public final FakeServer server = new FakeServer();
+    public final FakeWorld world = server.addWorld("world");
+    public final File dataFolder;
+    public final SecretDoors plugin;
+
+    /**
+     * @param attachments Number of attachments (up to 4) to put on the door's concealing blocks: a wall torch and a
+     *                    wall sign on each of them.
+     */
+    public DoorFixture(int attachments, Map<String, Object> config) {
+        world.placeDoor(DOOR_X, DOOR_Y, DOOR_Z, Material.OAK_DOOR, BlockFace.EAST);
+        world.set(DOOR_X - 1, DOOR_Y, DOOR_Z, Material.STONE);
+        world.set(DOOR_X - 1, DOOR_Y + 1, DOOR_Z, Material.STONE);
+        for (int i = 0; i < attachments; i++) {
+            int y = DOOR_Y + i / 2;
+            if (i % 2 == 0)
+                world.set(DOOR_X - 1, y, DOOR_Z - 1, Material.WALL_TORCH, BlockFace.NORTH);
+            else
+                world.placeSign(DOOR_X - 1, y, DOOR_Z + 1, FakeBlockData.of(Material.OAK_WALL_SIGN, BlockFace.SOUTH),
+                        "secret", "door", "" + i, "");
+        }
+
+        world.set(TRAPDOOR_X, TRAPDOOR_Y, TRAPDOOR_Z, Material.OAK_TRAPDOOR, BlockFace.NORTH);
+        world.set(TRAPDOOR_X, TRAPDOOR_Y + 1, TRAPDOOR_Z, Material.STONE);
+
+        try {
+            dataFolder = Files.createTempDirectory("secretdoors-fake").toFile();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        plugin = FakePlugin.enable(server, dataFolder, config);
+    }
+
+    public DoorFixture(int attachments) {
+        this(attachments, FakePlugin.config());
+    }
+
+    public Block door() {
+        return world.getBlockAt(DOOR_X, DOOR_Y, DOOR_Z);
+    }
+
+    /**
+     * @return the lower concealing block of the door.
+     */
+    public Block concealing() {
+        return world.getBlockAt(DOOR_X - 1, DOOR_Y, DOOR_Z);
+    }
+
+    public Block trapdoor() {
+        return world.getBlockAt(TRAPDOOR_X, TRAPDOOR_Y, TRAPDOOR_Z);
+    }
+
+    public Block aboveTrapdoor() {
+        return world.getBlockAt(TRAPDOOR_X, TRAPDOOR_Y + 1, TRAPDOOR_Z);
+    }
+
+    /**
+     * @return a player in the fixture's world with or without every permission.
+     */
+    public Player player(boolean permitted) {
+        UUID uid = UUID.randomUUID();
+        return Fakes.proxy(Player.class, (proxy, method, args) -> {
+            switch (method) {
+                case "hasPermission":
+                    return permitted;
+                case "getUniqueId":
+                    return uid;
+                case "getName":
+                    return "fake";
+                case "getWorld":
+                    return world.getWorld();
+                case "isOnline":
+                    return true;
+                default:
+                    return Fakes.UNHANDLED;
+            }
+        });
+    }
+
+    /**
+     * Disables the plugin and deletes its data folder.
+     */
+    public void close() {
+        plugin.onDisable();
+        try (Stream<Path> files = Files.walk(dataFolder.toPath())) {
+            files.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
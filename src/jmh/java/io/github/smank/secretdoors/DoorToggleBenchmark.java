@@ -0,0 +1,83 @@
+package io.github.smank.secretdoors;
+
+import org.bukkit.block.Block;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Construction, opening and closing of SecretDoors and SecretTrapdoors, with and without attachments.
+ * Every open is followed by a close, so the world is the same for every invocation.  Run with the gc profiler
+ * (the default in build.gradle) to see the bytes allocated per operation.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class DoorToggleBenchmark {
+
+    @Param({ "0", "4" })
+    public int attachments;
+
+    private DoorFixture fixture;
+    private Block door;
+    private Block concealing;
+    private Block trapdoor;
+    private Block aboveTrapdoor;
+
+    @Setup
+    public void setup() {
+        fixture = new DoorFixture(attachments);
+        door = fixture.door();
+        concealing = fixture.concealing();
+        trapdoor = fixture.trapdoor();
+        aboveTrapdoor = fixture.aboveTrapdoor();
+    }
+
+    @TearDown
+    public void tearDown() {
+        fixture.close();
+    }
+
+    @Benchmark
+    public SecretDoor constructDoor() {
+        return new SecretDoor(door, concealing, SecretDoorHelper.Orientation.BLOCK_FIRST, true);
+    }
+
+    @Benchmark
+    public SecretDoor openCloseDoor() {
+        SecretDoor d = new SecretDoor(door, concealing, SecretDoorHelper.Orientation.BLOCK_FIRST, true);
+        d.open();
+        d.close();
+        return d;
+    }
+
+    @Benchmark
+    public SecretTrapdoor constructTrapdoor() {
+        return new SecretTrapdoor(trapdoor, aboveTrapdoor, true, true);
+    }
+
+    @Benchmark
+    public SecretTrapdoor openCloseTrapdoor() {
+        SecretTrapdoor d = new SecretTrapdoor(trapdoor, aboveTrapdoor, true, true);
+        d.open();
+        d.close();
+        return d;
+    }
+
+    // Open and close through the plugin, i.e. including the registry, timers and the journal hooks.
+    @Benchmark
+    public SecretOpenable openCloseRegistered() {
+        SecretOpenable d = fixture.plugin.openDoor(
+                new SecretDoor(door, concealing, SecretDoorHelper.Orientation.BLOCK_FIRST, true));
+        fixture.plugin.closeDoor(door);
+        return d;
+    }
+}
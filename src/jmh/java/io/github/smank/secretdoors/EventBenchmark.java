@@ -0,0 +1,134 @@
+package io.github.smank.secretdoors;
+
+import io.github.smank.secretdoors.listeners.BlockListener;
+import io.github.smank.secretdoors.listeners.PlayerListener;
+import io.github.smank.secretdoors.listeners.PowerListener;
+import io.github.smank.secretdoors.listeners.ProtectionListener;
+import org.bukkit.Material;
+import org.bukkit.block.Block;
+import org.bukkit.block.BlockFace;
+import org.bukkit.entity.Player;
+import org.bukkit.event.block.Action;
+import org.bukkit.event.block.BlockFromToEvent;
+import org.bukkit.event.block.BlockPlaceEvent;
+import org.bukkit.event.block.BlockRedstoneEvent;
+import org.bukkit.event.player.PlayerInteractEvent;
+import org.bukkit.inventory.EquipmentSlot;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of the event handlers for the events that do not involve a secret door, which is nearly all of them on a
+ * real server: clicks on arbitrary blocks, redstone updates, block placement and liquid flow far away from any door.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class EventBenchmark {
+
+    private DoorFixture fixture;
+    private PlayerListener playerListener;
+    private PowerListener powerListener;
+    private BlockListener blockListener;
+    private ProtectionListener protectionListener;
+
+    private PlayerInteractEvent leftClick;
+    private PlayerInteractEvent blacklistedClick;
+    private PlayerInteractEvent concealingClick;
+    private BlockRedstoneEvent wireLevelChange;
+    private BlockRedstoneEvent wireEdge;
+    private BlockPlaceEvent placeFarAway;
+    private BlockFromToEvent flowFarAway;
+
+    @Setup
+    public void setup() {
+        fixture = new DoorFixture(0);
+        playerListener = fixture.server.getListener(PlayerListener.class);
+        powerListener = fixture.server.getListener(PowerListener.class);
+        blockListener = fixture.server.getListener(BlockListener.class);
+        protectionListener = fixture.server.getListener(ProtectionListener.class);
+
+        Player player = fixture.player(true);
+        fixture.world.set(100, 64, 100, Material.STONE);
+        fixture.world.set(102, 64, 100, Material.CHEST);
+        fixture.world.set(104, 64, 100, Material.REDSTONE_WIRE);
+        Block stone = fixture.world.getBlockAt(100, 64, 100);
+        Block chest = fixture.world.getBlockAt(102, 64, 100);
+        Block wire = fixture.world.getBlockAt(104, 64, 100);
+
+        leftClick = new PlayerInteractEvent(player, Action.LEFT_CLICK_BLOCK, null, stone, BlockFace.UP);
+        blacklistedClick = new PlayerInteractEvent(player, Action.RIGHT_CLICK_BLOCK, null, chest, BlockFace.UP);
+        concealingClick = new PlayerInteractEvent(player, Action.RIGHT_CLICK_BLOCK, null, stone, BlockFace.UP);
+        wireLevelChange = new BlockRedstoneEvent(wire, 14, 13);
+        wireEdge = new BlockRedstoneEvent(wire, 0, 15);
+
+        // A player without secretdoors.create, so the placement checks run.
+        placeFarAway = new BlockPlaceEvent(stone, stone.getState(), stone.getRelative(BlockFace.DOWN), null,
+                fixture.player(false), true, EquipmentSlot.HAND);
+
+        // Liquid flow while a door is open elsewhere, so the passage index is probed.
+        flowFarAway = new BlockFromToEvent(stone, stone.getRelative(BlockFace.EAST));
+        fixture.plugin.openDoor(new SecretDoor(fixture.door(), fixture.concealing(),
+                SecretDoorHelper.Orientation.DOOR_FIRST, true));
+
+        // Index the chunk of the placement, which is scanned asynchronously and applied on the next tick.
+        fixture.plugin.indexChunk(stone.getChunk());
+        fixture.server.getScheduler().tick(2);
+    }
+
+    @TearDown
+    public void tearDown() {
+        fixture.close();
+    }
+
+    @Benchmark
+    public PlayerInteractEvent interactLeftClick() {
+        playerListener.onPlayerInteract(leftClick);
+        return leftClick;
+    }
+
+    @Benchmark
+    public PlayerInteractEvent interactBlacklisted() {
+        playerListener.onPlayerInteract(blacklistedClick);
+        return blacklistedClick;
+    }
+
+    // A block that could conceal a door, but there is none behind it.
+    @Benchmark
+    public PlayerInteractEvent interactConcealing() {
+        playerListener.onPlayerInteract(concealingClick);
+        return concealingClick;
+    }
+
+    @Benchmark
+    public BlockRedstoneEvent redstoneLevelChange() {
+        powerListener.onBlockPowered(wireLevelChange);
+        return wireLevelChange;
+    }
+
+    @Benchmark
+    public BlockRedstoneEvent redstoneEdgeNotADoor() {
+        powerListener.onBlockPowered(wireEdge);
+        return wireEdge;
+    }
+
+    @Benchmark
+    public BlockPlaceEvent placeAwayFromDoors() {
+        blockListener.onBlockPlace(placeFarAway);
+        return placeFarAway;
+    }
+
+    @Benchmark
+    public BlockFromToEvent liquidFlowAwayFromDoors() {
+        protectionListener.onBlockFromTo(flowFarAway);
+        return flowFarAway;
+    }
+}
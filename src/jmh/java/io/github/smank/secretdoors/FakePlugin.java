@@ -0,0 +1,54 @@
+package io.github.smank.secretdoors;
+
+import io.github.smank.secretdoors.fake.FakeServer;
+import org.bukkit.plugin.PluginDescriptionFile;
+import org.bukkit.plugin.java.JavaPluginLoader;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Creates and enables SecretDoors on a {@link FakeServer}.
+ */
+public final class FakePlugin {
+
+    private FakePlugin() {}
+
+    /**
+     * @return config values to enable the plugin with - the defaults of config.yml, except that the journal is
+     *         disabled so no disk I/O happens.
+     */
+    public static Map<String, Object> config() {
+        Map<String, Object> config = new LinkedHashMap<>();
+        config.put(SecretDoors.CONFIG_PERSIST_DOORS, false);
+        return config;
+    }
+
+    /**
+     * Writes {@code config} (merged over the defaults of config.yml) into {@code dataFolder}, creates the plugin and
+     * runs its onEnable.
+     * @param config Scalar config values by path.
+     */
+    public static SecretDoors enable(FakeServer server, File dataFolder, Map<String, Object> config) {
+        try {
+            Files.createDirectories(dataFolder.toPath());
+            StringBuilder yaml = new StringBuilder();
+            config.forEach((path, value) -> yaml.append(path).append(": ").append(value).append('\n'));
+            Files.write(new File(dataFolder, "config.yml").toPath(), yaml.toString().getBytes(StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        @SuppressWarnings("deprecation")
+        JavaPluginLoader loader = new JavaPluginLoader(server.getServer());
+        PluginDescriptionFile description = new PluginDescriptionFile("SecretDoors", "fake", SecretDoors.class.getName());
+        SecretDoors plugin = new SecretDoors(loader, description, dataFolder, new File(dataFolder, "SecretDoors.jar"));
+        plugin.onEnable();
+        return plugin;
+    }
+}
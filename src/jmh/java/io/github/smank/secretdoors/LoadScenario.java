@@ -0,0 +1,292 @@
+package io.github.smank.secretdoors;
+
+import io.github.smank.secretdoors.fake.FakeBlockData;
+import io.github.smank.secretdoors.fake.FakeScheduler;
+import io.github.smank.secretdoors.fake.FakeServer;
+import io.github.smank.secretdoors.fake.FakeWorld;
+import io.github.smank.secretdoors.listeners.PowerListener;
+import org.bukkit.Material;
+import org.bukkit.block.BlockFace;
+import org.bukkit.event.block.BlockRedstoneEvent;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.BooleanSupplier;
+import java.util.stream.Stream;
+
+/**
+ * Headless load and correctness scenario: a grid of secret doors is opened by redstone and left to the auto close
+ * timers, on a {@link FakeServer} whose ticks are advanced by hand.  After every round each block around every door
+ * must be exactly what it was before the doors were opened.
+ * <p>
+ * Prints ticks, operations per second, block writes and bytes allocated per operation (an open or a close) per round.  Exits with 1
+ * if a door did not open, did not close or was not restored exactly.
+ * <p>
+ * Arguments are {@code key=value} pairs, see {@link #DEFAULTS}.  Run with:
+ * <pre>./gradlew loadTest -Pargs="doors=10000 attachments=2"</pre>
+ */
+public final class LoadScenario {
+
+    private static final Map<String, Integer> DEFAULTS = new LinkedHashMap<>();
+    static {
+        DEFAULTS.put("doors", 10_000);         // doors in the grid
+        DEFAULTS.put("attachments", 0);        // wall torches / signs on each door's concealing blocks, up to 4
+        DEFAULTS.put("closeSeconds", 5);       // close-time-seconds, the doors are auto closed after 20x as many ticks
+        DEFAULTS.put("opsPerTick", 32);        // max-door-operations-per-tick
+        DEFAULTS.put("rounds", 5);             // the first round is reported as warm up
+    }
+
+    // Doors are placed every SPACING blocks in a square grid.
+    private static final int SPACING = 4;
+    private static final int Y = 64;
+
+    private final int doors;
+    private final int attachments;
+    private final int closeTicks;
+    private final int width;
+
+    private final FakeServer server = new FakeServer();
+    private final FakeScheduler scheduler = server.getScheduler();
+    private final FakeWorld world = server.addWorld("world");
+    private final File dataFolder;
+    private final SecretDoors plugin;
+    private final PowerListener power;
+
+    // Blocks around every door before the first round, see describeAll().
+    private final String[] expected;
+
+    private final com.sun.management.ThreadMXBean threads =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    private LoadScenario(Map<String, Integer> params) {
+        this.doors = params.get("doors");
+        this.attachments = params.get("attachments");
+        this.closeTicks = params.get("closeSeconds") * 20;
+        this.width = (int) Math.ceil(Math.sqrt(doors));
+
+        for (int i = 0; i < doors; i++) {
+            placeDoor(x(i), z(i), i);
+        }
+        this.expected = describeAll();
+
+        Map<String, Object> config = FakePlugin.config();
+        config.put(SecretDoors.CONFIG_ENABLE_TIMERS, true);
+        config.put(SecretDoors.CONFIG_CLOSE_TIME, params.get("closeSeconds"));
+        config.put(SecretDoors.CONFIG_MAX_OPS_PER_TICK, params.get("opsPerTick"));
+        // Only the per tick operation count limits the queue, so results don't depend on the machine's speed.
+        config.put(SecretDoors.CONFIG_MAX_MILLIS_PER_TICK, 1000);
+        try {
+            this.dataFolder = Files.createTempDirectory("secretdoors-load").toFile();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        this.plugin = FakePlugin.enable(server, dataFolder, config);
+        this.power = server.getListener(PowerListener.class);
+    }
+
+    public static void main(String[] args) {
+        Map<String, Integer> params = new LinkedHashMap<>(DEFAULTS);
+        for (String arg : args) {
+            String[] kv = arg.split("=", 2);
+            if (kv.length != 2 || !DEFAULTS.containsKey(kv[0]))
+                throw new IllegalArgumentException("Unknown argument " + arg + ", expected key=value with a key of " + DEFAULTS.keySet());
+            params.put(kv[0], Integer.parseInt(kv[1]));
+        }
+        System.out.println("LoadScenario " + params);
+
+        LoadScenario scenario = new LoadScenario(params);
+        boolean ok;
+        try {
+            ok = scenario.run(params.get("rounds"));
+        } finally {
+            scenario.close();
+        }
+        if (!ok)
+            System.exit(1);
+    }
+
+    private boolean run(int rounds) {
+        for (int round = 0; round < rounds; round++) {
+            String name = round == 0 ? "warm up" : "round " + round;
+            Phase phase = new Phase();
+
+            // Open: a rising edge on every door.  The queue opens them over the next ticks, and the auto close timers
+            // start closing the first ones before the last ones are open if there are enough doors.
+            phase.resume();
+            for (int i = 0; i < doors; i++) {
+                power.onBlockPowered(new BlockRedstoneEvent(world.getBlockAt(x(i), Y, z(i)), 0, 15));
+            }
+            phase.pause();
+            boolean[] opened = new boolean[doors];
+            tickUntil(phase, () -> markOpened(opened) == doors, closeTicks + doors);
+            long ticksToOpen = phase.ticks;
+            int notOpened = doors - markOpened(opened);
+
+            // Close: the auto close timers do it, the doors stay powered meanwhile.
+            tickUntil(phase, () -> countClosed() == doors, closeTicks + doors);
+            int notClosed = doors - countClosed();
+
+            // Unpower for the next round - the doors are closed already, so this must not write anything.
+            long writes = world.getWrites();
+            for (int i = 0; i < doors; i++) {
+                power.onBlockPowered(new BlockRedstoneEvent(world.getBlockAt(x(i), Y, z(i)), 15, 0));
+            }
+            scheduler.tick();
+            int spurious = (int) (world.getWrites() - writes);
+
+            int mismatches = verify();
+            System.out.printf("%-8s all open after %d ticks, all closed after %d: %s%n", name, ticksToOpen, phase.ticks, phase);
+            if (notOpened > 0 || notClosed > 0 || mismatches > 0 || spurious > 0) {
+                System.out.printf("FAILED: %d door(s) not opened, %d not closed, %d block(s) not restored, %d write(s) after closing%n",
+                        notOpened, notClosed, mismatches, spurious);
+                return false;
+            }
+        }
+        System.out.println("OK: every door opened, closed and was restored exactly in every round");
+        return true;
+    }
+
+    private void close() {
+        plugin.onDisable();
+        try (Stream<Path> files = Files.walk(dataFolder.toPath())) {
+            files.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    //// Grid
+
+    private int x(int door) {
+        return (door % width) * SPACING;
+    }
+
+    private int z(int door) {
+        return (door / width) * SPACING;
+    }
+
+    // A door facing EAST concealed by STONE to its west, with attachments on the north and south of the STONE.
+    private void placeDoor(int x, int z, int door) {
+        world.placeDoor(x, Y, z, Material.OAK_DOOR, BlockFace.EAST);
+        world.set(x - 1, Y, z, Material.STONE);
+        world.set(x - 1, Y + 1, z, Material.STONE);
+        for (int i = 0; i < attachments; i++) {
+            int y = Y + i / 2;
+            if (i % 2 == 0)
+                world.set(x - 1, y, z - 1, Material.WALL_TORCH, BlockFace.NORTH);
+            else
+                world.placeSign(x - 1, y, z + 1, FakeBlockData.of(Material.OAK_WALL_SIGN, BlockFace.SOUTH),
+                        "door " + door, "line " + i, "", "");
+        }
+    }
+
+    // Every position a door, its concealing blocks or their attachments can occupy: x - 1 .. x, y .. y + 1, z - 1 .. z + 1
+    private static final int CELLS = 2 * 2 * 3;
+
+    private String[] describeAll() {
+        String[] all = new String[doors * CELLS];
+        for (int i = 0; i < doors; i++) {
+            int c = i * CELLS;
+            for (int dx = -1; dx <= 0; dx++)
+                for (int dy = 0; dy <= 1; dy++)
+                    for (int dz = -1; dz <= 1; dz++)
+                        all[c++] = world.describe(x(i) + dx, Y + dy, z(i) + dz);
+        }
+        return all;
+    }
+
+    // Returns the number of blocks that differ from before the first round.
+    private int verify() {
+        String[] actual = describeAll();
+        int mismatches = 0;
+        for (int i = 0; i < actual.length; i++) {
+            if (!actual[i].equals(expected[i])) {
+                if (mismatches < 10) {
+                    int door = i / CELLS;
+                    System.out.println("Door at " + x(door) + "," + Y + "," + z(door) + ": expected " + expected[i]
+                            + " but was " + actual[i]);
+                }
+                mismatches++;
+            }
+        }
+        return mismatches;
+    }
+
+    //// Progress
+
+    // An open door has its lower concealing block removed.
+    private boolean isOpen(int door) {
+        return world.getType(x(door) - 1, Y, z(door)) == Material.AIR
+                && plugin.isSecretDoor(world.getWorld(), x(door), Y, z(door));
+    }
+
+    // Marks the doors that are open now, returns the number of doors marked so far.
+    private int markOpened(boolean[] opened) {
+        int count = 0;
+        for (int i = 0; i < doors; i++) {
+            if (opened[i] || (opened[i] = isOpen(i)))
+                count++;
+        }
+        return count;
+    }
+
+    private int countClosed() {
+        int count = 0;
+        for (int i = 0; i < doors; i++) {
+            if (world.getType(x(i) - 1, Y, z(i)) == Material.STONE
+                    && !plugin.isSecretDoor(world.getWorld(), x(i), Y, z(i)))
+                count++;
+        }
+        return count;
+    }
+
+    // Ticks until done, or maxTicks passed.  Only the ticks are measured, not the checks.
+    private void tickUntil(Phase phase, BooleanSupplier done, long maxTicks) {
+        long start = scheduler.getTick();
+        while (scheduler.getTick() - start < maxTicks && !done.getAsBoolean()) {
+            phase.resume();
+            scheduler.tick();
+            phase.pause();
+            phase.ticks++;
+        }
+    }
+
+    // Time, allocation and block writes of a round, summed over the sections between resume() and pause().
+    private final class Phase {
+        long nanos, bytes, writes, physics, updates, ticks;
+        private long startNanos, startBytes, startWrites, startPhysics, startUpdates;
+
+        void resume() {
+            startWrites = world.getWrites();
+            startPhysics = world.getPhysicsWrites();
+            startUpdates = world.getNeighbourUpdates();
+            startBytes = threads.getCurrentThreadAllocatedBytes();
+            startNanos = System.nanoTime();
+        }
+
+        void pause() {
+            nanos += System.nanoTime() - startNanos;
+            bytes += threads.getCurrentThreadAllocatedBytes() - startBytes;
+            writes += world.getWrites() - startWrites;
+            physics += world.getPhysicsWrites() - startPhysics;
+            updates += world.getNeighbourUpdates() - startUpdates;
+        }
+
+        // An operation is one open or one close.
+        @Override
+        public String toString() {
+            long ops = 2L * doors;
+            return String.format("%,d ops, %,.0f ops/s, %,d bytes/op, %.1f writes/op (%.1f with physics),"
+                            + " %.1f neighbour updates/op",
+                    ops, ops * 1e9 / Math.max(1, nanos), bytes / ops, (double) writes / ops, (double) physics / ops,
+                    (double) updates / ops);
+        }
+    }
+}
@@ -0,0 +1,122 @@
+package io.github.smank.secretdoors;
+
+import org.bukkit.Material;
+
+import java.util.EnumSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Predicate;
+
+/**
+ * Compares the Material classification of {@link SecretDoorHelper}, which is derived from Material names, with the
+ * Material lists the classification was written out as before (the switch statements it replaced).
+ * <p>
+ * Every Material named in any of the lists must be classified exactly as the lists say.  Materials named in none of
+ * them (wood types and blocks added since) are only printed.  Exits with 1 on a mismatch.  Run with:
+ * <pre>./gradlew checkMaterialFlags</pre>
+ */
+public final class MaterialFlagsCheck {
+
+    private static final String[] WOODS = {
+            "OAK", "ACACIA", "BIRCH", "DARK_OAK", "JUNGLE", "SPRUCE", "CRIMSON", "WARPED", "MANGROVE", "CHERRY", "BAMBOO"
+    };
+    private static final String[] COPPER = {
+            "COPPER", "EXPOSED_COPPER", "WEATHERED_COPPER", "OXIDIZED_COPPER",
+            "WAXED_COPPER", "WAXED_EXPOSED_COPPER", "WAXED_WEATHERED_COPPER", "WAXED_OXIDIZED_COPPER"
+    };
+    private static final String[] COLORS = {
+            "WHITE", "ORANGE", "MAGENTA", "LIGHT_BLUE", "YELLOW", "LIME", "PINK", "GRAY", "LIGHT_GRAY", "CYAN",
+            "PURPLE", "BLUE", "BROWN", "GREEN", "RED", "BLACK"
+    };
+    private static final String[] BUTTONS = { "STONE", "POLISHED_BLACKSTONE" };
+    private static final String[] SKULLS = { "SKELETON_SKULL", "WITHER_SKELETON_SKULL" };
+    private static final String[] HEADS = { "ZOMBIE", "PLAYER", "CREEPER", "DRAGON", "PIGLIN" };
+
+    private MaterialFlagsCheck() {}
+
+    public static void main(String[] args) {
+        Set<Material> doors = of(WOODS, "_DOOR");
+        doors.addAll(of(COPPER, "_DOOR"));
+
+        Set<Material> trapdoors = of(WOODS, "_TRAPDOOR");
+        trapdoors.addAll(of(COPPER, "_TRAPDOOR"));
+        trapdoors.add(Material.IRON_TRAPDOOR);
+
+        Set<Material> floorTorches = EnumSet.of(Material.TORCH, Material.SOUL_TORCH, Material.REDSTONE_TORCH);
+        Set<Material> standingSigns = of(WOODS, "_SIGN");
+        Set<Material> wallSigns = of(WOODS, "_WALL_SIGN");
+        wallSigns.addAll(of(WOODS, "_HANGING_SIGN"));
+        wallSigns.addAll(of(WOODS, "_WALL_HANGING_SIGN"));
+
+        // Buttons, levers, ladders and tripwire hooks are placed as the item they are.
+        Set<Material> both = of(WOODS, "_BUTTON");
+        both.addAll(of(BUTTONS, "_BUTTON"));
+        both.addAll(EnumSet.of(Material.LEVER, Material.LADDER, Material.TRIPWIRE_HOOK));
+
+        Set<Material> placeable = EnumSet.copyOf(floorTorches);
+        placeable.addAll(standingSigns);
+        placeable.addAll(of(WOODS, "_HANGING_SIGN"));
+        placeable.addAll(both);
+        placeable.addAll(of(COLORS, "_BANNER"));
+        placeable.addAll(of(SKULLS, ""));
+        placeable.addAll(of(HEADS, "_HEAD"));
+
+        Set<Material> attachable = EnumSet.of(Material.WALL_TORCH, Material.SOUL_WALL_TORCH,
+                Material.REDSTONE_WALL_TORCH);
+        attachable.addAll(standingSigns);
+        attachable.addAll(wallSigns);
+        attachable.addAll(both);
+        attachable.addAll(of(COLORS, "_WALL_BANNER"));
+        attachable.addAll(of(new String[] { "SKELETON", "WITHER_SKELETON" }, "_WALL_SKULL"));
+        attachable.addAll(of(HEADS, "_WALL_HEAD"));
+
+        Map<String, Set<Material>> lists = new LinkedHashMap<>();
+        Map<String, Predicate<Material>> checks = new LinkedHashMap<>();
+        add(lists, checks, "isValidDoor", doors, SecretDoorHelper::isValidDoor);
+        add(lists, checks, "isValidTrapDoor", trapdoors, SecretDoorHelper::isValidTrapDoor);
+        add(lists, checks, "isPlaceableAttachable", placeable, SecretDoorHelper::isPlaceableAttachable);
+        add(lists, checks, "isAttachableItem", attachable, SecretDoorHelper::isAttachableItem);
+        add(lists, checks, "isFloorTorch", floorTorches, SecretDoorHelper::isFloorTorch);
+        add(lists, checks, "isStandingSign", standingSigns, SecretDoorHelper::isStandingSign);
+        add(lists, checks, "isWallSign", wallSigns, SecretDoorHelper::isWallSign);
+
+        Set<Material> listed = EnumSet.noneOf(Material.class);
+        lists.values().forEach(listed::addAll);
+
+        int mismatches = 0;
+        for (Material m : Material.values()) {
+            if (m.name().startsWith("LEGACY_"))
+                continue;
+            for (Map.Entry<String, Set<Material>> e : lists.entrySet()) {
+                boolean expected = e.getValue().contains(m);
+                boolean actual = checks.get(e.getKey()).test(m);
+                if (expected == actual)
+                    continue;
+                if (listed.contains(m)) {
+                    System.out.println("MISMATCH " + e.getKey() + "(" + m + ") is " + actual + ", expected " + expected);
+                    mismatches++;
+                } else {
+                    System.out.println("new      " + e.getKey() + "(" + m + ") is " + actual);
+                }
+            }
+        }
+        System.out.println(listed.size() + " listed materials checked, " + mismatches + " mismatch(es)");
+        if (mismatches > 0)
+            System.exit(1);
+    }
+
+    private static Set<Material> of(String[] prefixes, String suffix) {
+        Set<Material> materials = EnumSet.noneOf(Material.class);
+        for (String prefix : prefixes) {
+            materials.add(Material.valueOf(prefix + suffix));
+        }
+        return materials;
+    }
+
+    private static void add(Map<String, Set<Material>> lists, Map<String, Predicate<Material>> checks, String name,
+                            Set<Material> list, Predicate<Material> check) {
+        lists.put(name, list);
+        checks.put(name, check);
+    }
+}
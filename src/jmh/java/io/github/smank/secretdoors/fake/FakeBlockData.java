@@ -0,0 +1,111 @@
+package io.github.smank.secretdoors.fake;
+
+import org.bukkit.Material;
+import org.bukkit.block.BlockFace;
+import org.bukkit.block.data.Bisected;
+import org.bukkit.block.data.BlockData;
+import org.bukkit.block.data.Directional;
+import org.bukkit.block.data.type.Door;
+import org.bukkit.block.data.type.TrapDoor;
+
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * In-memory BlockData.  Implements the BlockData subtypes the plugin casts to (Door, TrapDoor, Directional), picked
+ * from the Material name the same way SecretDoorHelper classifies materials.  Properties are kept in a map and read
+ * and written through the usual getX/isX/setX methods.  Equal if the material and every property are equal.
+ */
+public final class FakeBlockData {
+
+    private FakeBlockData() {}
+
+    /**
+     * @return new BlockData of the received type with the vanilla default properties.
+     */
+    public static BlockData of(Material material) {
+        Map<String, Object> properties = new TreeMap<>();
+        Class<?> type = typeOf(material);
+        if (type != BlockData.class)
+            properties.put("facing", BlockFace.NORTH);
+        if (type == Door.class || type == TrapDoor.class) {
+            properties.put("half", Bisected.Half.BOTTOM);
+            properties.put("open", false);
+            properties.put("powered", false);
+        }
+        if (type == Door.class)
+            properties.put("hinge", Door.Hinge.LEFT);
+        return create(material, type, properties);
+    }
+
+    /**
+     * @return new Directional BlockData of the received type facing {@code facing}.
+     */
+    public static BlockData of(Material material, BlockFace facing) {
+        BlockData data = of(material);
+        ((Directional) data).setFacing(facing);
+        return data;
+    }
+
+    private static Class<?> typeOf(Material material) {
+        String name = material.name();
+        if (name.endsWith("_TRAPDOOR"))
+            return TrapDoor.class;
+        if (name.endsWith("_DOOR"))
+            return Door.class;
+        if (name.contains("WALL_") || name.endsWith("_BUTTON") || material == Material.LADDER
+                || material == Material.LEVER || material == Material.TRIPWIRE_HOOK)
+            return Directional.class;
+        return BlockData.class;
+    }
+
+    private static BlockData create(Material material, Class<?> type, Map<String, Object> properties) {
+        return (BlockData) Fakes.proxy(type, (proxy, method, args) -> {
+            switch (method) {
+                case "getMaterial":
+                    return material;
+                case "clone":
+                    return create(material, type, new TreeMap<>(properties));
+                case "getAsString":
+                case "toString":
+                    return asString(material, properties);
+                case "matches":
+                case "equals":
+                    return args[0] instanceof BlockData
+                            && asString(material, properties).equals(((BlockData) args[0]).getAsString());
+                case "hashCode":
+                    return asString(material, properties).hashCode();
+                default:
+                    break;
+            }
+            // Property accessors
+            if (args.length == 0 && method.startsWith("get") && properties.containsKey(property(method, 3)))
+                return properties.get(property(method, 3));
+            if (args.length == 0 && method.startsWith("is") && properties.containsKey(property(method, 2)))
+                return properties.get(property(method, 2));
+            if (args.length == 1 && method.startsWith("set") && properties.containsKey(property(method, 3))) {
+                properties.put(property(method, 3), args[0]);
+                return null;
+            }
+            return Fakes.UNHANDLED;
+        });
+    }
+
+    private static String property(String method, int prefix) {
+        return Character.toLowerCase(method.charAt(prefix)) + method.substring(prefix + 1);
+    }
+
+    private static String asString(Material material, Map<String, Object> properties) {
+        StringBuilder sb = new StringBuilder("minecraft:").append(material.name().toLowerCase());
+        if (!properties.isEmpty()) {
+            sb.append('[');
+            for (Map.Entry<String, Object> e : properties.entrySet()) {
+                if (sb.charAt(sb.length() - 1) != '[')
+                    sb.append(',');
+                sb.append(e.getKey()).append('=').append(e.getValue().toString().toLowerCase());
+            }
+            sb.append(']');
+        }
+        return sb.toString();
+    }
+}
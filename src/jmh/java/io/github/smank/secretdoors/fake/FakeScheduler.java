@@ -0,0 +1,128 @@
+package io.github.smank.secretdoors.fake;
+
+import org.bukkit.scheduler.BukkitScheduler;
+import org.bukkit.scheduler.BukkitTask;
+
+import java.util.PriorityQueue;
+
+/**
+ * BukkitScheduler whose ticks are advanced by hand with {@link #tick()}.
+ * Tasks run in the order they are due, and in scheduling order within the same tick.  Asynchronous tasks are run like
+ * synchronous ones on the next tick, which keeps scenarios deterministic.
+ */
+public final class FakeScheduler {
+
+    private final PriorityQueue<Task> tasks = new PriorityQueue<>((a, b) ->
+            a.next != b.next ? Long.compare(a.next, b.next) : Integer.compare(a.id, b.id));
+    private final BukkitScheduler scheduler;
+    private long tick = 0;
+    private int lastId = 0;
+
+    public FakeScheduler() {
+        this.scheduler = Fakes.proxy(BukkitScheduler.class, (proxy, method, args) -> {
+            switch (method) {
+                case "runTask":
+                case "runTaskAsynchronously":
+                    return schedule((Runnable) args[1], 0, -1);
+                case "runTaskLater":
+                case "runTaskLaterAsynchronously":
+                    return schedule((Runnable) args[1], (long) args[2], -1);
+                case "runTaskTimer":
+                case "runTaskTimerAsynchronously":
+                    return schedule((Runnable) args[1], (long) args[2], (long) args[3]);
+                case "cancelTasks":
+                    tasks.forEach((t) -> t.cancelled = true);
+                    tasks.clear();
+                    return null;
+                default:
+                    return Fakes.UNHANDLED;
+            }
+        });
+    }
+
+    /**
+     * @return the BukkitScheduler backed by this.
+     */
+    public BukkitScheduler getScheduler() {
+        return scheduler;
+    }
+
+    /**
+     * @return the number of ticks run so far.
+     */
+    public long getTick() {
+        return tick;
+    }
+
+    /**
+     * @return the number of scheduled tasks.
+     */
+    public int size() {
+        return tasks.size();
+    }
+
+    /**
+     * Runs one tick: every task that is due, including tasks scheduled by them for this same tick.
+     */
+    public void tick() {
+        tick++;
+        Task task;
+        while ((task = tasks.peek()) != null && task.next <= tick) {
+            tasks.poll();
+            if (task.cancelled)
+                continue;
+            task.runnable.run();
+            if (task.period > 0 && !task.cancelled) {
+                task.next += task.period;
+                tasks.add(task);
+            }
+        }
+    }
+
+    /**
+     * Runs {@code ticks} ticks.
+     */
+    public void tick(int ticks) {
+        for (int i = 0; i < ticks; i++) {
+            tick();
+        }
+    }
+
+    private BukkitTask schedule(Runnable runnable, long delay, long period) {
+        Task task = new Task(++lastId, runnable, tick + Math.max(1, delay), period);
+        tasks.add(task);
+        return task.handle;
+    }
+
+    private final class Task {
+        final int id;
+        final Runnable runnable;
+        final long period;
+        long next;
+        boolean cancelled = false;
+        final BukkitTask handle;
+
+        Task(int id, Runnable runnable, long next, long period) {
+            this.id = id;
+            this.runnable = runnable;
+            this.next = next;
+            this.period = period;
+            this.handle = Fakes.proxy(BukkitTask.class, (proxy, method, args) -> {
+                switch (method) {
+                    case "cancel":
+                        cancelled = true;
+                        tasks.remove(this);
+                        return null;
+                    case "isCancelled":
+                        return cancelled;
+                    case "getTaskId":
+                        return id;
+                    case "isSync":
+                        return true;
+                    default:
+                        return Fakes.UNHANDLED;
+                }
+            });
+        }
+    }
+}
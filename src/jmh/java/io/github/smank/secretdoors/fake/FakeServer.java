@@ -0,0 +1,113 @@
+package io.github.smank.secretdoors.fake;
+
+import org.bukkit.Server;
+import org.bukkit.World;
+import org.bukkit.event.Listener;
+import org.bukkit.plugin.PluginManager;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.logging.Logger;
+
+/**
+ * In-memory Server with {@link FakeWorld}s and a {@link FakeScheduler}.  Registered listeners are only recorded,
+ * events are fired by calling the listener methods directly.
+ * Not installed as Bukkit.getServer(), so nothing (e.g. block tags) is looked up from it implicitly.
+ */
+public final class FakeServer {
+
+    private final Logger logger = Logger.getLogger("FakeServer");
+    private final FakeScheduler scheduler = new FakeScheduler();
+    private final Map<UUID, FakeWorld> worlds = new LinkedHashMap<>();
+    private final List<Listener> listeners = new ArrayList<>();
+    private final Server server;
+
+    public FakeServer() {
+        PluginManager pluginManager = Fakes.proxy(PluginManager.class, (proxy, method, args) -> {
+            if (method.equals("registerEvents")) {
+                listeners.add((Listener) args[0]);
+                return null;
+            }
+            return Fakes.UNHANDLED;
+        });
+
+        this.server = Fakes.proxy(Server.class, (proxy, method, args) -> {
+            switch (method) {
+                case "getLogger":
+                    return logger;
+                case "getScheduler":
+                    return scheduler.getScheduler();
+                case "getPluginManager":
+                    return pluginManager;
+                case "getWorld":
+                    if (args[0] instanceof UUID) {
+                        FakeWorld w = worlds.get(args[0]);
+                        return w == null ? null : w.getWorld();
+                    }
+                    for (FakeWorld w : worlds.values()) {
+                        if (w.getName().equals(args[0]))
+                            return w.getWorld();
+                    }
+                    return null;
+                case "getWorlds":
+                    List<World> all = new ArrayList<>();
+                    worlds.values().forEach((w) -> all.add(w.getWorld()));
+                    return all;
+                case "getOnlinePlayers":
+                    return Collections.emptyList();
+                case "isPrimaryThread":
+                    return true;
+                case "getName":
+                    return "FakeServer";
+                case "getVersion":
+                case "getBukkitVersion":
+                    return "fake";
+                default:
+                    return Fakes.UNHANDLED;
+            }
+        });
+    }
+
+    /**
+     * @return the Server backed by this.
+     */
+    public Server getServer() {
+        return server;
+    }
+
+    public FakeScheduler getScheduler() {
+        return scheduler;
+    }
+
+    /**
+     * Creates a new empty world.
+     */
+    public FakeWorld addWorld(String name) {
+        FakeWorld world = new FakeWorld(name);
+        worlds.put(world.getUID(), world);
+        return world;
+    }
+
+    /**
+     * Removes the received world, so getWorld no longer finds it.
+     */
+    public void removeWorld(FakeWorld world) {
+        worlds.remove(world.getUID());
+    }
+
+    /**
+     * @return the registered listener of the received type.
+     * @throws IllegalStateException if there is none.
+     */
+    public <T extends Listener> T getListener(Class<T> type) {
+        for (Listener l : listeners) {
+            if (type.isInstance(l))
+                return type.cast(l);
+        }
+        throw new IllegalStateException("No " + type.getSimpleName() + " registered");
+    }
+}
@@ -0,0 +1,485 @@
+package io.github.smank.secretdoors.fake;
+
+import io.github.smank.secretdoors.util.BlockKeys;
+import io.github.smank.secretdoors.util.LongObjectMap;
+import org.bukkit.Chunk;
+import org.bukkit.ChunkSnapshot;
+import org.bukkit.DyeColor;
+import org.bukkit.Location;
+import org.bukkit.Material;
+import org.bukkit.World;
+import org.bukkit.block.Block;
+import org.bukkit.block.BlockFace;
+import org.bukkit.block.BlockState;
+import org.bukkit.block.Sign;
+import org.bukkit.block.data.Bisected;
+import org.bukkit.block.data.BlockData;
+import org.bukkit.block.data.type.Door;
+import org.bukkit.block.sign.Side;
+import org.bukkit.block.sign.SignSide;
+
+import java.util.Arrays;
+import java.util.UUID;
+
+/**
+ * In-memory World.  Blocks are stored by packed position (see {@link BlockKeys}), unset positions are AIR.
+ * Physics is not simulated, but every block write is counted so benchmarks and scenarios can check how many writes
+ * (and how many with physics) an operation did.  Like on a server, writing a block's current data with physics
+ * writes nothing and only updates its neighbours, which is counted separately.
+ */
+public final class FakeWorld {
+
+    private static final BlockData AIR = FakeBlockData.of(Material.AIR);
+
+    private final UUID uid = UUID.randomUUID();
+    private final String name;
+    private final World world;
+
+    private final LongObjectMap<BlockData> blocks = new LongObjectMap<>();
+    private final LongObjectMap<SignContents> signs = new LongObjectMap<>();
+
+    private long writes = 0;
+    private long physicsWrites = 0;
+    private long neighbourUpdates = 0;
+
+    public FakeWorld(String name) {
+        this.name = name;
+        this.world = Fakes.proxy(World.class, (proxy, method, args) -> {
+            switch (method) {
+                case "getUID":
+                    return uid;
+                case "getName":
+                case "toString":
+                    return name;
+                case "getBlockAt":
+                    if (args.length == 1) {
+                        Location l = (Location) args[0];
+                        return getBlockAt(l.getBlockX(), l.getBlockY(), l.getBlockZ());
+                    }
+                    return getBlockAt((int) args[0], (int) args[1], (int) args[2]);
+                case "getType":
+                    if (args.length == 3)
+                        return getType((int) args[0], (int) args[1], (int) args[2]);
+                    break;
+                case "getBlockData":
+                    if (args.length == 3)
+                        return getBlockData((int) args[0], (int) args[1], (int) args[2]);
+                    break;
+                case "isChunkLoaded":
+                    return true;
+                case "getChunkAt":
+                    if (args.length == 2)
+                        return getChunkAt((int) args[0], (int) args[1]);
+                    break;
+                case "getLoadedChunks":
+                    return new Chunk[0];
+                case "getMinHeight":
+                    return -64;
+                case "getMaxHeight":
+                    return 320;
+                default:
+                    break;
+            }
+            return Fakes.UNHANDLED;
+        });
+    }
+
+    /**
+     * @return the World backed by this.
+     */
+    public World getWorld() {
+        return world;
+    }
+
+    public UUID getUID() {
+        return uid;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return a new Block object for the received position, like World.getBlockAt.
+     */
+    public Block getBlockAt(int x, int y, int z) {
+        return new FakeBlock(x, y, z).proxy;
+    }
+
+    /**
+     * @return a Chunk of this world whose snapshots read the blocks at the time they are taken.
+     */
+    public Chunk getChunkAt(int chunkX, int chunkZ) {
+        return Fakes.proxy(Chunk.class, (proxy, method, args) -> {
+            switch (method) {
+                case "getX":
+                    return chunkX;
+                case "getZ":
+                    return chunkZ;
+                case "getWorld":
+                    return world;
+                case "isLoaded":
+                    return true;
+                case "getChunkSnapshot":
+                    return snapshot(chunkX, chunkZ);
+                default:
+                    return Fakes.UNHANDLED;
+            }
+        });
+    }
+
+    // Copies the blocks of a chunk, like ChunkSnapshot does.
+    private ChunkSnapshot snapshot(int chunkX, int chunkZ) {
+        int minY = -64, height = 384;
+        Material[] types = new Material[16 * 16 * height];
+        for (int x = 0; x < 16; x++)
+            for (int z = 0; z < 16; z++)
+                for (int y = 0; y < height; y++)
+                    types[(y * 16 + z) * 16 + x] = getType(chunkX * 16 + x, minY + y, chunkZ * 16 + z);
+        return Fakes.proxy(ChunkSnapshot.class, (proxy, method, args) -> {
+            switch (method) {
+                case "getX":
+                    return chunkX;
+                case "getZ":
+                    return chunkZ;
+                case "getWorldName":
+                    return name;
+                case "getBlockType":
+                    return types[(((int) args[1] - minY) * 16 + (int) args[2]) * 16 + (int) args[0]];
+                case "isSectionEmpty":
+                    return false;
+                default:
+                    return Fakes.UNHANDLED;
+            }
+        });
+    }
+
+    public Material getType(int x, int y, int z) {
+        BlockData data = blocks.get(BlockKeys.pack(x, y, z));
+        return data == null ? Material.AIR : data.getMaterial();
+    }
+
+    /**
+     * @return a copy of the data at the received position.
+     */
+    public BlockData getBlockData(int x, int y, int z) {
+        BlockData data = blocks.get(BlockKeys.pack(x, y, z));
+        return (data == null ? AIR : data).clone();
+    }
+
+    /**
+     * Sets the block at the received position to a copy of {@code data}, counting the write.
+     */
+    public void setBlockData(int x, int y, int z, BlockData data, boolean physics) {
+        if (physics && getBlockData(x, y, z).equals(data)) {
+            neighbourUpdates++;
+            return;
+        }
+        writes++;
+        if (physics)
+            physicsWrites++;
+        set(x, y, z, data);
+    }
+
+    // Sets a block without counting it as a write by the plugin.
+    private void set(int x, int y, int z, BlockData data) {
+        long key = BlockKeys.pack(x, y, z);
+        if (data.getMaterial() != Material.AIR)
+            blocks.put(key, data.clone());
+        else
+            blocks.remove(key);
+        // Replacing a sign drops its text, like a tile entity would be.
+        if (!isSign(data.getMaterial()))
+            signs.remove(key);
+    }
+
+    /**
+     * @return a copy of the front text of the sign at the received position, or null if it has none.
+     */
+    public String[] getSignText(int x, int y, int z) {
+        SignContents sign = signs.get(BlockKeys.pack(x, y, z));
+        return sign == null ? null : sign.lines[Side.FRONT.ordinal()].clone();
+    }
+
+    /**
+     * @return everything stored for the received position - its block data and sign contents - as a string, so two
+     *         states of the world can be compared exactly.
+     */
+    public String describe(int x, int y, int z) {
+        SignContents sign = signs.get(BlockKeys.pack(x, y, z));
+        String data = getBlockData(x, y, z).getAsString();
+        return sign == null ? data : data + sign;
+    }
+
+    //// World building - none of these count as writes
+
+    /**
+     * Sets the block at the received position.
+     */
+    public FakeWorld set(int x, int y, int z, Material material) {
+        set(x, y, z, FakeBlockData.of(material));
+        return this;
+    }
+
+    /**
+     * Sets a Directional block (wall torch, wall sign, ...) at the received position.
+     */
+    public FakeWorld set(int x, int y, int z, Material material, BlockFace facing) {
+        set(x, y, z, FakeBlockData.of(material, facing));
+        return this;
+    }
+
+    /**
+     * Places a closed door with its bottom half at the received position.
+     */
+    public FakeWorld placeDoor(int x, int y, int z, Material material, BlockFace facing) {
+        Door bottom = (Door) FakeBlockData.of(material, facing);
+        Door top = (Door) bottom.clone();
+        top.setHalf(Bisected.Half.TOP);
+        set(x, y, z, bottom);
+        set(x, y + 1, z, top);
+        return this;
+    }
+
+    /**
+     * Places a sign with the received front text, glowing black text on the back and wax, so every part of a sign's
+     * contents is covered by comparisons.
+     */
+    public FakeWorld placeSign(int x, int y, int z, BlockData sign, String... lines) {
+        set(x, y, z, sign);
+        SignContents contents = new SignContents();
+        contents.lines[Side.FRONT.ordinal()] = Arrays.copyOf(lines, 4);
+        contents.lines[Side.BACK.ordinal()] = new String[] { "back", "", "", "" };
+        contents.colors[Side.BACK.ordinal()] = DyeColor.WHITE;
+        contents.glowing[Side.BACK.ordinal()] = true;
+        contents.waxed = true;
+        signs.put(BlockKeys.pack(x, y, z), contents);
+        return this;
+    }
+
+    //// Counters
+
+    /**
+     * @return the number of block writes since the last {@link #resetCounters()}.
+     */
+    public long getWrites() {
+        return writes;
+    }
+
+    /**
+     * @return the number of block writes that applied physics since the last {@link #resetCounters()}.
+     */
+    public long getPhysicsWrites() {
+        return physicsWrites;
+    }
+
+    /**
+     * @return the number of neighbour updates of unchanged blocks since the last {@link #resetCounters()}.
+     */
+    public long getNeighbourUpdates() {
+        return neighbourUpdates;
+    }
+
+    public void resetCounters() {
+        writes = 0;
+        physicsWrites = 0;
+        neighbourUpdates = 0;
+    }
+
+    /**
+     * @return the number of non AIR blocks.
+     */
+    public int size() {
+        return blocks.size();
+    }
+
+    private static boolean isSign(Material material) {
+        return material.name().endsWith("_SIGN");
+    }
+
+    // A Block is just a position, like in CraftBukkit.
+    private final class FakeBlock {
+        final int x, y, z;
+        final Block proxy;
+
+        FakeBlock(int x, int y, int z) {
+            this.x = x;
+            this.y = y;
+            this.z = z;
+            this.proxy = Fakes.proxy(Block.class, this::invoke);
+        }
+
+        private Object invoke(Object self, String method, Object[] args) {
+            switch (method) {
+                case "getType":
+                    return FakeWorld.this.getType(x, y, z);
+                case "getBlockData":
+                    return FakeWorld.this.getBlockData(x, y, z);
+                case "setType":
+                    setBlockData(x, y, z, FakeBlockData.of((Material) args[0]), args.length == 1 || (boolean) args[1]);
+                    return null;
+                case "setBlockData":
+                    setBlockData(x, y, z, (BlockData) args[0], args.length == 1 || (boolean) args[1]);
+                    return null;
+                case "getX":
+                    return x;
+                case "getY":
+                    return y;
+                case "getZ":
+                    return z;
+                case "getWorld":
+                    return world;
+                case "getChunk":
+                    return getChunkAt(x >> 4, z >> 4);
+                case "getLocation":
+                    return new Location(world, x, y, z);
+                case "getRelative":
+                    if (args.length == 3)
+                        return getBlockAt(x + (int) args[0], y + (int) args[1], z + (int) args[2]);
+                    BlockFace face = (BlockFace) args[0];
+                    int distance = args.length == 2 ? (int) args[1] : 1;
+                    return getBlockAt(x + face.getModX() * distance, y + face.getModY() * distance,
+                            z + face.getModZ() * distance);
+                case "getState":
+                    return new FakeState(this).proxy;
+                case "isEmpty":
+                    return FakeWorld.this.getType(x, y, z) == Material.AIR;
+                case "equals":
+                    return args[0] instanceof Block && ((Block) args[0]).getWorld() == world
+                            && ((Block) args[0]).getX() == x && ((Block) args[0]).getY() == y
+                            && ((Block) args[0]).getZ() == z;
+                case "hashCode":
+                    return Long.hashCode(BlockKeys.pack(x, y, z));
+                case "toString":
+                    return "FakeBlock{" + name + "," + x + "," + y + "," + z + "," + FakeWorld.this.getType(x, y, z) + "}";
+                default:
+                    return Fakes.UNHANDLED;
+            }
+        }
+    }
+
+    // Contents of a sign besides its BlockData.  Unset text is "", colours default to BLACK.
+    private static final class SignContents {
+        final String[][] lines = { { "", "", "", "" }, { "", "", "", "" } };
+        final DyeColor[] colors = { DyeColor.BLACK, DyeColor.BLACK };
+        final boolean[] glowing = new boolean[2];
+        boolean waxed = false;
+
+        SignContents copy() {
+            SignContents c = new SignContents();
+            for (int i = 0; i < 2; i++) {
+                c.lines[i] = lines[i].clone();
+                c.colors[i] = colors[i];
+                c.glowing[i] = glowing[i];
+            }
+            c.waxed = waxed;
+            return c;
+        }
+
+        @Override
+        public String toString() {
+            return Arrays.toString(lines[0]) + colors[0] + (glowing[0] ? "+glow" : "")
+                    + Arrays.toString(lines[1]) + colors[1] + (glowing[1] ? "+glow" : "") + (waxed ? "+waxed" : "");
+        }
+    }
+
+    // Snapshot of a block, a Sign if the block is a sign.
+    private final class FakeState {
+        final FakeBlock block;
+        BlockData data;
+        final SignContents sign;
+        final BlockState proxy;
+
+        FakeState(FakeBlock block) {
+            this.block = block;
+            this.data = getBlockData(block.x, block.y, block.z);
+            SignContents stored = signs.get(BlockKeys.pack(block.x, block.y, block.z));
+            this.sign = stored != null ? stored.copy() : new SignContents();
+            this.proxy = isSign(data.getMaterial())
+                    ? Fakes.proxy(Sign.class, this::invoke)
+                    : Fakes.proxy(BlockState.class, this::invoke);
+        }
+
+        private Object invoke(Object self, String method, Object[] args) {
+            switch (method) {
+                case "getBlockData":
+                    return data.clone();
+                case "setBlockData":
+                    data = ((BlockData) args[0]).clone();
+                    return null;
+                case "getType":
+                    return data.getMaterial();
+                case "getBlock":
+                    return block.proxy;
+                case "getWorld":
+                    return world;
+                case "getX":
+                    return block.x;
+                case "getY":
+                    return block.y;
+                case "getZ":
+                    return block.z;
+                case "getLocation":
+                    return new Location(world, block.x, block.y, block.z);
+                case "getSide":
+                    return side((Side) args[0]);
+                case "getLines":
+                case "getLine":
+                case "setLine":
+                case "getColor":
+                case "setColor":
+                case "isGlowingText":
+                case "setGlowingText":
+                    // The deprecated Sign methods act on the front.
+                    return invokeSide(Side.FRONT, method, args);
+                case "isWaxed":
+                    return sign.waxed;
+                case "setWaxed":
+                    sign.waxed = (boolean) args[0];
+                    return null;
+                case "update":
+                    return update(args.length > 0 && (boolean) args[0], args.length < 2 || (boolean) args[1]);
+                default:
+                    return Fakes.UNHANDLED;
+            }
+        }
+
+        private SignSide side(Side side) {
+            return Fakes.proxy(SignSide.class, (proxy, method, args) -> invokeSide(side, method, args));
+        }
+
+        private Object invokeSide(Side side, String method, Object[] args) {
+            int i = side.ordinal();
+            switch (method) {
+                case "getLines":
+                    return sign.lines[i].clone();
+                case "getLine":
+                    return sign.lines[i][(int) args[0]];
+                case "setLine":
+                    sign.lines[i][(int) args[0]] = (String) args[1];
+                    return null;
+                case "getColor":
+                    return sign.colors[i];
+                case "setColor":
+                    sign.colors[i] = (DyeColor) args[0];
+                    return null;
+                case "isGlowingText":
+                    return sign.glowing[i];
+                case "setGlowingText":
+                    sign.glowing[i] = (boolean) args[0];
+                    return null;
+                default:
+                    return Fakes.UNHANDLED;
+            }
+        }
+
+        private boolean update(boolean force, boolean physics) {
+            if (!force && FakeWorld.this.getType(block.x, block.y, block.z) != data.getMaterial())
+                return false;
+            setBlockData(block.x, block.y, block.z, data, physics);
+            if (isSign(data.getMaterial()))
+                signs.put(BlockKeys.pack(block.x, block.y, block.z), sign.copy());
+            return true;
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package io.github.smank.secretdoors.fake;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+
+/**
+ * Builds the proxies behind the fake API objects.
+ * The Bukkit interfaces have far too many methods to implement by hand, so every fake is a dynamic proxy whose
+ * handler answers the few methods the plugin actually calls.  Everything else returns null, false or zero.
+ */
+public final class Fakes {
+
+    private Fakes() {}
+
+    /**
+     * Handler of the methods a fake implements.
+     */
+    @FunctionalInterface
+    public interface Methods {
+        /**
+         * @return the result of {@code method}, or {@link #UNHANDLED} to fall back to the default value.
+         */
+        Object invoke(Object proxy, String method, Object[] args) throws Throwable;
+    }
+
+    /**
+     * Returned by {@link Methods} for methods a fake does not implement.
+     */
+    public static final Object UNHANDLED = new Object();
+
+    /**
+     * @return a proxy implementing {@code types}, answering calls with {@code methods}.  equals and hashCode are
+     *         identity based unless {@code methods} handles them; toString names the first type.
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> T proxy(Class<T> type, Methods methods, Class<?>... extra) {
+        Class<?>[] types = new Class<?>[extra.length + 1];
+        types[0] = type;
+        System.arraycopy(extra, 0, types, 1, extra.length);
+        InvocationHandler handler = (proxy, method, args) -> {
+            Object[] a = args == null ? NO_ARGS : args;
+            Object result = methods.invoke(proxy, method.getName(), a);
+            if (result != UNHANDLED)
+                return result;
+            return defaultResult(proxy, method, a, type);
+        };
+        return (T) Proxy.newProxyInstance(Fakes.class.getClassLoader(), types, handler);
+    }
+
+    private static final Object[] NO_ARGS = new Object[0];
+
+    private static Object defaultResult(Object proxy, Method method, Object[] args, Class<?> type) {
+        switch (method.getName()) {
+            case "equals":
+                if (args.length == 1)
+                    return proxy == args[0];
+                break;
+            case "hashCode":
+                if (args.length == 0)
+                    return System.identityHashCode(proxy);
+                break;
+            case "toString":
+                if (args.length == 0)
+                    return "Fake" + type.getSimpleName() + "@" + Integer.toHexString(System.identityHashCode(proxy));
+                break;
+            default:
+                break;
+        }
+        Class<?> r = method.getReturnType();
+        if (!r.isPrimitive() || r == void.class)
+            return null;
+        if (r == boolean.class)
+            return false;
+        if (r == char.class)
+            return (char) 0;
+        if (r == byte.class)
+            return (byte) 0;
+        if (r == short.class)
+            return (short) 0;
+        if (r == int.class)
+            return 0;
+        if (r == long.class)
+            return 0L;
+        if (r == float.class)
+            return 0f;
+        return 0d;
+    }
+}
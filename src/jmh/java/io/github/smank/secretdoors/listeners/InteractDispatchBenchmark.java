@@ -0,0 +1,286 @@
+package io.github.smank.secretdoors.listeners;
+
+import io.github.smank.secretdoors.DoorFixture;
+import io.github.smank.secretdoors.SecretDoorHelper;
+import io.github.smank.secretdoors.SecretDoors;
+import io.github.smank.secretdoors.SecretDoorsSettings;
+import io.github.smank.secretdoors.SecretTrapdoor;
+import org.bukkit.Material;
+import org.bukkit.block.Block;
+import org.bukkit.block.BlockFace;
+import org.bukkit.block.data.Directional;
+import org.bukkit.entity.Player;
+import org.bukkit.event.block.Action;
+import org.bukkit.event.player.PlayerInteractEvent;
+import org.bukkit.inventory.ItemStack;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * PlayerInteractEvent dispatch before and after it went through a single handler: the four handlers PlayerListener
+ * had before, each checking the permission, the action and its block type on its own, next to
+ * {@link PlayerListener#onPlayerInteract} and {@link PlayerListener#classify}.
+ * Only clicks that don't involve a secret door are measured, which is nearly all of them on a real server.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class InteractDispatchBenchmark {
+
+    private DoorFixture fixture;
+    private PlayerListener playerListener;
+    private BaselineHandlers baseline;
+    private SecretDoorsSettings settings;
+
+    private PlayerInteractEvent leftClick;
+    private PlayerInteractEvent blacklistedClick;
+    private PlayerInteractEvent concealingClick;
+
+    // Clicked blocks cycled through by the mixed benchmarks, so the type checks can't be constant folded.
+    private PlayerInteractEvent[] mixedClicks;
+    private Block[] mixedBlocks;
+    private int next = 0;
+
+    @Setup
+    public void setup() {
+        fixture = new DoorFixture(0);
+        playerListener = fixture.server.getListener(PlayerListener.class);
+        baseline = new BaselineHandlers(fixture.plugin);
+        settings = fixture.plugin.getSettings();
+
+        Player player = fixture.player(true);
+        fixture.world.set(100, 64, 100, Material.STONE);
+        fixture.world.set(102, 64, 100, Material.CHEST);
+        fixture.world.set(104, 64, 100, Material.GRASS_BLOCK);
+        fixture.world.set(106, 64, 100, Material.OAK_PLANKS);
+        Block stone = fixture.world.getBlockAt(100, 64, 100);
+        Block chest = fixture.world.getBlockAt(102, 64, 100);
+
+        leftClick = new PlayerInteractEvent(player, Action.LEFT_CLICK_BLOCK, null, stone, BlockFace.UP);
+        blacklistedClick = new PlayerInteractEvent(player, Action.RIGHT_CLICK_BLOCK, null, chest, BlockFace.UP);
+        concealingClick = new PlayerInteractEvent(player, Action.RIGHT_CLICK_BLOCK, null, stone, BlockFace.UP);
+
+        mixedBlocks = new Block[] {
+                stone, chest, fixture.world.getBlockAt(104, 64, 100), fixture.world.getBlockAt(106, 64, 100),
+                fixture.world.getBlockAt(108, 64, 100)
+        };
+        mixedClicks = new PlayerInteractEvent[mixedBlocks.length];
+        for (int i = 0; i < mixedBlocks.length; i++) {
+            mixedClicks[i] = new PlayerInteractEvent(player, Action.RIGHT_CLICK_BLOCK, null, mixedBlocks[i],
+                    BlockFace.UP);
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        fixture.close();
+    }
+
+    private int nextIndex() {
+        int i = next;
+        next = next + 1 == mixedBlocks.length ? 0 : next + 1;
+        return i;
+    }
+
+    @Benchmark
+    public PlayerInteractEvent baselineLeftClick() {
+        baseline.dispatch(leftClick);
+        return leftClick;
+    }
+
+    @Benchmark
+    public PlayerInteractEvent singleHandlerLeftClick() {
+        playerListener.onPlayerInteract(leftClick);
+        return leftClick;
+    }
+
+    @Benchmark
+    public PlayerInteractEvent baselineBlacklisted() {
+        baseline.dispatch(blacklistedClick);
+        return blacklistedClick;
+    }
+
+    @Benchmark
+    public PlayerInteractEvent singleHandlerBlacklisted() {
+        playerListener.onPlayerInteract(blacklistedClick);
+        return blacklistedClick;
+    }
+
+    // A block that could conceal a door, but there is none behind it.
+    @Benchmark
+    public PlayerInteractEvent baselineConcealing() {
+        baseline.dispatch(concealingClick);
+        return concealingClick;
+    }
+
+    @Benchmark
+    public PlayerInteractEvent singleHandlerConcealing() {
+        playerListener.onPlayerInteract(concealingClick);
+        return concealingClick;
+    }
+
+    @Benchmark
+    public PlayerInteractEvent baselineMixed() {
+        PlayerInteractEvent event = mixedClicks[nextIndex()];
+        baseline.dispatch(event);
+        return event;
+    }
+
+    @Benchmark
+    public PlayerInteractEvent singleHandlerMixed() {
+        PlayerInteractEvent event = mixedClicks[nextIndex()];
+        playerListener.onPlayerInteract(event);
+        return event;
+    }
+
+    // The type checks of the four handlers alone, as they ran for every click.
+    @Benchmark
+    public int baselineTypeChecks() {
+        Block clicked = mixedBlocks[nextIndex()];
+        int paths = 0;
+        if (SecretDoorHelper.isValidDoor(clicked))
+            paths++;
+        if (!SecretDoorHelper.isValidDoor(clicked) && (SecretDoorHelper.isAttachableItem(clicked.getType())
+                || fixture.plugin.isValidBlock(clicked)))
+            paths++;
+        if (settings.isTrapdoorsEnabled() && (fixture.plugin.canBeSecretTrapdoor(clicked)
+                || fixture.plugin.canBeSecretTrapdoor(clicked.getRelative(BlockFace.DOWN))))
+            paths++;
+        if (SecretDoorHelper.isValidTrapDoor(clicked))
+            paths++;
+        return paths;
+    }
+
+    @Benchmark
+    public PlayerListener.ClickTarget classify() {
+        return playerListener.classify(mixedBlocks[nextIndex()], settings);
+    }
+
+    /**
+     * The PlayerInteractEvent handlers of PlayerListener before they were merged into one, as Bukkit called them: one
+     * after the other for every event.  Opening and closing go through the current API, the benchmarked clicks never
+     * reach them.
+     */
+    private static final class BaselineHandlers {
+
+        private final SecretDoors plugin;
+
+        BaselineHandlers(SecretDoors plugin) {
+            this.plugin = plugin;
+        }
+
+        void dispatch(PlayerInteractEvent event) {
+            onDoorClick(event);
+            onDoorBlockClick(event);
+            onTrapdoorClick(event);
+            onTrapDoorCloseClick(event);
+        }
+
+        private boolean mayUse(PlayerInteractEvent event) {
+            return !plugin.getSettings().isPermissionsEnabled()
+                    || event.getPlayer().hasPermission(SecretDoors.PERMISSION_SD_USE);
+        }
+
+        private void onDoorClick(PlayerInteractEvent event) {
+            if (!mayUse(event))
+                return;
+
+            Block door = event.getClickedBlock();
+            if (event.getAction().equals(Action.RIGHT_CLICK_BLOCK) && SecretDoorHelper.isValidDoor(door)) {
+                if (plugin.canBeSecretDoor(door)) {
+                    Block other = door.getRelative(SecretDoorHelper.getDoorFace(door));
+                    plugin.openDoor(plugin.newSecretDoor(event.getPlayer(), door, other,
+                            SecretDoorHelper.Orientation.DOOR_FIRST));
+                } else if (plugin.isSecretDoor(SecretDoorHelper.getKeyFromBlock(door))) {
+                    plugin.closeDoor(SecretDoorHelper.getKeyFromBlock(door));
+                }
+            }
+        }
+
+        private void onDoorBlockClick(PlayerInteractEvent event) {
+            if (!mayUse(event))
+                return;
+
+            Block clicked = event.getClickedBlock();
+            if (Action.RIGHT_CLICK_BLOCK.equals(event.getAction())) {
+                if (SecretDoorHelper.isValidDoor(clicked))
+                    return;
+
+                if (SecretDoorHelper.isAttachableItem(clicked.getType())) {
+                    Directional item = SecretDoorHelper.getAttachableFromBlock(clicked);
+                    BlockFace face = SecretDoorHelper.getAttachableface(item);
+                    Block block = clicked.getRelative(face);
+                    Block door = clicked.getRelative(face, 2);
+
+                    if (plugin.isValidBlock(block) && plugin.canBeSecretDoor(door))
+                        plugin.openDoor(plugin.newSecretDoor(event.getPlayer(), door, block,
+                                SecretDoorHelper.Orientation.BLOCK_FIRST));
+                } else if (plugin.isValidBlock(clicked)) {
+                    ItemStack heldItem = event.getItem();
+                    if (heldItem != null && SecretDoorHelper.isPlaceableAttachable(heldItem.getType()))
+                        return;
+
+                    Block door = clicked.getRelative(event.getBlockFace().getOppositeFace());
+                    if (plugin.canBeSecretDoor(door))
+                        plugin.openDoor(plugin.newSecretDoor(event.getPlayer(), door, clicked,
+                                SecretDoorHelper.Orientation.BLOCK_FIRST));
+                }
+            }
+        }
+
+        private void onTrapdoorClick(PlayerInteractEvent event) {
+            if (!plugin.getSettings().isTrapdoorsEnabled())
+                return;
+            if (!mayUse(event))
+                return;
+
+            if (event.getAction() == Action.RIGHT_CLICK_BLOCK) {
+                Block clicked = event.getClickedBlock();
+                ItemStack heldItem = event.getItem();
+                if (heldItem != null && SecretDoorHelper.isPlaceableAttachable(heldItem.getType()))
+                    return;
+
+                SecretTrapdoor door = null;
+                if (plugin.canBeSecretTrapdoor(clicked))
+                    door = new SecretTrapdoor(clicked, clicked.getRelative(BlockFace.UP), false,
+                            plugin.shouldPreserveAttachments());
+                else if (plugin.canBeSecretTrapdoor(clicked.getRelative(BlockFace.DOWN)))
+                    door = new SecretTrapdoor(clicked.getRelative(BlockFace.DOWN), clicked, true,
+                            plugin.shouldPreserveAttachments());
+                else if (plugin.isSecretDoor(clicked))
+                    plugin.closeDoor(clicked);
+
+                if (door != null) {
+                    event.setCancelled(true);
+                    plugin.openDoor(door);
+                }
+            }
+        }
+
+        private void onTrapDoorCloseClick(PlayerInteractEvent event) {
+            if (!mayUse(event))
+                return;
+
+            Block door = event.getClickedBlock();
+            if (event.getAction().equals(Action.RIGHT_CLICK_BLOCK) && SecretDoorHelper.isValidTrapDoor(door)) {
+                ItemStack heldItem = event.getItem();
+                if (heldItem != null && SecretDoorHelper.isPlaceableAttachable(heldItem.getType()))
+                    return;
+
+                if (plugin.canBeSecretTrapdoor(door))
+                    plugin.openDoor(new SecretTrapdoor(door, door.getRelative(BlockFace.UP), true,
+                            plugin.shouldPreserveAttachments()));
+                else if (plugin.isSecretDoor(SecretDoorHelper.getKeyFromBlock(door)))
+                    plugin.closeDoor(SecretDoorHelper.getKeyFromBlock(door));
+            }
+        }
+    }
+}
@@ -0,0 +1,188 @@
+package io.github.smank.secretdoors;
+
+import io.github.smank.secretdoors.storage.DoorRecord;
+import io.github.smank.secretdoors.storage.SignSnapshot;
+import org.bukkit.Material;
+import org.bukkit.World;
+import org.bukkit.block.Block;
+import org.bukkit.block.BlockFace;
+import org.bukkit.block.data.BlockData;
+import org.bukkit.block.data.Directional;
+
+import java.util.Arrays;
+
+/**
+ * Blocks attached to the concealing blocks of a SecretOpenable (torches, signs, etc.) as they were while it was
+ * closed.  Shared by SecretDoor and SecretTrapdoor.
+ * The arrays are sized exactly to what was found, and SecretOpenables without attachments all share {@link #NONE}.
+ */
+final class Attachments {
+
+    static final Attachments NONE = new Attachments(new Block[0], new BlockData[0], new SignSnapshot[0]);
+
+    private static final BlockFace[] SIDES = { BlockFace.NORTH, BlockFace.SOUTH, BlockFace.EAST, BlockFace.WEST };
+    // Neighbours checked per concealing block: the four sides plus the block on top.
+    private static final int NEIGHBOURS = SIDES.length + 1;
+
+    private final Block[] blocks;
+    // Data of the blocks while the door is closed (i.e. before they get set to AIR).
+    private final BlockData[] data;
+    // Text, colour, etc. of every attachment that is a sign (both sides), null for the others.
+    private final SignSnapshot[] signs;
+
+    private Attachments(Block[] blocks, BlockData[] data, SignSnapshot[] signs) {
+        this.blocks = blocks;
+        this.data = data;
+        this.signs = signs;
+    }
+
+    /**
+     * Finds the blocks attached to the received concealing blocks: wall mounted items attached to one of their
+     * sides, floor torches on top of them and, if {@code signsOnTop} is true, standing signs on top of them.
+     * Neighbours are first filtered by their Material type alone, so BlockData is only read for actual candidates.
+     * @param concealing At most 6 concealing blocks, all in the same world.
+     */
+    static Attachments scan(Block[] concealing, boolean signsOnTop) {
+        World world = concealing[0].getWorld();
+
+        // Bit (i * NEIGHBOURS + f) is set if neighbour f of concealing block i may be attached to it, f being an
+        // index into SIDES or SIDES.length for the block on top.
+        int candidates = 0;
+        for (int i = 0; i < concealing.length; i++) {
+            int x = concealing[i].getX(), y = concealing[i].getY(), z = concealing[i].getZ();
+            for (int f = 0; f < SIDES.length; f++) {
+                if (SecretDoorHelper.isAttachableItem(world.getType(x + SIDES[f].getModX(), y, z + SIDES[f].getModZ())))
+                    candidates |= 1 << (i * NEIGHBOURS + f);
+            }
+            Material top = world.getType(x, y + 1, z);
+            if (SecretDoorHelper.isFloorTorch(top) || signsOnTop && SecretDoorHelper.isStandingSign(top))
+                candidates |= 1 << (i * NEIGHBOURS + SIDES.length);
+        }
+        if (candidates == 0)
+            return NONE;
+
+        int max = Integer.bitCount(candidates);
+        Block[] blocks = new Block[max];
+        BlockData[] data = new BlockData[max];
+        SignSnapshot[] signs = new SignSnapshot[max];
+        int count = 0;
+        for (int bits = candidates; bits != 0; bits &= bits - 1) {
+            int bit = Integer.numberOfTrailingZeros(bits);
+            int f = bit % NEIGHBOURS;
+            Block attached = concealing[bit / NEIGHBOURS].getRelative(f < SIDES.length ? SIDES[f] : BlockFace.UP);
+            // getBlockData() already returns a copy.
+            BlockData d = attached.getBlockData();
+
+            // A wall mounted item faces away from the block it is attached to, so it belongs to us only if it faces
+            // the same way as we looked.
+            if (f < SIDES.length && (!(d instanceof Directional) || ((Directional) d).getFacing() != SIDES[f])) {
+                if (SecretDoors.DEBUG) {
+                    System.out.println("  Skipping attachable at " + attached.getLocation() + ": not facing " + SIDES[f]);
+                }
+                continue;
+            }
+            if (SecretDoors.DEBUG) {
+                System.out.println("  ADDING attachment: " + d + " at " + attached.getLocation());
+            }
+
+            blocks[count] = attached;
+            data[count] = d;
+            if (SecretDoorHelper.isAnySign(d.getMaterial()))
+                signs[count] = SignSnapshot.capture(attached);
+            count++;
+        }
+
+        if (count == 0)
+            return NONE;
+        if (count < max) {
+            blocks = Arrays.copyOf(blocks, count);
+            data = Arrays.copyOf(data, count);
+            signs = Arrays.copyOf(signs, count);
+        }
+        return new Attachments(blocks, data, signs);
+    }
+
+    /**
+     * Captures the received blocks, known to be attached to the concealing blocks (see {@link DoorDefinitions}),
+     * without looking at any other neighbour.  Blocks that are AIR by now are skipped.
+     */
+    static Attachments capture(Block[] attached) {
+        if (attached.length == 0)
+            return NONE;
+        Block[] blocks = new Block[attached.length];
+        BlockData[] data = new BlockData[attached.length];
+        SignSnapshot[] signs = new SignSnapshot[attached.length];
+        int count = 0;
+        for (Block block : attached) {
+            BlockData d = block.getBlockData();
+            if (d.getMaterial() == Material.AIR)
+                continue;
+            blocks[count] = block;
+            data[count] = d;
+            if (SecretDoorHelper.isAnySign(d.getMaterial()))
+                signs[count] = SignSnapshot.capture(block);
+            count++;
+        }
+        if (count == 0)
+            return NONE;
+        if (count < attached.length) {
+            blocks = Arrays.copyOf(blocks, count);
+            data = Arrays.copyOf(data, count);
+            signs = Arrays.copyOf(signs, count);
+        }
+        return new Attachments(blocks, data, signs);
+    }
+
+    /**
+     * @return the number of attached blocks.
+     */
+    int size() {
+        return blocks.length;
+    }
+
+    /**
+     * @return the attached blocks.  The returned array must not be modified.
+     */
+    Block[] getBlocks() {
+        return blocks;
+    }
+
+    /**
+     * Adds writes of AIR to every attached block.
+     */
+    void clear(BlockWrites writes) {
+        for (Block block : blocks) {
+            writes.clear(block);
+        }
+    }
+
+    /**
+     * Adds writes of the original data of every attached block.  Sign contents are restored by
+     * {@link #restoreText()} once the writes are applied.
+     */
+    void restore(BlockWrites writes) {
+        for (int i = 0; i < blocks.length; i++) {
+            writes.set(blocks[i], data[i]);
+        }
+    }
+
+    /**
+     * Restores the contents (both sides' text, colour and glow, and wax) of every attached sign.  Must be called after
+     * the signs themselves were restored.
+     */
+    void restoreText() {
+        for (int i = 0; i < blocks.length; i++) {
+            if (signs[i] != null)
+                signs[i].restore(blocks[i]);
+        }
+    }
+
+    /**
+     * Adds every attached block to the received record.
+     */
+    void record(DoorRecord.Builder record) {
+        for (int i = 0; i < blocks.length; i++) {
+            record.hidden(blocks[i], data[i], signs[i]);
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package io.github.smank.secretdoors;
+
+import org.bukkit.Material;
+import org.bukkit.block.Block;
+import org.bukkit.block.data.BlockData;
+
+/**
+ * The final BlockData of every block a SecretOpenable changes in one open or close, applied in the order they were
+ * added.  Every block is written exactly once and without physics, so nothing reacts to a half written door (which
+ * made signs and torches pop off while their support was still missing).  Once all of them are written, the
+ * neighbours of every written block are updated, so falling blocks fall, fences, panes and walls reconnect and
+ * redstone next to the door is re-evaluated.
+ * Add supports before the blocks attached to them.
+ */
+final class BlockWrites {
+
+    private final Block[] blocks;
+    // null means AIR
+    private final BlockData[] data;
+    private int count = 0;
+
+    /**
+     * @param capacity The exact number of writes that will be added.
+     */
+    BlockWrites(int capacity) {
+        this.blocks = new Block[capacity];
+        this.data = new BlockData[capacity];
+    }
+
+    /**
+     * Adds a write of {@code data} to {@code block}.
+     */
+    BlockWrites set(Block block, BlockData data) {
+        blocks[count] = block;
+        this.data[count] = data;
+        count++;
+        return this;
+    }
+
+    /**
+     * Adds a write of AIR to {@code block}.
+     */
+    BlockWrites clear(Block block) {
+        return set(block, null);
+    }
+
+    /**
+     * Writes every added block without physics, then updates the neighbours of each of them once.
+     */
+    void apply() {
+        for (int i = 0; i < count; i++) {
+            if (data[i] == null)
+                blocks[i].setType(Material.AIR, false);
+            else
+                blocks[i].setBlockData(data[i], false);
+        }
+        // Updating a block's state with physics notifies its neighbours even though the block itself is unchanged -
+        // the same as the write would have, had it applied physics.
+        for (int i = 0; i < count; i++) {
+            blocks[i].getState().update(true, true);
+        }
+    }
+}
@@ -0,0 +1,329 @@
+package io.github.smank.secretdoors;
+
+import io.github.smank.secretdoors.util.BlockKeys;
+import io.github.smank.secretdoors.util.LongObjectMap;
+import org.bukkit.World;
+import org.bukkit.block.Block;
+import org.bukkit.block.BlockFace;
+import org.bukkit.configuration.file.YamlConfiguration;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * SecretDoors registered by builders with {@code /sd register}, indexed per world by the packed position of every
+ * block that is part of them (both door halves, the concealing blocks and their attachments), so a click on any of
+ * them resolves the door with one lookup.
+ * Every position at which a block may affect the door - the parts and every neighbour an attachment could hang on -
+ * is watched as well: a block event at a watched position marks the door dirty, and only a dirty door is checked
+ * again (like an unregistered one) on its next click.  Block events in chunks without a watched position return
+ * without taking the lock, liquid flow and physics fire constantly.
+ * Definitions are saved to a YAML file.  Doors loaded from it start dirty, the world may have changed while the
+ * plugin was not running.  Synchronized, clicks in different regions may be resolved concurrently on region threaded
+ * servers.
+ */
+public final class DoorDefinitions {
+
+    private static final String DOORS = "doors";
+    private static final BlockFace[] SIDES = { BlockFace.NORTH, BlockFace.SOUTH, BlockFace.EAST, BlockFace.WEST };
+    private static final long[] NO_POSITIONS = new long[0];
+
+    /**
+     * A registered door.
+     */
+    public static final class Definition {
+        private final UUID world;
+        // Bottom half of the door.
+        private final long key;
+        // Direction from the door towards the concealing blocks.
+        private final BlockFace face;
+        // Blocks attached to the concealing blocks as of the last check.
+        private long[] attached;
+        private volatile boolean dirty;
+
+        private Definition(UUID world, long key, BlockFace face, long[] attached, boolean dirty) {
+            this.world = world;
+            this.key = key;
+            this.face = face;
+            this.attached = attached;
+            this.dirty = dirty;
+        }
+
+        public UUID getWorld() {
+            return world;
+        }
+
+        /**
+         * @return the packed position of the bottom half of the door.
+         */
+        public long getKey() {
+            return key;
+        }
+
+        public BlockFace getFace() {
+            return face;
+        }
+
+        /**
+         * @return true if a block event touched the door since it was last checked.
+         */
+        public boolean isDirty() {
+            return dirty;
+        }
+
+        /**
+         * @return the bottom half of the door in the received world, which must be the door's.
+         */
+        public Block getKeyBlock(World world) {
+            return world.getBlockAt(BlockKeys.unpackX(key), BlockKeys.unpackY(key), BlockKeys.unpackZ(key));
+        }
+
+        /**
+         * @return the blocks attached to the concealing blocks as of the last check, in the received world.
+         */
+        public Block[] getAttachedBlocks(World world) {
+            long[] attached = this.attached;
+            Block[] blocks = new Block[attached.length];
+            for (int i = 0; i < attached.length; i++) {
+                blocks[i] = world.getBlockAt(BlockKeys.unpackX(attached[i]), BlockKeys.unpackY(attached[i]),
+                        BlockKeys.unpackZ(attached[i]));
+            }
+            return blocks;
+        }
+
+        // Door halves, then the bottom and top concealing blocks, then the attachments.
+        private long[] parts() {
+            long bottom = offset(key, face);
+            long[] parts = new long[4 + attached.length];
+            parts[0] = key;
+            parts[1] = offset(key, BlockFace.UP);
+            parts[2] = bottom;
+            parts[3] = offset(bottom, BlockFace.UP);
+            System.arraycopy(attached, 0, parts, 4, attached.length);
+            return parts;
+        }
+
+        // Every position an attachment of either concealing block could be at.
+        private long[] neighbours() {
+            long bottom = offset(key, face);
+            long[] neighbours = new long[2 * (SIDES.length + 1)];
+            int n = 0;
+            for (long concealing : new long[] { bottom, offset(bottom, BlockFace.UP) }) {
+                for (BlockFace side : SIDES) {
+                    neighbours[n++] = offset(concealing, side);
+                }
+                neighbours[n++] = offset(concealing, BlockFace.UP);
+            }
+            return neighbours;
+        }
+    }
+
+    private static final class WorldDefinitions {
+        final LongObjectMap<Definition> keys = new LongObjectMap<>();
+        final LongObjectMap<Definition> parts = new LongObjectMap<>();
+        final LongObjectMap<Definition> watched = new LongObjectMap<>();
+    }
+
+    private final Map<UUID, WorldDefinitions> worlds = new HashMap<>();
+    // Number of definitions, read without the lock for the fast exit of clicks.
+    private volatile int size = 0;
+    // Sorted chunk keys of every watched position, by world.  Replaced whenever a door is added or removed, and read
+    // without the lock.
+    private volatile Map<UUID, long[]> watchedChunks = Map.of();
+
+    private static long offset(long position, BlockFace face) {
+        return BlockKeys.pack(BlockKeys.unpackX(position) + face.getModX(), BlockKeys.unpackY(position) + face.getModY(),
+                BlockKeys.unpackZ(position) + face.getModZ());
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return the definition of the registered door the received block is part of, or null if it is not.
+     */
+    public Definition get(Block block) {
+        if (size == 0)
+            return null;
+        synchronized (this) {
+            WorldDefinitions w = worlds.get(block.getWorld().getUID());
+            return w == null ? null : w.parts.get(BlockKeys.pack(block));
+        }
+    }
+
+    /**
+     * Marks the registered door watching the received block dirty, if there is one.
+     */
+    public void touch(Block block) {
+        if (size == 0)
+            return;
+        UUID uid = block.getWorld().getUID();
+        long position = BlockKeys.pack(block);
+        long[] chunks = watchedChunks.get(uid);
+        if (chunks == null || Arrays.binarySearch(chunks, BlockKeys.chunkKeyOf(position)) < 0)
+            return;
+        synchronized (this) {
+            WorldDefinitions w = worlds.get(uid);
+            Definition d = w == null ? null : w.watched.get(position);
+            if (d != null)
+                d.dirty = true;
+        }
+    }
+
+    /**
+     * Registers a door, replacing any registered door with the same key.
+     * @param key The bottom half of the door.
+     * @param face Direction from the door towards its concealing blocks.
+     * @param attached The blocks currently attached to the concealing blocks.
+     */
+    public synchronized Definition add(Block key, BlockFace face, Block[] attached) {
+        UUID uid = key.getWorld().getUID();
+        remove(uid, BlockKeys.pack(key));
+        Definition d = new Definition(uid, BlockKeys.pack(key), face, pack(attached), false);
+        index(d);
+        updateWatchedChunks();
+        return d;
+    }
+
+    /**
+     * Removes the registered door of which the received block is part.
+     * @return the removed definition, or null if there was none.
+     */
+    public synchronized Definition remove(Block block) {
+        Definition d = get(block);
+        if (d != null) {
+            remove(d.world, d.key);
+            updateWatchedChunks();
+        }
+        return d;
+    }
+
+    /**
+     * Records the attachments found by checking a dirty door again and marks it clean.
+     */
+    public synchronized void validated(Definition d, Block[] attached) {
+        WorldDefinitions w = worlds.get(d.world);
+        if (w == null || w.keys.get(d.key) != d)
+            return;
+        for (long position : d.attached) {
+            w.parts.remove(position);
+        }
+        d.attached = pack(attached);
+        for (long position : d.attached) {
+            w.parts.put(position, d);
+        }
+        d.dirty = false;
+    }
+
+    private static long[] pack(Block[] blocks) {
+        if (blocks.length == 0)
+            return NO_POSITIONS;
+        long[] positions = new long[blocks.length];
+        for (int i = 0; i < blocks.length; i++) {
+            positions[i] = BlockKeys.pack(blocks[i]);
+        }
+        return positions;
+    }
+
+    private void index(Definition d) {
+        WorldDefinitions w = worlds.computeIfAbsent(d.world, (uid) -> new WorldDefinitions());
+        w.keys.put(d.key, d);
+        for (long position : d.parts()) {
+            w.parts.put(position, d);
+            w.watched.put(position, d);
+        }
+        for (long position : d.neighbours()) {
+            w.watched.put(position, d);
+        }
+        size++;
+    }
+
+    private void updateWatchedChunks() {
+        Map<UUID, long[]> chunks = new HashMap<>();
+        for (Map.Entry<UUID, WorldDefinitions> w : worlds.entrySet()) {
+            List<Long> keys = new ArrayList<>();
+            w.getValue().keys.forEachValue((d) -> {
+                for (long position : d.parts()) {
+                    keys.add(BlockKeys.chunkKeyOf(position));
+                }
+                for (long position : d.neighbours()) {
+                    keys.add(BlockKeys.chunkKeyOf(position));
+                }
+            });
+            chunks.put(w.getKey(), keys.stream().mapToLong(Long::longValue).distinct().sorted().toArray());
+        }
+        watchedChunks = chunks;
+    }
+
+    private void remove(UUID world, long key) {
+        WorldDefinitions w = worlds.get(world);
+        Definition d = w == null ? null : w.keys.remove(key);
+        if (d == null)
+            return;
+        // Positions shared with a neighbouring door stay with whichever door indexed them last.
+        for (long position : d.parts()) {
+            if (w.parts.get(position) == d)
+                w.parts.remove(position);
+            if (w.watched.get(position) == d)
+                w.watched.remove(position);
+        }
+        for (long position : d.neighbours()) {
+            if (w.watched.get(position) == d)
+                w.watched.remove(position);
+        }
+        if (w.keys.isEmpty())
+            worlds.remove(world);
+        size--;
+    }
+
+    /**
+     * Replaces every definition with those saved in the received file.  A missing file means no registered doors.
+     */
+    public synchronized void load(File file, Logger logger) {
+        worlds.clear();
+        size = 0;
+        watchedChunks = Map.of();
+        if (!file.exists())
+            return;
+        for (String line : YamlConfiguration.loadConfiguration(file).getStringList(DOORS)) {
+            // <world uid> <x> <y> <z> <face>
+            String[] fields = line.trim().split("\\s+");
+            try {
+                if (fields.length != 5)
+                    throw new IllegalArgumentException("expected 5 fields");
+                long key = BlockKeys.pack(Integer.parseInt(fields[1]), Integer.parseInt(fields[2]), Integer.parseInt(fields[3]));
+                index(new Definition(UUID.fromString(fields[0]), key, BlockFace.valueOf(fields[4]), NO_POSITIONS, true));
+            } catch (IllegalArgumentException e) {
+                logger.warning("Ignoring invalid registered door '" + line + "' in " + file.getName() + ": " + e.getMessage());
+            }
+        }
+        updateWatchedChunks();
+    }
+
+    /**
+     * Writes every definition to the received file.
+     */
+    public synchronized void save(File file, Logger logger) {
+        List<String> lines = new ArrayList<>(size);
+        for (Map.Entry<UUID, WorldDefinitions> w : worlds.entrySet()) {
+            w.getValue().keys.forEachValue((d) -> lines.add(d.world + " " + BlockKeys.unpackX(d.key) + " "
+                    + BlockKeys.unpackY(d.key) + " " + BlockKeys.unpackZ(d.key) + " " + d.face.name()));
+        }
+        YamlConfiguration yaml = YamlConfiguration.loadConfiguration(file);
+        yaml.set(DOORS, lines);
+        try {
+            yaml.save(file);
+        } catch (IOException e) {
+            logger.log(Level.SEVERE, "Could not save " + file.getName(), e);
+        }
+    }
+}
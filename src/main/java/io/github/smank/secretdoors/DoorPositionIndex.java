@@ -0,0 +1,209 @@
+package io.github.smank.secretdoors;
+
+import io.github.smank.secretdoors.util.BlockKeys;
+import io.github.smank.secretdoors.util.LongObjectMap;
+import org.bukkit.ChunkSnapshot;
+import org.bukkit.Material;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Positions of the door and trapdoor blocks in loaded chunks, so a placed block can be found to be nowhere near a door
+ * without reading any BlockData.
+ * A chunk is unknown until its scan (see {@link #scan(ChunkSnapshot, int, int)}) is done; callers must do the full
+ * check for positions in unknown chunks.  Positions can only be stale in the safe direction: a door that is gone may
+ * still be listed, which just costs a full check, but a door placed by a player is always added.
+ * Every method but the scan synchronizes on the index, which is used by the threads of every region on region threaded
+ * servers.  The scans themselves run on a ChunkSnapshot off the tick threads.
+ */
+public final class DoorPositionIndex {
+
+    private static final long[] NO_POSITIONS = new long[0];
+
+    /**
+     * Index state of one loaded chunk.  Returned by {@link #beginScan(UUID, int, int)} and passed back to
+     * {@link #finishScan(UUID, ChunkPositions, long[])}, so the result of a scan of a chunk that was unloaded in the
+     * meantime is dropped.
+     */
+    public static final class ChunkPositions {
+        private final long key;
+        private long[] positions = NO_POSITIONS;
+        private int size = 0;
+        private boolean scanned = false;
+
+        private ChunkPositions(long key) {
+            this.key = key;
+        }
+
+        private boolean contains(long position) {
+            for (int i = 0; i < size; i++) {
+                if (positions[i] == position)
+                    return true;
+            }
+            return false;
+        }
+
+        private void add(long position) {
+            if (contains(position))
+                return;
+            if (size == positions.length)
+                positions = Arrays.copyOf(positions, Math.max(4, size * 2));
+            positions[size++] = position;
+        }
+
+        private void remove(long position) {
+            for (int i = 0; i < size; i++) {
+                if (positions[i] == position) {
+                    positions[i] = positions[--size];
+                    return;
+                }
+            }
+        }
+    }
+
+    private final Map<UUID, LongObjectMap<ChunkPositions>> worlds = new HashMap<>();
+
+    // Most lookups are in one world, so remember the last one.
+    private UUID lastUid;
+    private LongObjectMap<ChunkPositions> lastWorld;
+
+    private LongObjectMap<ChunkPositions> world(UUID uid, boolean create) {
+        if (uid == lastUid)
+            return lastWorld;
+        LongObjectMap<ChunkPositions> w = worlds.get(uid);
+        if (w == null) {
+            if (!create)
+                return null;
+            w = new LongObjectMap<>();
+            worlds.put(uid, w);
+        }
+        lastUid = uid;
+        lastWorld = w;
+        return w;
+    }
+
+    /**
+     * @return true if the received position is a listed door or trapdoor, or in a chunk that was not scanned yet.
+     */
+    public synchronized boolean mayBeDoor(UUID world, int x, int y, int z) {
+        LongObjectMap<ChunkPositions> w = world(world, false);
+        if (w == null)
+            return true;
+        ChunkPositions c = w.get(BlockKeys.chunkKey(x >> 4, z >> 4));
+        return c == null || !c.scanned || (c.size > 0 && c.contains(BlockKeys.pack(x, y, z)));
+    }
+
+    /**
+     * @return true if any of the received position, the block below it or its four horizontal neighbours
+     *         {@link #mayBeDoor(UUID, int, int, int) may be a door}.
+     */
+    public synchronized boolean mayBeNearDoor(UUID world, int x, int y, int z) {
+        return mayBeDoor(world, x, y, z)
+                || mayBeDoor(world, x, y - 1, z)
+                || mayBeDoor(world, x + 1, y, z)
+                || mayBeDoor(world, x - 1, y, z)
+                || mayBeDoor(world, x, y, z + 1)
+                || mayBeDoor(world, x, y, z - 1);
+    }
+
+    /**
+     * Lists a door or trapdoor block.  Ignored for chunks that are not being tracked.
+     */
+    public synchronized void add(UUID world, int x, int y, int z) {
+        LongObjectMap<ChunkPositions> w = world(world, false);
+        ChunkPositions c = w == null ? null : w.get(BlockKeys.chunkKey(x >> 4, z >> 4));
+        if (c != null)
+            c.add(BlockKeys.pack(x, y, z));
+    }
+
+    /**
+     * Removes a door or trapdoor block that is known to be gone.
+     */
+    public synchronized void remove(UUID world, int x, int y, int z) {
+        LongObjectMap<ChunkPositions> w = world(world, false);
+        ChunkPositions c = w == null ? null : w.get(BlockKeys.chunkKey(x >> 4, z >> 4));
+        if (c != null)
+            c.remove(BlockKeys.pack(x, y, z));
+    }
+
+    /**
+     * Starts tracking the received chunk, which stays unknown until {@link #finishScan(UUID, ChunkPositions, long[])}
+     * is called with the returned state.  Doors added meanwhile are kept.
+     */
+    public synchronized ChunkPositions beginScan(UUID world, int chunkX, int chunkZ) {
+        long key = BlockKeys.chunkKey(chunkX, chunkZ);
+        ChunkPositions c = new ChunkPositions(key);
+        world(world, true).put(key, c);
+        return c;
+    }
+
+    /**
+     * Completes the scan of a chunk with the positions found by {@link #scan(ChunkSnapshot, int, int)}.  Does nothing
+     * if the chunk was unloaded (or its scan restarted) since {@link #beginScan(UUID, int, int)}.
+     */
+    public synchronized void finishScan(UUID world, ChunkPositions chunk, long[] found) {
+        LongObjectMap<ChunkPositions> w = world(world, false);
+        if (w == null || w.get(chunk.key) != chunk)
+            return;
+        for (long position : found) {
+            chunk.add(position);
+        }
+        chunk.scanned = true;
+    }
+
+    public synchronized void unloadChunk(UUID world, int chunkX, int chunkZ) {
+        LongObjectMap<ChunkPositions> w = world(world, false);
+        if (w == null)
+            return;
+        w.remove(BlockKeys.chunkKey(chunkX, chunkZ));
+        if (w.isEmpty())
+            unloadWorld(world);
+    }
+
+    public synchronized void unloadWorld(UUID world) {
+        worlds.remove(world);
+        if (world.equals(lastUid)) {
+            lastUid = null;
+            lastWorld = null;
+        }
+    }
+
+    public synchronized void clear() {
+        worlds.clear();
+        lastUid = null;
+        lastWorld = null;
+    }
+
+    /**
+     * Finds every door and trapdoor block in a chunk.  Safe to call off the main thread.
+     * @param minY Lowest block y of the chunk's world.
+     * @param maxY Highest block y (exclusive) of the chunk's world.
+     * @return the packed positions of the found blocks.
+     */
+    public static long[] scan(ChunkSnapshot snapshot, int minY, int maxY) {
+        long[] found = NO_POSITIONS;
+        int size = 0;
+        int baseX = snapshot.getX() << 4;
+        int baseZ = snapshot.getZ() << 4;
+        for (int section = 0, sectionY = minY; sectionY < maxY; section++, sectionY += 16) {
+            if (snapshot.isSectionEmpty(section))
+                continue;
+            for (int y = sectionY; y < sectionY + 16 && y < maxY; y++) {
+                for (int x = 0; x < 16; x++) {
+                    for (int z = 0; z < 16; z++) {
+                        Material type = snapshot.getBlockType(x, y, z);
+                        if (!SecretDoorHelper.isValidDoor(type) && !SecretDoorHelper.isValidTrapDoor(type))
+                            continue;
+                        if (size == found.length)
+                            found = Arrays.copyOf(found, Math.max(8, size * 2));
+                        found[size++] = BlockKeys.pack(baseX + x, y, baseZ + z);
+                    }
+                }
+            }
+        }
+        return size == found.length ? found : Arrays.copyOf(found, size);
+    }
+}
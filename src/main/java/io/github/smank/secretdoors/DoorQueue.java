@@ -0,0 +1,89 @@
+package io.github.smank.secretdoors;
+
+import java.util.ArrayDeque;
+import java.util.function.Consumer;
+
+/**
+ * FIFO of door operations waiting to be applied on the main thread under a per-tick budget.
+ * The pending operation is stored on the registry entry itself, so an entry is in the queue at most once, and a
+ * request that undoes the pending operation (e.g. a redstone pulse shorter than the queue delay) cancels it without
+ * touching the world at all.
+ */
+final class DoorQueue {
+
+    static final byte NONE  = 0;
+    static final byte OPEN  = 1;
+    static final byte CLOSE = 2;
+
+    // May contain cancelled entries (pending == NONE), which are skipped when drained.
+    private final ArrayDeque<DoorRegistry.Entry> queue = new ArrayDeque<>();
+    private int size = 0;
+
+    /**
+     * @return the number of operations waiting to be applied.
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * Queues {@code op} for the received entry, replacing its pending operation if it has one.
+     */
+    void add(DoorRegistry.Entry entry, byte op) {
+        if (entry.pending == NONE)
+            size++;
+        entry.pending = op;
+        if (!entry.queued) {
+            entry.queued = true;
+            queue.add(entry);
+        }
+    }
+
+    /**
+     * Drops the pending operation of the received entry, if any.
+     */
+    void cancel(DoorRegistry.Entry entry) {
+        if (entry.pending != NONE) {
+            entry.pending = NONE;
+            size--;
+        }
+    }
+
+    /**
+     * Applies queued operations in order until {@code maxOps} were applied, {@code maxNanos} have passed or the queue
+     * is empty.  At least one operation is applied per call so the queue always makes progress.
+     * @param apply Called for every entry with a pending operation.  The operation is still set on the entry when
+     *              {@code apply} is called and reset to {@link #NONE} afterwards.
+     * @return the number of applied operations.
+     */
+    int drain(int maxOps, long maxNanos, Consumer<DoorRegistry.Entry> apply) {
+        if (size == 0)
+            return 0;
+        long start = System.nanoTime();
+        int applied = 0;
+        DoorRegistry.Entry entry;
+        while (applied < maxOps && (entry = queue.poll()) != null) {
+            entry.queued = false;
+            if (entry.pending == NONE)
+                continue;
+            apply.accept(entry);
+            cancel(entry);
+            applied++;
+            if (System.nanoTime() - start >= maxNanos)
+                break;
+        }
+        return applied;
+    }
+
+    /**
+     * Drops every queued operation.
+     */
+    void clear() {
+        for (DoorRegistry.Entry entry : queue) {
+            entry.queued = false;
+            entry.pending = NONE;
+        }
+        queue.clear();
+        size = 0;
+    }
+}
@@ -0,0 +1,390 @@
+package io.github.smank.secretdoors;
+
+import io.github.smank.secretdoors.util.BlockKeys;
+import io.github.smank.secretdoors.util.LongObjectMap;
+import io.github.smank.secretdoors.util.TimerWheel;
+import org.bukkit.World;
+import org.bukkit.block.Block;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * Registry of opened SecretOpenables.
+ * Doors are indexed per world by the packed position (see {@link BlockKeys}) of their key block, and by every chunk
+ * that any of their blocks are in, so lookups need neither Block objects nor a scan of every open door.
+ * <p>
+ * The indexes are striped by region (a square of {@code 2^REGION_SHIFT} chunks, Folia's default region section size),
+ * each stripe guarded by its own lock, so lookups from threads ticking different regions don't contend.  A key is
+ * indexed in the stripe of its chunk, and every chunk of a door in that chunk's stripe.  Modifications spanning
+ * several stripes are not atomic as a whole: callers must serialise their modifications, while lookups may run
+ * concurrently with them and with each other.
+ */
+public final class DoorRegistry {
+
+    private static final Entry[] NO_ENTRIES = new Entry[0];
+
+    /**
+     * An opened SecretOpenable together with its position and auto close timer.
+     */
+    public static final class Entry {
+        private final UUID world;
+        private final long key;
+        private final SecretOpenable door;
+        // Keys of the distinct chunks this door has blocks in.
+        private final long[] chunks;
+        // Set once the door was opened in the world (see DoorQueue), by the thread owning its region.
+        volatile boolean opened;
+        // Auto close timer, null if timers are disabled.
+        TimerWheel.Timer<Entry> timer;
+        // Tick the auto close countdown started: when the door was opened or last kept open.  Used to move the
+        // timer when the close time is reloaded.
+        long timerStart;
+        // Operation waiting in the DoorQueue (DoorQueue.NONE, OPEN or CLOSE) and whether the entry is in it.
+        byte pending;
+        boolean queued;
+
+        private Entry(UUID world, long key, SecretOpenable door, long[] chunks) {
+            this.world = world;
+            this.key = key;
+            this.door = door;
+            this.chunks = chunks;
+        }
+
+        public UUID getWorld() {
+            return world;
+        }
+
+        /**
+         * @return the packed position of the key block.
+         */
+        public long getKey() {
+            return key;
+        }
+
+        public SecretOpenable getDoor() {
+            return door;
+        }
+    }
+
+    // Small unordered list of the entries touching one chunk.
+    private static final class ChunkDoors {
+        private Entry[] entries = new Entry[2];
+        private int size = 0;
+
+        void add(Entry e) {
+            if (size == entries.length)
+                entries = Arrays.copyOf(entries, size * 2);
+            entries[size++] = e;
+        }
+
+        void remove(Entry e) {
+            for (int i = 0; i < size; i++) {
+                if (entries[i] == e) {
+                    entries[i] = entries[--size];
+                    entries[size] = null;
+                    return;
+                }
+            }
+        }
+    }
+
+    private static final class WorldDoors {
+        final LongObjectMap<Entry> keys = new LongObjectMap<>();
+        final LongObjectMap<ChunkDoors> chunks = new LongObjectMap<>();
+    }
+
+    // Chunks per side of a region, as a shift.
+    private static final int REGION_SHIFT = 4;
+    private static final int STRIPES = 64;
+
+    // Indexes of the regions hashed to one stripe.  Only used while holding the stripe's lock.
+    private static final class Stripe {
+        final Map<UUID, WorldDoors> worlds = new HashMap<>();
+
+        // Most doors are in one world, so remember the last one looked up.
+        UUID lastUid;
+        WorldDoors lastWorld;
+
+        WorldDoors world(UUID uid, boolean create) {
+            if (uid == lastUid)
+                return lastWorld;
+            WorldDoors w = worlds.get(uid);
+            if (w == null) {
+                if (!create)
+                    return null;
+                w = new WorldDoors();
+                worlds.put(uid, w);
+            }
+            lastUid = uid;
+            lastWorld = w;
+            return w;
+        }
+
+        // Don't keep indexes of worlds without open doors around (the world may be unloaded for good).
+        void dropIfEmpty(UUID uid, WorldDoors w) {
+            if (!w.keys.isEmpty() || !w.chunks.isEmpty())
+                return;
+            worlds.remove(uid);
+            if (lastWorld == w) {
+                lastUid = null;
+                lastWorld = null;
+            }
+        }
+    }
+
+    private final Stripe[] stripes = new Stripe[STRIPES];
+    private final AtomicInteger size = new AtomicInteger();
+
+    public DoorRegistry() {
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new Stripe();
+        }
+    }
+
+    // Returns the stripe of the received chunk.
+    private Stripe stripe(UUID world, long chunkKey) {
+        int regionX = BlockKeys.unpackChunkX(chunkKey) >> REGION_SHIFT;
+        int regionZ = BlockKeys.unpackChunkZ(chunkKey) >> REGION_SHIFT;
+        int h = world.hashCode() + 31 * (regionX * 0x9E3779B1 + regionZ);
+        return stripes[(h ^ (h >>> 16)) & (STRIPES - 1)];
+    }
+
+    /**
+     * @return the number of opened doors.
+     */
+    public int size() {
+        return size.get();
+    }
+
+    /**
+     * Registers an opened door, replacing any door registered with the same key.
+     * @return the new entry.
+     */
+    public Entry add(SecretOpenable door) {
+        Block keyBlock = door.getKey();
+        UUID uid = keyBlock.getWorld().getUID();
+        long key = BlockKeys.pack(keyBlock);
+
+        Entry previous = get(uid, key);
+        if (previous != null)
+            remove(previous);
+
+        long[] chunks = new long[] { BlockKeys.chunkKeyOf(key) };
+        for (Block b : door.getConcealingBlocks()) {
+            long chunk = BlockKeys.chunkKey(b.getX() >> 4, b.getZ() >> 4);
+            if (indexOf(chunks, chunk) < 0) {
+                chunks = Arrays.copyOf(chunks, chunks.length + 1);
+                chunks[chunks.length - 1] = chunk;
+            }
+        }
+
+        Entry e = new Entry(uid, key, door, chunks);
+        // Chunks first, so a door found by its key is always found by its chunks too.
+        for (long chunk : chunks) {
+            Stripe s = stripe(uid, chunk);
+            synchronized (s) {
+                WorldDoors w = s.world(uid, true);
+                ChunkDoors c = w.chunks.get(chunk);
+                if (c == null) {
+                    c = new ChunkDoors();
+                    w.chunks.put(chunk, c);
+                }
+                c.add(e);
+            }
+        }
+        Stripe s = stripe(uid, chunks[0]);
+        synchronized (s) {
+            s.world(uid, true).keys.put(key, e);
+        }
+        size.incrementAndGet();
+        return e;
+    }
+
+    private static int indexOf(long[] a, long v) {
+        for (int i = 0; i < a.length; i++) {
+            if (a[i] == v)
+                return i;
+        }
+        return -1;
+    }
+
+    /**
+     * @return the entry of the door with key block {@code key}, or null if there is no such opened door.
+     */
+    public Entry get(Block key) {
+        return get(key.getWorld().getUID(), BlockKeys.pack(key));
+    }
+
+    /**
+     * @return the entry of the door with its key at the received position, or null if there is none.
+     */
+    public Entry get(World world, int x, int y, int z) {
+        return get(world.getUID(), BlockKeys.pack(x, y, z));
+    }
+
+    /**
+     * @return the entry of the door with its key at the received packed position, or null if there is none.
+     */
+    public Entry get(UUID world, long key) {
+        if (size.get() == 0)
+            return null;
+        Stripe s = stripe(world, BlockKeys.chunkKeyOf(key));
+        synchronized (s) {
+            WorldDoors w = s.world(world, false);
+            return w == null ? null : w.keys.get(key);
+        }
+    }
+
+    /**
+     * Removes the entry with key block {@code key}.
+     * @return the removed entry, or null if there was none.
+     */
+    public Entry remove(Block key) {
+        Entry e = get(key);
+        if (e != null)
+            remove(e);
+        return e;
+    }
+
+    /**
+     * Removes the received entry if it is still registered.
+     * @return true if it was removed.
+     */
+    public boolean remove(Entry e) {
+        Stripe s = stripe(e.world, e.chunks[0]);
+        synchronized (s) {
+            WorldDoors w = s.world(e.world, false);
+            if (w == null || w.keys.get(e.key) != e)
+                return false;
+            w.keys.remove(e.key);
+            s.dropIfEmpty(e.world, w);
+        }
+        size.decrementAndGet();
+
+        for (long chunk : e.chunks) {
+            Stripe cs = stripe(e.world, chunk);
+            synchronized (cs) {
+                WorldDoors w = cs.world(e.world, false);
+                ChunkDoors c = w == null ? null : w.chunks.get(chunk);
+                if (c == null)
+                    continue;
+                c.remove(e);
+                if (c.size == 0)
+                    w.chunks.remove(chunk);
+                cs.dropIfEmpty(e.world, w);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return a copy of the entries of every door that has blocks in the received chunk.
+     */
+    public Entry[] getChunk(UUID world, int chunkX, int chunkZ) {
+        if (size.get() == 0)
+            return NO_ENTRIES;
+        long chunk = BlockKeys.chunkKey(chunkX, chunkZ);
+        Stripe s = stripe(world, chunk);
+        synchronized (s) {
+            WorldDoors w = s.world(world, false);
+            ChunkDoors c = w == null ? null : w.chunks.get(chunk);
+            return c == null ? NO_ENTRIES : Arrays.copyOf(c.entries, c.size);
+        }
+    }
+
+    /**
+     * @return the entries of every door with its key block within {@code radius} blocks of the received position,
+     *         measured horizontally.  Only the chunks around the position are looked at, unless there are fewer open
+     *         doors than such chunks.
+     */
+    public List<Entry> getNear(UUID world, int x, int z, int radius) {
+        List<Entry> near = new ArrayList<>();
+        int size = this.size.get();
+        if (size == 0)
+            return near;
+        long r2 = (long) radius * radius;
+        // In long, x +- radius may be beyond the int range.  Shifted to chunks they are within it again.
+        int minChunkX = (int) (((long) x - radius) >> 4), maxChunkX = (int) (((long) x + radius) >> 4);
+        int minChunkZ = (int) (((long) z - radius) >> 4), maxChunkZ = (int) (((long) z + radius) >> 4);
+        if ((long) (maxChunkX - minChunkX + 1) * (maxChunkZ - minChunkZ + 1) > size) {
+            for (Entry e : getWorld(world)) {
+                if (isNear(e, x, z, r2))
+                    near.add(e);
+            }
+            return near;
+        }
+
+        for (int chunkX = minChunkX; chunkX <= maxChunkX; chunkX++) {
+            for (int chunkZ = minChunkZ; chunkZ <= maxChunkZ; chunkZ++) {
+                long chunk = BlockKeys.chunkKey(chunkX, chunkZ);
+                Stripe s = stripe(world, chunk);
+                synchronized (s) {
+                    WorldDoors w = s.world(world, false);
+                    ChunkDoors c = w == null ? null : w.chunks.get(chunk);
+                    if (c == null)
+                        continue;
+                    for (int i = 0; i < c.size; i++) {
+                        Entry e = c.entries[i];
+                        // Doors spanning several chunks are only taken from the chunk of their key.
+                        if (e.chunks[0] == chunk && isNear(e, x, z, r2))
+                            near.add(e);
+                    }
+                }
+            }
+        }
+        return near;
+    }
+
+    private static boolean isNear(Entry e, int x, int z, long r2) {
+        long dx = BlockKeys.unpackX(e.key) - x;
+        long dz = BlockKeys.unpackZ(e.key) - z;
+        return dx * dx + dz * dz <= r2;
+    }
+
+    /**
+     * @return a copy of the entries of every door in the received world.
+     */
+    public List<Entry> getWorld(UUID world) {
+        List<Entry> all = new ArrayList<>();
+        if (size.get() == 0)
+            return all;
+        for (Stripe s : stripes) {
+            synchronized (s) {
+                WorldDoors w = s.worlds.get(world);
+                if (w != null)
+                    w.keys.forEachValue(all::add);
+            }
+        }
+        return all;
+    }
+
+    /**
+     * @return a copy of every registered entry.
+     */
+    public List<Entry> getAll() {
+        List<Entry> all = new ArrayList<>(size.get());
+        forEach(all::add);
+        return all;
+    }
+
+    /**
+     * Calls {@code action} for every registered entry, one stripe at a time while holding its lock.  The registry
+     * must not be modified by {@code action}.
+     */
+    public void forEach(Consumer<Entry> action) {
+        for (Stripe s : stripes) {
+            synchronized (s) {
+                for (WorldDoors w : s.worlds.values()) {
+                    w.keys.forEachValue(action);
+                }
+            }
+        }
+    }
+}
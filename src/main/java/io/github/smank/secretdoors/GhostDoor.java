@@ -0,0 +1,166 @@
+package io.github.smank.secretdoors;
+
+import io.github.smank.secretdoors.storage.DoorRecord;
+import org.bukkit.Location;
+import org.bukkit.Material;
+import org.bukkit.World;
+import org.bukkit.block.Block;
+import org.bukkit.block.BlockFace;
+import org.bukkit.block.BlockState;
+import org.bukkit.block.TileState;
+import org.bukkit.block.data.Bisected;
+import org.bukkit.block.data.BlockData;
+import org.bukkit.block.data.type.Door;
+import org.bukkit.entity.Player;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A SecretDoor that is only opened on the clients of its viewers: they are sent block changes showing the passage
+ * cleared and the door opened, while the world itself is not changed at all.  The server still sees the blocks, so
+ * viewers walking into the passage are moved through it by {@link GhostPassages}; everybody else sees and bumps into
+ * a wall as usual.
+ * Nothing is journaled, as nothing needs to be restored after a crash.
+ */
+public class GhostDoor implements SecretOpenable {
+
+    private final SecretDoor door;
+    private final Player[] viewers;
+    private final GhostPassages passages;
+
+    // Direction from the door towards the concealing blocks.
+    private final BlockFace face;
+    // Columns a viewer walks through: in front of the concealing blocks, and behind the door.
+    private final int frontX, frontZ;
+    private final int backX, backZ;
+
+    /**
+     * @param door The door as it would be opened in the world.  Only read, it is never opened itself.
+     * @param viewers The players that see the door opened, including the opener.
+     */
+    public GhostDoor(SecretDoor door, Player[] viewers, GhostPassages passages) {
+        this.door = door;
+        this.viewers = viewers;
+        this.passages = passages;
+
+        Block key = door.getKey();
+        this.face = SecretDoorHelper.getDoorFace(key);
+        this.frontX = key.getX() + 2 * face.getModX();
+        this.frontZ = key.getZ() + 2 * face.getModZ();
+        this.backX = key.getX() - face.getModX();
+        this.backZ = key.getZ() - face.getModZ();
+    }
+
+    /**
+     * @return the players that see this door opened.  The returned array must not be modified.
+     */
+    public Player[] getViewers() {
+        return viewers;
+    }
+
+    @Override
+    public void open() {
+        BlockData air = Material.AIR.createBlockData();
+        List<BlockState> changes = new ArrayList<>();
+        for (Block b : door.getAttachments().getBlocks()) {
+            changes.add(fake(b, air));
+        }
+        for (Block b : door.getConcealingBlocks()) {
+            changes.add(fake(b, air));
+        }
+        Block key = door.getKey();
+        Door bottom = (Door) key.getBlockData();
+        bottom.setOpen(true);
+        Door top = (Door) bottom.clone();
+        top.setHalf(Bisected.Half.TOP);
+        changes.add(fake(key, bottom));
+        changes.add(fake(key.getRelative(BlockFace.UP), top));
+
+        for (Player viewer : viewers) {
+            if (viewer.isOnline())
+                viewer.sendBlockChanges(changes);
+        }
+        passages.add(this);
+    }
+
+    // Returns a state of the received block with the received data, without changing the block.
+    private static BlockState fake(Block block, BlockData data) {
+        BlockState state = block.getState();
+        state.setBlockData(data);
+        return state;
+    }
+
+    @Override
+    public void close() {
+        passages.remove(this);
+
+        // Whatever is in the world now, which is what the viewers would see without this door.
+        List<BlockState> real = new ArrayList<>();
+        for (Block b : door.getAttachments().getBlocks()) {
+            real.add(b.getState());
+        }
+        for (Block b : door.getConcealingBlocks()) {
+            real.add(b.getState());
+        }
+        Block key = door.getKey();
+        real.add(key.getState());
+        real.add(key.getRelative(BlockFace.UP).getState());
+
+        for (Player viewer : viewers) {
+            if (!viewer.isOnline())
+                continue;
+            viewer.sendBlockChanges(real);
+            // Block changes don't carry sign text and the like.
+            for (BlockState state : real) {
+                if (state instanceof TileState)
+                    viewer.sendBlockUpdate(state.getLocation(), (TileState) state);
+            }
+        }
+    }
+
+    /**
+     * Returns where a viewer moving from {@code from} to {@code to} comes out if they are walking into the passage:
+     * a viewer walking against the concealing blocks comes out behind the door, and one walking against the door
+     * from behind comes out in front of the concealing blocks.
+     * @return the location to move the viewer to, or null if they are not walking into the passage.
+     */
+    Location passThrough(Location from, Location to) {
+        Block key = door.getKey();
+        if (to.getWorld() != key.getWorld() || to.getBlockY() != key.getY())
+            return null;
+        // Positive when moving from the door towards the concealing blocks.
+        double step = (to.getX() - from.getX()) * face.getModX() + (to.getZ() - from.getZ()) * face.getModZ();
+        int x = to.getBlockX(), z = to.getBlockZ();
+        if (step < 0 && x == frontX && z == frontZ)
+            return centre(to, backX, backZ);
+        if (step > 0 && (x == backX && z == backZ || x == key.getX() && z == key.getZ()))
+            return centre(to, frontX, frontZ);
+        return null;
+    }
+
+    private static Location centre(Location to, int x, int z) {
+        World world = to.getWorld();
+        return new Location(world, x + 0.5, to.getY(), z + 0.5, to.getYaw(), to.getPitch());
+    }
+
+    @Override
+    public Block getKey() {
+        return door.getKey();
+    }
+
+    @Override
+    public Block[] getConcealingBlocks() {
+        return door.getConcealingBlocks();
+    }
+
+    @Override
+    public DoorRecord toRecord() {
+        return door.toRecord();
+    }
+
+    @Override
+    public boolean changesWorld() {
+        return false;
+    }
+}
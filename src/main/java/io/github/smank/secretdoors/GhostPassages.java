@@ -0,0 +1,66 @@
+package io.github.smank.secretdoors;
+
+import org.bukkit.Location;
+import org.bukkit.entity.Player;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Opened GhostDoors by the players that see them, so a viewer's movement can be checked against only their own doors.
+ * Checked on every player move, which returns right away while no ghost door is open.  Synchronized, as moves of
+ * players in different regions may be handled concurrently on region threaded servers.
+ */
+public final class GhostPassages {
+
+    private final Map<UUID, List<GhostDoor>> byViewer = new HashMap<>();
+    // Number of opened ghost doors, read without the lock.
+    private volatile int open = 0;
+
+    synchronized void add(GhostDoor door) {
+        for (Player viewer : door.getViewers()) {
+            byViewer.computeIfAbsent(viewer.getUniqueId(), (uid) -> new ArrayList<>(1)).add(door);
+        }
+        open++;
+    }
+
+    synchronized void remove(GhostDoor door) {
+        for (Player viewer : door.getViewers()) {
+            List<GhostDoor> doors = byViewer.get(viewer.getUniqueId());
+            if (doors != null && doors.remove(door) && doors.isEmpty())
+                byViewer.remove(viewer.getUniqueId());
+        }
+        open--;
+    }
+
+    /**
+     * @return where the received player comes out if their move walks into the passage of a ghost door they see, see
+     *         {@link GhostDoor#passThrough(Location, Location)}, or null if it does not.
+     */
+    public Location passThrough(Player player, Location from, Location to) {
+        if (open == 0)
+            return null;
+        synchronized (this) {
+            List<GhostDoor> doors = byViewer.get(player.getUniqueId());
+            if (doors == null)
+                return null;
+            for (GhostDoor door : doors) {
+                Location out = door.passThrough(from, to);
+                if (out != null)
+                    return out;
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Stops moving the received player through ghost doors, e.g. because they quit.  The doors stay open for the
+     * other viewers.
+     */
+    public synchronized void removeViewer(Player player) {
+        byViewer.remove(player.getUniqueId());
+    }
+}
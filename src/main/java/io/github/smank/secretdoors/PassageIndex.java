@@ -0,0 +1,117 @@
+package io.github.smank.secretdoors;
+
+import io.github.smank.secretdoors.util.BlockKeys;
+import io.github.smank.secretdoors.util.LongObjectMap;
+import org.bukkit.block.Block;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Packed positions of the passage blocks (see {@link SecretOpenable#getPassageBlocks()}) of every SecretOpenable
+ * opened in the world, so explosions, pistons and flowing liquids can be kept out of open passages.
+ * <p>
+ * {@link #contains(Block)} is a single hash probe that doesn't allocate, and returns at once while no door is open -
+ * it is called for every liquid flow on the server.  Like {@link DoorRegistry} the index is striped by region, so
+ * threads ticking different regions don't contend.  Positions are added and removed by the thread opening or closing
+ * the door, which owns them.
+ */
+public final class PassageIndex {
+
+    // Same as DoorRegistry: 16x16 chunk regions hashed to 64 stripes.
+    private static final int REGION_SHIFT = 4;
+    private static final int STRIPES = 64;
+
+    // Passage blocks of the regions hashed to one stripe, by world.  Only used while holding the stripe's lock.
+    private static final class Stripe {
+        final Map<UUID, LongObjectMap<SecretOpenable>> worlds = new HashMap<>();
+    }
+
+    private final Stripe[] stripes = new Stripe[STRIPES];
+    // Number of indexed positions in every stripe, checked before taking any lock.
+    private final AtomicInteger size = new AtomicInteger();
+
+    public PassageIndex() {
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new Stripe();
+        }
+    }
+
+    private Stripe stripe(UUID world, int x, int z) {
+        int regionX = x >> (4 + REGION_SHIFT);
+        int regionZ = z >> (4 + REGION_SHIFT);
+        int h = world.hashCode() + 31 * (regionX * 0x9E3779B1 + regionZ);
+        return stripes[(h ^ (h >>> 16)) & (STRIPES - 1)];
+    }
+
+    /**
+     * @return the number of indexed positions.
+     */
+    public int size() {
+        return size.get();
+    }
+
+    /**
+     * @return true if the received block is part of the passage of an opened SecretOpenable.
+     */
+    public boolean contains(Block block) {
+        if (size.get() == 0)
+            return false;
+        UUID world = block.getWorld().getUID();
+        int x = block.getX(), z = block.getZ();
+        Stripe s = stripe(world, x, z);
+        synchronized (s) {
+            LongObjectMap<SecretOpenable> w = s.worlds.get(world);
+            return w != null && w.containsKey(BlockKeys.pack(x, block.getY(), z));
+        }
+    }
+
+    /**
+     * Indexes the passage blocks of the received opened door.  A position already indexed for another door is taken
+     * over.
+     */
+    public void add(SecretOpenable door) {
+        for (Block b : door.getPassageBlocks()) {
+            UUID world = b.getWorld().getUID();
+            Stripe s = stripe(world, b.getX(), b.getZ());
+            synchronized (s) {
+                if (s.worlds.computeIfAbsent(world, (k) -> new LongObjectMap<>()).put(BlockKeys.pack(b), door) == null)
+                    size.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * Drops the passage blocks of the received door, except those since taken over by another door.
+     */
+    public void remove(SecretOpenable door) {
+        for (Block b : door.getPassageBlocks()) {
+            UUID world = b.getWorld().getUID();
+            long position = BlockKeys.pack(b);
+            Stripe s = stripe(world, b.getX(), b.getZ());
+            synchronized (s) {
+                LongObjectMap<SecretOpenable> w = s.worlds.get(world);
+                if (w == null || w.get(position) != door)
+                    continue;
+                w.remove(position);
+                size.decrementAndGet();
+                if (w.isEmpty())
+                    s.worlds.remove(world);
+            }
+        }
+    }
+
+    /**
+     * Drops every position.
+     */
+    public void clear() {
+        for (Stripe s : stripes) {
+            synchronized (s) {
+                s.worlds.clear();
+            }
+        }
+        size.set(0);
+    }
+}
@@ -0,0 +1,98 @@
+package io.github.smank.secretdoors;
+
+import org.bukkit.entity.Player;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Per-player cache of the permission checks made by the event handlers, since hasPermission can be expensive with
+ * context based permission plugins.
+ * Decisions are dropped when the player joins, quits or changes worlds, and expire after a configured number of ticks
+ * so permissions changed by other means take effect shortly.  Bukkit has no event for a recalculation of a player's
+ * permissions, so the expiry is what bounds how stale a decision can be.
+ * Event handlers of different regions may use it concurrently on region threaded servers, so every method
+ * synchronizes on the cache.
+ */
+public final class PermissionCache {
+
+    /**
+     * Cached permissions, by index.
+     */
+    public static final int USE = 0;
+    public static final int CREATE = 1;
+    private static final String[] PERMISSIONS = { SecretDoors.PERMISSION_SD_USE, SecretDoors.PERMISSION_SD_CREATE };
+
+    private static final class Decisions {
+        // Bit i is set if PERMISSIONS[i] was checked, and in granted if it was granted.
+        byte known;
+        byte granted;
+        long expires;
+    }
+
+    private final Map<UUID, Decisions> players = new HashMap<>();
+
+    // Events come in bursts from the same player, so remember the last one.
+    private Player lastPlayer;
+    private Decisions lastDecisions;
+
+    // Ticks a decision is kept, 0 disables the cache.
+    private long ttl;
+
+    /**
+     * Sets how long decisions are kept and drops every cached one.
+     */
+    public synchronized void setTtl(long ticks) {
+        this.ttl = ticks;
+        clear();
+    }
+
+    /**
+     * @param permission {@link #USE} or {@link #CREATE}.
+     * @param now The current tick.
+     * @return player.hasPermission for the received permission, cached.
+     */
+    public synchronized boolean hasPermission(Player player, int permission, long now) {
+        if (ttl <= 0)
+            return player.hasPermission(PERMISSIONS[permission]);
+
+        Decisions d = player == lastPlayer ? lastDecisions : decisions(player);
+        int bit = 1 << permission;
+        if (now >= d.expires) {
+            d.known = 0;
+            d.granted = 0;
+            d.expires = now + ttl;
+        }
+        if ((d.known & bit) == 0) {
+            d.known |= bit;
+            if (player.hasPermission(PERMISSIONS[permission]))
+                d.granted |= bit;
+        }
+        return (d.granted & bit) != 0;
+    }
+
+    private Decisions decisions(Player player) {
+        Decisions d = players.computeIfAbsent(player.getUniqueId(), (uid) -> new Decisions());
+        lastPlayer = player;
+        lastDecisions = d;
+        return d;
+    }
+
+    /**
+     * Drops the cached decisions of the received player.
+     */
+    public synchronized void invalidate(Player player) {
+        players.remove(player.getUniqueId());
+        if (lastPlayer != null && lastPlayer.getUniqueId().equals(player.getUniqueId())) {
+            lastPlayer = null;
+            lastDecisions = null;
+        }
+    }
+
+    public synchronized void clear() {
+        players.clear();
+        lastPlayer = null;
+        lastDecisions = null;
+    }
+}
@@ -1,15 +1,15 @@
 package io.github.smank.secretdoors;
 
+import io.github.smank.secretdoors.storage.DoorRecord;
 import org.bukkit.Effect;
-import org.bukkit.Material;
 import org.bukkit.block.Block;
 import org.bukkit.block.BlockFace;
-import org.bukkit.block.BlockState;
-import org.bukkit.block.Sign;
+import org.bukkit.block.data.Bisected;
 import org.bukkit.block.data.BlockData;
-import org.bukkit.block.data.Directional;
 import org.bukkit.block.data.type.Door;
 
+import java.util.Arrays;
+
 /**
  * Original Author: MrChick, updated by dill01 and now updated by Snnappie
  * @author Snnappie
@@ -20,25 +20,14 @@ import org.bukkit.block.data.type.Door;
 public class SecretDoor implements SecretOpenable {
 
     private Block doorBlock;
+    // Data of the door block while it is closed
+    private BlockData doorData;
     private Block[] blocks = new Block[2];
-    private Material[] materials = new Material[2];
     private BlockData[] data = new BlockData[2];
     private SecretDoorHelper.Orientation orientation = null;
 
-    //// Attached state
-
-    // References to the attached block objects
-    private Block[] attachedBlocks;
-    // Material type of the blocks while the door is closed (i.e. before they get set to AIR).
-    private Material[] attachedMats;
-    // API for changing directions is non-functional in Bukkit/Spigot v 1.8 - 2014-12-21
-    //private BlockFace[] attachedDirections;// = new BlockFace[8];
-    // data values for each attached block
-    private BlockData[] attachedData;
-    // Count of the number of items attached to this door.
-    private int attachedCount = 0;
-    // Contains the text of every sign that is attached to this door.
-    private String[][] signText;
+    // Torches, signs etc. attached to the concealing blocks.
+    private Attachments attachments = Attachments.NONE;
 
     public SecretDoor(Block door, Block other, SecretDoorHelper.Orientation orientation, boolean preserveAttachments) {
 
@@ -63,11 +52,11 @@ public class SecretDoor implements SecretOpenable {
             }
         }
 
-        this.materials[0] = this.blocks[0].getType();
-        this.materials[1] = this.blocks[1].getType();
+        this.doorData = this.doorBlock.getBlockData();
 
-        this.data[0] = this.blocks[0].getState().getBlockData().clone();
-        this.data[1] = this.blocks[1].getState().getBlockData().clone();
+        // getBlockData() returns a copy, no need for a state snapshot or another clone.
+        this.data[0] = this.blocks[0].getBlockData();
+        this.data[1] = this.blocks[1].getBlockData();
 
         if (SecretDoors.DEBUG) {
             System.out.println("Door blocks:" +
@@ -86,168 +75,115 @@ public class SecretDoor implements SecretOpenable {
             return;
         }
 
-        BlockFace[] faces = { BlockFace.NORTH, BlockFace.SOUTH, BlockFace.EAST, BlockFace.WEST };
-        for (BlockFace face : faces) {
-            for (int i = 0; i < 2; i++) {
-                Block attached = blocks[i].getRelative(face);
-
-                // if it is a simple attachable item (wall-mounted, Directional)
-                Directional sam = SecretDoorHelper.getAttachableFromBlock(attached);
-                if (SecretDoors.DEBUG && sam != null) {
-                    System.out.println("Found attachable at " + attached.getLocation() +
-                        " type=" + attached.getType() +
-                        " facing=" + sam.getFacing() +
-                        " checkFace=" + face);
-                }
-                if (sam != null && sam.getFacing() != null) {
-                    // skip if torch isn't attached to our concealing block
-                    // A torch EAST of concealing block, attached to it, faces EAST (away from attachment)
-                    // face = EAST (direction we're checking), torch.getFacing() = EAST → match!
-                    if (sam.getFacing() != face) {
-                        if (SecretDoors.DEBUG) {
-                            System.out.println("  Skipping: facing " + sam.getFacing() + " != checkFace " + face);
-                        }
-                        continue;
-                    }
-                    if (SecretDoors.DEBUG) {
-                        System.out.println("  ADDING attachment: " + attached.getType() + " at " + attached.getLocation());
-                    }
-
-                    addAttachment(attached);
-                }
-            }
-        }
-
-        // Check for floor torches on top of concealing blocks (not Directional)
-        for (int i = 0; i < 2; i++) {
-            Block onTop = blocks[i].getRelative(BlockFace.UP);
-            if (SecretDoorHelper.isFloorTorch(onTop.getType())) {
-                if (SecretDoors.DEBUG) {
-                    System.out.println("  ADDING floor torch: " + onTop.getType() + " at " + onTop.getLocation());
-                }
-                addAttachment(onTop);
-            }
-        }
+        this.attachments = Attachments.scan(this.blocks, false);
     }
 
-    private void addAttachment(Block attached) {
-        // First time we've been here, initialize the arrays
-        if (attachedCount == 0) {
-            attachedBlocks = new Block[12];
-            attachedMats = new Material[12];
-            attachedData = new BlockData[12];
-            signText = new String[12][4];
-        }
-
-        // handle sign text
-        if (SecretDoorHelper.isAnySign(attached.getType())) {
-            handleSignText(attached);
-        }
-
-        attachedBlocks[attachedCount] = attached;
-        attachedMats[attachedCount] = attached.getType();
-        // Clone the BlockData to avoid issues with mutable references
-        attachedData[attachedCount] = attached.getBlockData().clone();
-        attachedCount++;
-    }
 
-    private void handleSignText(Block block) {
-        Sign s = (Sign) (block.getState());
-        signText[attachedCount] = s.getLines();
+    /**
+     * Creates the SecretDoor of a registered door, whose blocks are all known: nothing around them is looked at.
+     * @param attached The blocks attached to the concealing blocks as of the door's last check.
+     */
+    SecretDoor(Block doorBlock, Block top, Block bottom, Block[] attached, SecretDoorHelper.Orientation orientation,
+               boolean preserveAttachments) {
+        this.doorBlock = doorBlock;
+        this.doorData = doorBlock.getBlockData();
+        this.blocks[0] = top;
+        this.blocks[1] = bottom;
+        this.data[0] = top.getBlockData();
+        this.data[1] = bottom.getBlockData();
+        this.orientation = orientation;
+        if (preserveAttachments)
+            this.attachments = Attachments.capture(attached);
     }
 
 
     @Override
     public void close() {
         if (SecretDoors.DEBUG) {
-            System.out.println("Closing door with " + attachedCount + " attached blocks to restore");
+            System.out.println("Closing door with " + attachments.size() + " attached blocks to restore");
         }
-        for (int i = 0; i < 2; i++) {
-            if (SecretDoors.DEBUG) {
-                System.out.println("Setting data[" + i + "] from " + this.blocks[i].getType() + " to " + this.materials[i]);
-                System.out.println("Setting " + this.blocks[i].getState().getData() + " to " + this.data[i]);
-            }
 
-            this.blocks[i].setType(this.materials[i]);
-            // Use setBlockData directly on the block, not on a snapshot
-            this.blocks[i].setBlockData(this.data[i]);
+        // Supports first, then what is attached to them, then the door itself.
+        BlockWrites writes = new BlockWrites(4 + attachments.size());
+        for (int i = 0; i < 2; i++) {
+            writes.set(this.blocks[i], this.data[i]);
         }
+        attachments.restore(writes);
+        setDoorOpen(writes, false);
+        writes.apply();
 
-        // Close the actual door
-        BlockState doorState = this.doorBlock.getState();
-        Door doorData = (Door) doorState.getBlockData();
-        doorData.setOpen(false);
-        doorState.setBlockData(doorData);
-        doorState.update();
+        attachments.restoreText();
 
         doorBlock.getWorld().playEffect(doorBlock.getLocation(), Effect.DOOR_TOGGLE, 0);
-
-        // handle attached blocks
-        for (int i = 0; i < attachedCount; i++) {
-            if (SecretDoors.DEBUG) {
-                System.out.println("Restoring attached block " + i + ": " + attachedMats[i] + " at " + attachedBlocks[i].getLocation());
-                System.out.println("  BlockData to restore: " + attachedData[i]);
-            }
-
-            attachedBlocks[i].setType(attachedMats[i]);
-
-            if (SecretDoors.DEBUG) {
-                System.out.println("attachedBlocks[" + i + "] is facing " + ((Directional) attachedBlocks[i].getBlockData()).getFacing());
-                System.out.println("attachedBlocks[" + i + "] data == " + attachedBlocks[i].getBlockData());
-            }
-
-            // This API is non-functional as of Bukkit/Spigot 1.8 - 2014-12-21
-            attachedBlocks[i].setBlockData(attachedData[i]);
-            //attachedBlocks[i].se
-            if (SecretDoors.DEBUG) {
-                System.out.println("attachedBlocks[" + i + "] is facing " + ((Directional) attachedBlocks[i].getBlockData()).getFacing());
-                System.out.println("attachedBlocks[" + i + "] data == " + attachedBlocks[i].getBlockData());
-            }
-
-            // handle sign text
-            if (SecretDoorHelper.isAnySign(attachedBlocks[i].getType())) {
-                Sign s = (Sign) (attachedBlocks[i].getState());
-                for (int j = 0; j < 4; j++) {
-                    s.setLine(j, signText[i][j]);
-                }
-                s.update(true);
-            }
-        }
     }
 
 
     @Override
     public void open() {
         if (SecretDoors.DEBUG) {
-            System.out.println("Opening door with " + attachedCount + " attached blocks");
+            System.out.println("Opening door with " + attachments.size() + " attached blocks");
         }
 
-        // handle attached blocks
-        for (int i = 0; i < attachedCount; i++) {
-            if (SecretDoors.DEBUG) {
-                System.out.println("  Removing attached block " + i + ": " + attachedBlocks[i].getType() + " at " + attachedBlocks[i].getLocation());
-            }
-            attachedBlocks[i].setType(Material.AIR);
-        }
+        boolean toggleDoor = this.orientation == SecretDoorHelper.Orientation.BLOCK_FIRST;
 
+        // Attachments first so nothing is left without support, then the concealing blocks, then the door.
+        BlockWrites writes = new BlockWrites(attachments.size() + 2 + (toggleDoor ? 2 : 0));
+        attachments.clear(writes);
         for (int i = 0; i < 2; i++) {
-            this.blocks[i].setType(Material.AIR);
+            writes.clear(this.blocks[i]);
         }
+        if (toggleDoor)
+            setDoorOpen(writes, true);
+        writes.apply();
 
-        if (this.orientation == SecretDoorHelper.Orientation.BLOCK_FIRST) {
-            BlockState doorState = this.doorBlock.getState();
-            Door doorData = (Door) doorState.getBlockData();
-            doorData.setOpen(true);
-            doorState.setBlockData(doorData);
-            doorState.update();
-
+        if (toggleDoor)
             doorBlock.getWorld().playEffect(doorBlock.getLocation(), Effect.DOOR_TOGGLE, 0);
-        }
+    }
 
+    // Adds both halves of the door with the received open state.  The bottom half goes last, so the physics update
+    // at the end of the batch runs for the door.
+    private void setDoorOpen(BlockWrites writes, boolean open) {
+        Door bottom = (Door) this.doorBlock.getBlockData();
+        bottom.setOpen(open);
+        Door top = (Door) bottom.clone();
+        top.setHalf(Bisected.Half.TOP);
+        writes.set(this.doorBlock.getRelative(BlockFace.UP), top).set(this.doorBlock, bottom);
     }
 
     @Override
     public Block getKey() {
         return doorBlock;
     }
+
+    @Override
+    public Block[] getConcealingBlocks() {
+        return blocks;
+    }
+
+    @Override
+    public Block[] getPassageBlocks() {
+        Block[] attached = attachments.getBlocks();
+        Block[] passage = Arrays.copyOf(blocks, blocks.length + attached.length + 2);
+        System.arraycopy(attached, 0, passage, blocks.length, attached.length);
+        passage[passage.length - 2] = doorBlock;
+        passage[passage.length - 1] = doorBlock.getRelative(BlockFace.UP);
+        return passage;
+    }
+
+    /**
+     * @return the blocks attached to the concealing blocks, as found when this was created.
+     */
+    Attachments getAttachments() {
+        return attachments;
+    }
+
+    @Override
+    public DoorRecord toRecord() {
+        DoorRecord.Builder record = new DoorRecord.Builder(doorBlock);
+        for (int i = 0; i < 2; i++) {
+            record.hidden(blocks[i], data[i], null);
+        }
+        attachments.record(record);
+        return record.key(doorBlock, doorData).build();
+    }
 }
\ No newline at end of file
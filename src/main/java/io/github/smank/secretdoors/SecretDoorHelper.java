@@ -1,6 +1,8 @@
 package io.github.smank.secretdoors;
 
+import org.bukkit.Bukkit;
 import org.bukkit.Material;
+import org.bukkit.Tag;
 import org.bukkit.block.Block;
 import org.bukkit.block.BlockFace;
 import org.bukkit.block.data.*;
@@ -21,66 +23,110 @@ public class SecretDoorHelper {
     // but I don't trust it.
     public static BlockFace[] DIRECTIONS = { BlockFace.NORTH, BlockFace.SOUTH, BlockFace.EAST, BlockFace.WEST };
 
+    //// Material classification
+    // Every classification below is a single read from FLAGS, which is indexed by Material ordinal and built once
+    // when this class is loaded.
+
+    private static final int DOOR                 = 1;
+    private static final int TRAPDOOR             = 1 << 1;
+    private static final int PLACEABLE_ATTACHABLE = 1 << 2;
+    private static final int ATTACHABLE           = 1 << 3;
+    private static final int FLOOR_TORCH          = 1 << 4;
+    private static final int STANDING_SIGN        = 1 << 5;
+    private static final int WALL_SIGN            = 1 << 6;
+
+    private static final byte[] FLAGS = buildFlags();
+
+    // Derives the flags of every Material from its name, so that new wood types are picked up without code changes,
+    // and from the server's block tags when a server is running.
+    private static byte[] buildFlags() {
+        Material[] materials = Material.values();
+        byte[] flags = new byte[materials.length];
+        for (Material m : materials) {
+            String name = m.name();
+            if (name.startsWith("LEGACY_"))
+                continue;
+            int f = 0;
+
+            // Doors - iron doors can't be opened by hand
+            if (name.endsWith("_DOOR") && m != Material.IRON_DOOR)
+                f |= DOOR;
+            if (name.endsWith("_TRAPDOOR"))
+                f |= TRAPDOOR;
+
+            // Torches (become WALL_TORCH when placed on side)
+            if (name.equals("WALL_TORCH") || name.endsWith("_WALL_TORCH"))
+                f |= ATTACHABLE;
+            else if (name.equals("TORCH") || name.endsWith("_TORCH"))
+                f |= FLOOR_TORCH | PLACEABLE_ATTACHABLE;
+
+            // Signs - hanging signs are treated like wall signs
+            if (name.endsWith("_WALL_SIGN") || name.endsWith("_HANGING_SIGN"))
+                f |= WALL_SIGN | ATTACHABLE;
+            else if (name.endsWith("_SIGN"))
+                f |= STANDING_SIGN | ATTACHABLE | PLACEABLE_ATTACHABLE;
+            // Ceiling hanging signs are separate items
+            if (name.endsWith("_HANGING_SIGN") && !name.endsWith("_WALL_HANGING_SIGN"))
+                f |= PLACEABLE_ATTACHABLE;
+
+            // Buttons, levers, ladders and tripwire hooks (item = block name)
+            if (name.endsWith("_BUTTON") || m == Material.LEVER || m == Material.LADDER || m == Material.TRIPWIRE_HOOK)
+                f |= ATTACHABLE | PLACEABLE_ATTACHABLE;
+
+            // Banners and skulls/heads (item form becomes the WALL_ variant when placed on a wall)
+            if (name.endsWith("_WALL_BANNER") || name.endsWith("_WALL_SKULL") || name.endsWith("_WALL_HEAD"))
+                f |= ATTACHABLE;
+            else if (name.endsWith("_BANNER") || name.endsWith("_SKULL")
+                    || (name.endsWith("_HEAD") && m != Material.PISTON_HEAD))
+                f |= PLACEABLE_ATTACHABLE;
+
+            flags[m.ordinal()] = (byte) f;
+        }
+
+        // Tags are only available while a server is running (and not for instance in benchmarks).
+        if (Bukkit.getServer() != null) {
+            addTag(flags, Tag.DOORS, DOOR);
+            addTag(flags, Tag.TRAPDOORS, TRAPDOOR);
+            addTag(flags, Tag.STANDING_SIGNS, STANDING_SIGN | ATTACHABLE | PLACEABLE_ATTACHABLE);
+            addTag(flags, Tag.WALL_SIGNS, WALL_SIGN | ATTACHABLE);
+            addTag(flags, Tag.CEILING_HANGING_SIGNS, WALL_SIGN | ATTACHABLE | PLACEABLE_ATTACHABLE);
+            addTag(flags, Tag.WALL_HANGING_SIGNS, WALL_SIGN | ATTACHABLE);
+            addTag(flags, Tag.BUTTONS, ATTACHABLE | PLACEABLE_ATTACHABLE);
+            flags[Material.IRON_DOOR.ordinal()] &= ~DOOR;
+        }
+        return flags;
+    }
+
+    private static void addTag(byte[] flags, Tag<Material> tag, int f) {
+        if (tag == null)
+            return;
+        for (Material m : tag.getValues())
+            flags[m.ordinal()] |= f;
+    }
+
     /**
      * @return true if the received Block is considered a valid door type.
      */
     public static boolean isValidDoor(Block door) {
-        if (door == null)
-            return false;
-        switch (door.getType()) {
-            case OAK_DOOR:
-            case ACACIA_DOOR:
-            case BIRCH_DOOR:
-            case DARK_OAK_DOOR:
-            case JUNGLE_DOOR:
-            case SPRUCE_DOOR:
-            case CRIMSON_DOOR:
-            case WARPED_DOOR:
-            case MANGROVE_DOOR:
-            case CHERRY_DOOR:
-            case BAMBOO_DOOR:
-            case COPPER_DOOR:
-            case EXPOSED_COPPER_DOOR:
-            case WEATHERED_COPPER_DOOR:
-            case OXIDIZED_COPPER_DOOR:
-            case WAXED_COPPER_DOOR:
-            case WAXED_EXPOSED_COPPER_DOOR:
-            case WAXED_WEATHERED_COPPER_DOOR:
-            case WAXED_OXIDIZED_COPPER_DOOR:
-                return true;
-        }
+        return door != null && isValidDoor(door.getType());
+    }
 
-        return false;
+    /**
+     * @return true if the received Material type is considered a valid door type.
+     */
+    public static boolean isValidDoor(Material type) {
+        return (FLAGS[type.ordinal()] & DOOR) != 0;
     }
 
     public static boolean isValidTrapDoor(Block door) {
-        if (door == null)
-            return false;
-        switch (door.getType()) {
-            case OAK_TRAPDOOR:
-            case ACACIA_TRAPDOOR:
-            case BIRCH_TRAPDOOR:
-            case DARK_OAK_TRAPDOOR:
-            case JUNGLE_TRAPDOOR:
-            case SPRUCE_TRAPDOOR:
-            case CRIMSON_TRAPDOOR:
-            case WARPED_TRAPDOOR:
-            case MANGROVE_TRAPDOOR:
-            case CHERRY_TRAPDOOR:
-            case BAMBOO_TRAPDOOR:
-            case IRON_TRAPDOOR:
-            case COPPER_TRAPDOOR:
-            case EXPOSED_COPPER_TRAPDOOR:
-            case WEATHERED_COPPER_TRAPDOOR:
-            case OXIDIZED_COPPER_TRAPDOOR:
-            case WAXED_COPPER_TRAPDOOR:
-            case WAXED_EXPOSED_COPPER_TRAPDOOR:
-            case WAXED_WEATHERED_COPPER_TRAPDOOR:
-            case WAXED_OXIDIZED_COPPER_TRAPDOOR:
-                return true;
-        }
+        return door != null && isValidTrapDoor(door.getType());
+    }
 
-        return false;
+    /**
+     * @return true if the received Material type is considered a valid trapdoor type.
+     */
+    public static boolean isValidTrapDoor(Material type) {
+        return (FLAGS[type.ordinal()] & TRAPDOOR) != 0;
     }
 
 
@@ -125,82 +171,7 @@ public class SecretDoorHelper {
      * @return true if item is a placeable attachable item, false otherwise.
      */
     public static boolean isPlaceableAttachable(Material item) {
-        if (item == null) return false;
-        switch (item) {
-            // Torch items (become WALL_TORCH when placed on side)
-            case TORCH:
-            case SOUL_TORCH:
-            case REDSTONE_TORCH:
-            // Signs, buttons, levers, ladders (item = block name)
-            case OAK_SIGN:
-            case ACACIA_SIGN:
-            case BIRCH_SIGN:
-            case DARK_OAK_SIGN:
-            case JUNGLE_SIGN:
-            case SPRUCE_SIGN:
-            case CRIMSON_SIGN:
-            case WARPED_SIGN:
-            case MANGROVE_SIGN:
-            case CHERRY_SIGN:
-            case BAMBOO_SIGN:
-            // Hanging signs (separate items)
-            case OAK_HANGING_SIGN:
-            case ACACIA_HANGING_SIGN:
-            case BIRCH_HANGING_SIGN:
-            case DARK_OAK_HANGING_SIGN:
-            case JUNGLE_HANGING_SIGN:
-            case SPRUCE_HANGING_SIGN:
-            case CRIMSON_HANGING_SIGN:
-            case WARPED_HANGING_SIGN:
-            case MANGROVE_HANGING_SIGN:
-            case CHERRY_HANGING_SIGN:
-            case BAMBOO_HANGING_SIGN:
-            case LEVER:
-            case STONE_BUTTON:
-            case OAK_BUTTON:
-            case ACACIA_BUTTON:
-            case BIRCH_BUTTON:
-            case DARK_OAK_BUTTON:
-            case JUNGLE_BUTTON:
-            case SPRUCE_BUTTON:
-            case CRIMSON_BUTTON:
-            case WARPED_BUTTON:
-            case MANGROVE_BUTTON:
-            case CHERRY_BUTTON:
-            case BAMBOO_BUTTON:
-            case POLISHED_BLACKSTONE_BUTTON:
-            case LADDER:
-            // Banners (item form, becomes WALL_BANNER when placed on wall)
-            case WHITE_BANNER:
-            case ORANGE_BANNER:
-            case MAGENTA_BANNER:
-            case LIGHT_BLUE_BANNER:
-            case YELLOW_BANNER:
-            case LIME_BANNER:
-            case PINK_BANNER:
-            case GRAY_BANNER:
-            case LIGHT_GRAY_BANNER:
-            case CYAN_BANNER:
-            case PURPLE_BANNER:
-            case BLUE_BANNER:
-            case BROWN_BANNER:
-            case GREEN_BANNER:
-            case RED_BANNER:
-            case BLACK_BANNER:
-            // Skulls/heads (item form)
-            case SKELETON_SKULL:
-            case WITHER_SKELETON_SKULL:
-            case ZOMBIE_HEAD:
-            case PLAYER_HEAD:
-            case CREEPER_HEAD:
-            case DRAGON_HEAD:
-            case PIGLIN_HEAD:
-            // Tripwire hook
-            case TRIPWIRE_HOOK:
-                return true;
-            default:
-                return false;
-        }
+        return item != null && (FLAGS[item.ordinal()] & PLACEABLE_ATTACHABLE) != 0;
     }
 
     /**
@@ -210,105 +181,7 @@ public class SecretDoorHelper {
      * @return true if item is an attachable block, false otherwise.
      */
     public static boolean isAttachableItem(Material item) {
-
-        if (item != null) {
-            switch (item) {
-                // Wall-mounted torches only (Directional)
-                case WALL_TORCH:
-                case SOUL_WALL_TORCH:
-                case REDSTONE_WALL_TORCH:
-                case OAK_SIGN:
-                case ACACIA_SIGN:
-                case BIRCH_SIGN:
-                case DARK_OAK_SIGN:
-                case JUNGLE_SIGN:
-                case SPRUCE_SIGN:
-                case CRIMSON_SIGN:
-                case WARPED_SIGN:
-                case MANGROVE_SIGN:
-                case CHERRY_SIGN:
-                case BAMBOO_SIGN:
-                case OAK_WALL_SIGN:
-                case ACACIA_WALL_SIGN:
-                case BIRCH_WALL_SIGN:
-                case DARK_OAK_WALL_SIGN:
-                case JUNGLE_WALL_SIGN:
-                case SPRUCE_WALL_SIGN:
-                case CRIMSON_WALL_SIGN:
-                case WARPED_WALL_SIGN:
-                case MANGROVE_WALL_SIGN:
-                case CHERRY_WALL_SIGN:
-                case BAMBOO_WALL_SIGN:
-                case OAK_HANGING_SIGN:
-                case ACACIA_HANGING_SIGN:
-                case BIRCH_HANGING_SIGN:
-                case DARK_OAK_HANGING_SIGN:
-                case JUNGLE_HANGING_SIGN:
-                case SPRUCE_HANGING_SIGN:
-                case CRIMSON_HANGING_SIGN:
-                case WARPED_HANGING_SIGN:
-                case MANGROVE_HANGING_SIGN:
-                case CHERRY_HANGING_SIGN:
-                case BAMBOO_HANGING_SIGN:
-                case OAK_WALL_HANGING_SIGN:
-                case ACACIA_WALL_HANGING_SIGN:
-                case BIRCH_WALL_HANGING_SIGN:
-                case DARK_OAK_WALL_HANGING_SIGN:
-                case JUNGLE_WALL_HANGING_SIGN:
-                case SPRUCE_WALL_HANGING_SIGN:
-                case CRIMSON_WALL_HANGING_SIGN:
-                case WARPED_WALL_HANGING_SIGN:
-                case MANGROVE_WALL_HANGING_SIGN:
-                case CHERRY_WALL_HANGING_SIGN:
-                case BAMBOO_WALL_HANGING_SIGN:
-                case LEVER:
-                case STONE_BUTTON:
-                case OAK_BUTTON:
-                case ACACIA_BUTTON:
-                case BIRCH_BUTTON:
-                case DARK_OAK_BUTTON:
-                case JUNGLE_BUTTON:
-                case SPRUCE_BUTTON:
-                case CRIMSON_BUTTON:
-                case WARPED_BUTTON:
-                case MANGROVE_BUTTON:
-                case CHERRY_BUTTON:
-                case BAMBOO_BUTTON:
-                case POLISHED_BLACKSTONE_BUTTON:
-                case LADDER:
-                // Wall banners
-                case WHITE_WALL_BANNER:
-                case ORANGE_WALL_BANNER:
-                case MAGENTA_WALL_BANNER:
-                case LIGHT_BLUE_WALL_BANNER:
-                case YELLOW_WALL_BANNER:
-                case LIME_WALL_BANNER:
-                case PINK_WALL_BANNER:
-                case GRAY_WALL_BANNER:
-                case LIGHT_GRAY_WALL_BANNER:
-                case CYAN_WALL_BANNER:
-                case PURPLE_WALL_BANNER:
-                case BLUE_WALL_BANNER:
-                case BROWN_WALL_BANNER:
-                case GREEN_WALL_BANNER:
-                case RED_WALL_BANNER:
-                case BLACK_WALL_BANNER:
-                // Wall skulls/heads
-                case SKELETON_WALL_SKULL:
-                case WITHER_SKELETON_WALL_SKULL:
-                case ZOMBIE_WALL_HEAD:
-                case PLAYER_WALL_HEAD:
-                case CREEPER_WALL_HEAD:
-                case DRAGON_WALL_HEAD:
-                case PIGLIN_WALL_HEAD:
-                // Tripwire hook
-                case TRIPWIRE_HOOK:
-                    return true;
-                default:
-                    return false;
-            }
-        }
-        return false;
+        return item != null && (FLAGS[item.ordinal()] & ATTACHABLE) != 0;
     }
 
     /**
@@ -319,7 +192,11 @@ public class SecretDoorHelper {
      * @return block as an attachable, or null if it could not be cast.
      */
     public static Directional getAttachableFromBlock(Block block) {
-        return isAttachableItem(block.getType()) ? ((Directional) block.getBlockData()) : null;
+        if (!isAttachableItem(block.getType()))
+            return null;
+        // Standing and hanging signs are attachable but rotatable rather than directional.
+        BlockData data = block.getBlockData();
+        return data instanceof Directional ? (Directional) data : null;
     }
 
     /**
@@ -376,86 +253,27 @@ public class SecretDoorHelper {
      * Returns true if the material is a floor torch (placed on top of blocks).
      */
     public static boolean isFloorTorch(Material mat) {
-        switch (mat) {
-            case TORCH:
-            case SOUL_TORCH:
-            case REDSTONE_TORCH:
-                return true;
-            default:
-                return false;
-        }
+        return (FLAGS[mat.ordinal()] & FLOOR_TORCH) != 0;
     }
 
     /**
      * Returns true if the material is a standing sign (placed on top of blocks).
      */
     public static boolean isStandingSign(Material mat) {
-        switch (mat) {
-            case OAK_SIGN:
-            case ACACIA_SIGN:
-            case BIRCH_SIGN:
-            case DARK_OAK_SIGN:
-            case JUNGLE_SIGN:
-            case SPRUCE_SIGN:
-            case CRIMSON_SIGN:
-            case WARPED_SIGN:
-            case MANGROVE_SIGN:
-            case CHERRY_SIGN:
-            case BAMBOO_SIGN:
-                return true;
-            default:
-                return false;
-        }
+        return (FLAGS[mat.ordinal()] & STANDING_SIGN) != 0;
     }
 
     /**
      * Returns true if the material is a wall-mounted sign.
      */
     public static boolean isWallSign(Material mat) {
-        switch (mat) {
-            case OAK_WALL_SIGN:
-            case ACACIA_WALL_SIGN:
-            case BIRCH_WALL_SIGN:
-            case DARK_OAK_WALL_SIGN:
-            case JUNGLE_WALL_SIGN:
-            case SPRUCE_WALL_SIGN:
-            case CRIMSON_WALL_SIGN:
-            case WARPED_WALL_SIGN:
-            case MANGROVE_WALL_SIGN:
-            case CHERRY_WALL_SIGN:
-            case BAMBOO_WALL_SIGN:
-            case OAK_HANGING_SIGN:
-            case ACACIA_HANGING_SIGN:
-            case BIRCH_HANGING_SIGN:
-            case DARK_OAK_HANGING_SIGN:
-            case JUNGLE_HANGING_SIGN:
-            case SPRUCE_HANGING_SIGN:
-            case CRIMSON_HANGING_SIGN:
-            case WARPED_HANGING_SIGN:
-            case MANGROVE_HANGING_SIGN:
-            case CHERRY_HANGING_SIGN:
-            case BAMBOO_HANGING_SIGN:
-            case OAK_WALL_HANGING_SIGN:
-            case ACACIA_WALL_HANGING_SIGN:
-            case BIRCH_WALL_HANGING_SIGN:
-            case DARK_OAK_WALL_HANGING_SIGN:
-            case JUNGLE_WALL_HANGING_SIGN:
-            case SPRUCE_WALL_HANGING_SIGN:
-            case CRIMSON_WALL_HANGING_SIGN:
-            case WARPED_WALL_HANGING_SIGN:
-            case MANGROVE_WALL_HANGING_SIGN:
-            case CHERRY_WALL_HANGING_SIGN:
-            case BAMBOO_WALL_HANGING_SIGN:
-                return true;
-            default:
-                return false;
-        }
+        return (FLAGS[mat.ordinal()] & WALL_SIGN) != 0;
     }
 
     /**
      * Returns true if the material is any type of sign (standing, wall, or hanging).
      */
     public static boolean isAnySign(Material mat) {
-        return isStandingSign(mat) || isWallSign(mat);
+        return (FLAGS[mat.ordinal()] & (STANDING_SIGN | WALL_SIGN)) != 0;
     }
 }
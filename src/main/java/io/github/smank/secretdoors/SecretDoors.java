@@ -1,25 +1,56 @@
 package io.github.smank.secretdoors;
 
+import io.github.smank.secretdoors.commands.SecretDoorsCommand;
 import io.github.smank.secretdoors.listeners.BlockListener;
 import io.github.smank.secretdoors.listeners.PlayerListener;
 import io.github.smank.secretdoors.listeners.PowerListener;
-import org.bukkit.ChatColor;
+import io.github.smank.secretdoors.listeners.ProtectionListener;
+import io.github.smank.secretdoors.listeners.WorldListener;
+import io.github.smank.secretdoors.metrics.Metrics;
+import io.github.smank.secretdoors.scheduling.DoorScheduler;
+import io.github.smank.secretdoors.storage.DoorJournal;
+import io.github.smank.secretdoors.storage.DoorRecord;
+import io.github.smank.secretdoors.storage.DoorStorage;
+import io.github.smank.secretdoors.storage.SqliteDoorStorage;
+import io.github.smank.secretdoors.util.BlockKeys;
+import io.github.smank.secretdoors.util.TimerWheel;
+import org.bukkit.Chunk;
+import org.bukkit.ChunkSnapshot;
 import org.bukkit.Effect;
+import org.bukkit.Location;
 import org.bukkit.Material;
+import org.bukkit.World;
 import org.bukkit.block.Block;
 import org.bukkit.block.BlockFace;
+import org.bukkit.block.data.Bisected;
 import org.bukkit.block.data.type.Door;
 import org.bukkit.block.data.type.TrapDoor;
 import org.bukkit.command.Command;
 import org.bukkit.command.CommandSender;
+import org.bukkit.configuration.InvalidConfigurationException;
+import org.bukkit.configuration.file.YamlConfiguration;
+import org.bukkit.entity.Player;
+import org.bukkit.plugin.PluginDescriptionFile;
 import org.bukkit.plugin.java.JavaPlugin;
-import org.bukkit.scheduler.BukkitRunnable;
+import org.bukkit.plugin.java.JavaPluginLoader;
 
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
 import java.util.*;
-import java.util.stream.Collectors;
+import java.util.function.Consumer;
+import java.util.logging.Level;
 
 /**
- * Plugin entry point.  Keeps state of opened doors and timer tasks to close doors.
+ * Plugin entry point.  Keeps state of opened doors and timers to close doors.
+ * <p>
+ * Runs on single threaded servers as well as on region threaded ones (Folia), where events are fired on the thread
+ * ticking the region they happen in.  Doors are only ever opened and closed on the thread owning their region, see
+ * {@link DoorScheduler}.  The registry is safe to look up from any thread, and every other piece of door state -
+ * timers, the queue and the registry entries - is guarded by {@code stateLock}, which is never held while blocks of
+ * another region are written.
  */
 public class SecretDoors extends JavaPlugin {
 
@@ -28,6 +59,11 @@ public class SecretDoors extends JavaPlugin {
      */
     public static final String PERMISSION_SD_USE    = "secretdoors.use";
     public static final String PERMISSION_SD_CREATE = "secretdoors.create";
+    public static final String PERMISSION_SD_RELOAD = "secretdoors.reload";
+    public static final String PERMISSION_SD_STATS  = "secretdoors.stats";
+    public static final String PERMISSION_SD_CLOSE  = "secretdoors.close";
+    public static final String PERMISSION_SD_LIST   = "secretdoors.list";
+    public static final String PERMISSION_SD_REGISTER = "secretdoors.register";
 
     /**
      * Config strings
@@ -39,167 +75,567 @@ public class SecretDoors extends JavaPlugin {
     public static final String CONFIG_ENABLE_WHITELIST      = "enable-whitelist";
     public static final String CONFIG_CLOSE_TIME            = "close-time-seconds";
     public static final String CONFIG_PRESERVE_ATTACHMENTS  = "preserve-attachments";
+    public static final String CONFIG_PERSIST_DOORS         = "persist-open-doors";
+    public static final String CONFIG_STORAGE               = "storage";
+    public static final String CONFIG_MAX_OPS_PER_TICK      = "max-door-operations-per-tick";
+    public static final String CONFIG_MAX_MILLIS_PER_TICK   = "max-door-operations-millis";
+    public static final String CONFIG_REDSTONE_MIN_HOLD     = "redstone-min-hold-ticks";
+    public static final String CONFIG_METRICS_ENABLED       = "metrics-enabled";
+    public static final String CONFIG_INDEX_DOORS           = "index-door-positions";
+    public static final String CONFIG_PERMISSION_CACHE      = "permission-cache-seconds";
+    public static final String CONFIG_GHOST_DOORS           = "ghost-doors";
+    public static final String CONFIG_GHOST_AUDIENCE_RADIUS = "ghost-door-audience-radius";
+    public static final String CONFIG_REGISTERED_ONLY       = "registered-doors-only";
+    public static final String CONFIG_PROTECT_DOORS         = "protect-open-doors";
+
+    // Name of the journal of opened doors within the plugin's data folder.
+    private static final String JOURNAL_FILE = "open-doors.journal";
+    // Name of the database used instead of the journal with storage: sqlite.
+    private static final String DATABASE_FILE = "doors.db";
+    // Name of the file of doors registered with /sd register within the plugin's data folder.
+    private static final String DEFINITIONS_FILE = "registered-doors.yml";
 
     // Used for enabling debug println's throughout the code - should always be false in a release.
     public static final boolean DEBUG = false;
 
 
-    // Represents the collection of materials that *cannot* be used to create SecretOpenable
-    // objects.  That is, a Block with Material type m, cannot be used to create a SecretOpenable object if m is
-    // an element of blacklist.
-    private Set<Material> blacklist;
+    // Typed snapshot of config.yml.  Replaced as a whole on every (re)load so readers always see a consistent set
+    // of values.
+    private volatile SecretDoorsSettings settings;
+
+    // Currently opened SecretOpenable objects, indexed by the packed positions of their keys and by chunk.
+    // Each entry also holds the door's auto close timer.
+    private final DoorRegistry doors = new DoorRegistry();
+
+    // Guards closeTimers, queue, the mutable fields of the registry entries and modifications of the registry.
+    private final Object stateLock = new Object();
+
+    // Wheel of auto close timers, advanced once per tick by tick().  Wheel size covers 51.2 seconds; longer close
+    // times just take more than one revolution.
+    private final TimerWheel<DoorRegistry.Entry> closeTimers = new TimerWheel<>(1024);
+    private final Consumer<DoorRegistry.Entry> autoClose = this::closeDoorAuto;
+    // closeTimers.getTick(), readable without the lock.
+    private volatile long currentTick = 0;
+
+    // Door operations triggered by redstone and timers, applied by tick() within the configured budget.
+    private final DoorQueue queue = new DoorQueue();
+    private final Consumer<DoorRegistry.Entry> applyQueued = this::applyQueued;
+    private final Consumer<DoorRegistry.Entry> applyOpen = this::applyOpen;
+    private final Consumer<DoorRegistry.Entry> applyClose = this::applyClose;
+
+    // Runs tasks on the main thread, or on the thread owning a region.  Created when the plugin is enabled.
+    private DoorScheduler scheduler;
+
+    // Storage of opened doors, used to close them after a crash.  null if persistence is disabled.
+    private DoorStorage storage;
+
+    // Door and trapdoor positions in loaded chunks, so BlockListener can skip placements far from any door.
+    private final DoorPositionIndex doorPositions = new DoorPositionIndex();
 
-    // If whitelist is defined (that is, whitelist != null), then only Blocks that have a Material type found within
-    // whitelist can be used to create SecretOpenable objects.
-    private Set<Material> whitelist;
+    // Passage blocks of the doors opened in the world, kept safe from explosions, pistons and liquids.
+    private final PassageIndex passages = new PassageIndex();
 
-    // Map from SecretOpenable keys (i.e. Blocks) to currently opened SecretOpenable objects.
-    private Map<Block, SecretOpenable> doors = new HashMap<>();
+    // Doors registered with /sd register, resolved by position on click.
+    private final DoorDefinitions definitions = new DoorDefinitions();
 
-    // Map of SecretOpenable keys (i.e. Blocks) to tasks for automatically closing them.
-    private Map<Block, BukkitRunnable> doorTasks;
+    // Opened GhostDoors by viewer, checked when players move.
+    private final GhostPassages ghostPassages = new GhostPassages();
 
-    // Represents the time in seconds in which SecretOpenable objects will automatically close.  This value cannot
-    // be negative.
-    private int closeTime;
+    // Results of the use/create permission checks of the event handlers.
+    private final PermissionCache permissions = new PermissionCache();
+
+    // Handler latencies and door counts, shown by /sd stats and exported over JMX.
+    private final Metrics metrics = new Metrics();
+    private final SecretDoorsCommand command = new SecretDoorsCommand(this);
+
+    public SecretDoors() {
+        super();
+    }
+
+    // Creates the plugin outside of a plugin class loader, for the benchmarks' fake server.
+    protected SecretDoors(JavaPluginLoader loader, PluginDescriptionFile description, File dataFolder, File file) {
+        super(loader, description, dataFolder, file);
+    }
 
     @Override
     public void onDisable() {
-        // closeDoor modifies the set - could have problems with iteration if it is modified in place.
-        // Creating a copy will ensure we close every element properly.
-        Set<Block> keySet = new HashSet<>(this.doors.keySet());
-        keySet.forEach(this::closeDoor);
-        if (doorTasks != null)
-            doorTasks.entrySet().forEach((e) -> e.getValue().cancel());
+        closeDoorsOnDisable();
+        synchronized (stateLock) {
+            closeTimers.clear();
+            queue.clear();
+        }
+        doorPositions.clear();
+        passages.clear();
+        if (scheduler != null)
+            scheduler.cancelAll();
+
+        if (storage != null) {
+            storage.close();
+            storage = null;
+        }
+        metrics.unregister(getLogger());
+    }
+
+    // Closes every opened door right away, as no task can run once the plugin is disabled.  On region threaded
+    // servers doors in regions the disabling thread doesn't own can't be touched: their stored records are kept, and
+    // they are closed when their chunks load on the next start.
+    private void closeDoorsOnDisable() {
+        int left = 0;
+        // A copy, as forget modifies the registry.
+        for (DoorRegistry.Entry entry : doors.getAll()) {
+            synchronized (stateLock) {
+                if (!forget(entry))
+                    continue;
+            }
+            // Opening it was still queued - nothing changed in the world.
+            if (!entry.opened)
+                continue;
+            if (entry.getDoor().changesWorld() && scheduler != null && !scheduler.isOwnedByCurrentThread(
+                    entry.getDoor().getKey().getWorld(), BlockKeys.unpackX(entry.getKey()) >> 4,
+                    BlockKeys.unpackZ(entry.getKey()) >> 4)) {
+                left++;
+                continue;
+            }
+            close(entry.getDoor());
+            recordClosed(entry);
+        }
+        if (left > 0)
+            getLogger().warning(left + " open secret door(s) in regions owned by other threads "
+                    + (storage != null ? "will be closed on the next start" : "are left open (persist-open-doors is off)"));
     }
 
     @Override
     public void onEnable() {
+        scheduler = DoorScheduler.create(this);
+        if (scheduler.isRegionThreaded())
+            getLogger().info("Running on a region threaded server");
+
         // listeners
         getServer().getPluginManager().registerEvents(new PlayerListener(this), this);
         getServer().getPluginManager().registerEvents(new PowerListener(this), this);
         getServer().getPluginManager().registerEvents(new BlockListener(this), this);
+        getServer().getPluginManager().registerEvents(new WorldListener(this), this);
+        getServer().getPluginManager().registerEvents(new ProtectionListener(this), this);
+
+        // config - written once if missing, missing keys fall back to the defaults in the jar.
+        saveDefaultConfig();
+        applySettings(SecretDoorsSettings.load(getConfig(), getLogger()));
 
-        // config
-        getConfig().options().copyDefaults(true);
-        saveConfig();
-        loadConfig();
+        if (settings.isPersistenceEnabled())
+            openStorage();
+        definitions.load(new File(getDataFolder(), DEFINITIONS_FILE), getLogger());
+        metrics.register(getLogger());
+
+        scheduler.runGlobalTimer(this::tick, 1L, 1L);
     }
 
-    // Handling loading (and re-loading) of the config objects into memory.
-    // This consists of determining if the whitelist/blacklist are in use and loads them into memory.
-    // Also handles the auto close options and timer.
-    private void loadConfig() {
+    // Runs once per server tick, on the main thread or the global region thread.  Queued operations of doors in
+    // other regions are handed over to their threads.
+    private void tick() {
+        long start = metrics.start();
+        SecretDoorsSettings settings = this.settings;
+        synchronized (stateLock) {
+            closeTimers.advance(autoClose);
+            currentTick = closeTimers.getTick();
+            queue.drain(settings.getMaxOpsPerTick(), settings.getMaxNanosPerTick(), applyQueued);
+        }
+        metrics.stop(Metrics.Timer.TICK, start);
+        metrics.sample(doors.size(), closeTimers.size(), queue.size());
+    }
 
-        this.closeTime = getConfig().getInt(CONFIG_CLOSE_TIME);
-        if (this.closeTime < 0) this.closeTime = 0;
+    // Opens the storage of opened doors.  Doors left open by a crash are closed as their chunks load.
+    private void openStorage() {
+        String name = settings.getStorageType() == DoorStorage.Type.SQLITE ? DATABASE_FILE : JOURNAL_FILE;
+        DoorStorage storage = settings.getStorageType() == DoorStorage.Type.SQLITE
+                ? new SqliteDoorStorage(new File(getDataFolder(), name), getLogger())
+                : new DoorJournal(new File(getDataFolder(), name), getLogger());
+        try {
+            storage.open();
+        } catch (IOException e) {
+            getLogger().log(Level.SEVERE, "Could not open " + name + " - opened doors will not survive a crash", e);
+            return;
+        }
+        this.storage = storage;
 
-        blacklist = new HashSet<>();
-        blacklist.addAll(getConfig().getStringList("blacklist").stream().map(Material::getMaterial).collect(Collectors.toSet()));
+        // Chunks loaded before the plugin was enabled (e.g. when enabled by a plugin manager) fired no ChunkLoadEvent.
+        scheduler.runGlobal(() -> getServer().getWorlds().forEach(
+                (w) -> Arrays.stream(w.getLoadedChunks()).forEach(this::restoreDoorsInChunk)));
+    }
+
+    /**
+     * Closes the doors in the received loaded chunk that were still open when the server stopped, using their
+     * stored records.  The records are looked up off the main thread, and closed on the thread owning the chunk.
+     * Doors in chunks that never load stay in the storage.
+     */
+    public void restoreDoorsInChunk(Chunk chunk) {
+        DoorStorage storage = this.storage;
+        if (storage == null)
+            return;
+        World world = chunk.getWorld();
+        int chunkX = chunk.getX(), chunkZ = chunk.getZ();
+        storage.loadLeftOpen(world.getUID(), chunkX, chunkZ, (records) -> {
+            if (!isEnabled())
+                return;
+            getLogger().fine("Closing " + records.size() + " secret door(s) left open by the last shutdown in chunk "
+                    + chunkX + ", " + chunkZ + " of " + world.getName());
+            scheduler.runAt(world, chunkX, chunkZ, () -> records.forEach((r) -> restoreDoor(world, r)));
+        });
+    }
 
-        // can just use if whitelist != null
-        // kind of ugly, but whatever
-        if (getConfig().getBoolean(CONFIG_ENABLE_WHITELIST)) {
-            whitelist = new HashSet<>();
-            whitelist.addAll(getConfig().getStringList("whitelist").stream().map(Material::getMaterial).collect(Collectors.toSet()));
-        } else { // fix for my stupid hack to use the whitelist
-            whitelist = null;
+    private void restoreDoor(World world, DoorRecord record) {
+        try {
+            record.restore(world);
+        } catch (IllegalArgumentException e) {
+            getLogger().log(Level.WARNING, "Could not restore secret door at " + BlockKeys.unpackX(record.getKey()) + ","
+                    + BlockKeys.unpackY(record.getKey()) + "," + BlockKeys.unpackZ(record.getKey()), e);
         }
+        DoorStorage storage = this.storage;
+        if (storage != null)
+            storage.recordClose(record.getWorld(), record.getKey());
+    }
 
-        if (getConfig().getBoolean(CONFIG_ENABLE_TIMERS))
-            doorTasks = new HashMap<>();
-        else {
-            // For updated config, if we had timers enabled before, cancel all running timers and null them out.
-            if (doorTasks != null)
-                doorTasks.entrySet().forEach((e) -> e.getValue().cancel());
-            doorTasks = null;
+    // Swaps in parsed settings at once, carrying the auto close timers of open doors over to them.  Called on the
+    // main thread (the global region thread on Folia).
+    private void applySettings(SecretDoorsSettings loaded) {
+        SecretDoorsSettings previous = this.settings;
+        synchronized (stateLock) {
+            migrateTimers(previous, loaded);
+            this.settings = loaded;
         }
+        metrics.setEnabled(loaded.isMetricsEnabled());
+        // Also drops every cached decision, so a reload picks up changed permissions at once.
+        permissions.setTtl(20L * loaded.getPermissionCacheSeconds());
+
+        // Chunks loaded while the index was off were never scanned.  On region threaded servers chunks can only be
+        // read by the threads owning them, so those are indexed when they load again - until then they are unknown,
+        // which is always safe.
+        if (!loaded.isDoorIndexEnabled())
+            doorPositions.clear();
+        else if (previous != null && !previous.isDoorIndexEnabled() && !scheduler.isRegionThreaded())
+            getServer().getWorlds().forEach((w) -> Arrays.stream(w.getLoadedChunks()).forEach(this::indexChunk));
     }
 
-    // Currently there is only one command to be run - `sd reload`
-    // If in the future there is need for more complicated commands (closing all doors, etc.) we should
-    // break this out into a separate class.
-    @Override
-    public boolean onCommand(CommandSender sender, Command cmd, String label, String[] args) {
-        if (args.length != 1)
-            return false;
+    // Moves the auto close timer of every open door to the received settings' close time, counted from when its
+    // countdown started.  Doors opened while timers were disabled get a timer, and timers delayed by closeDoorLater
+    // are left as they are.  Called with stateLock held.
+    private void migrateTimers(SecretDoorsSettings previous, SecretDoorsSettings loaded) {
+        if (!loaded.isTimersEnabled()) {
+            closeTimers.clear();
+            doors.forEach((e) -> e.timer = null);
+            return;
+        }
+        boolean wasEnabled = previous != null && previous.isTimersEnabled();
+        long oldTicks = 20L * (previous != null ? previous.getCloseTime() : 0);
+        long newTicks = 20L * loaded.getCloseTime();
+        if (wasEnabled && oldTicks == newTicks)
+            return;
+        long now = closeTimers.getTick();
+        doors.forEach((e) -> {
+            if (e.pending == DoorQueue.CLOSE)
+                return;
+            if (e.timer == null) {
+                // Without timers only doors opened before they were enabled have none.
+                if (!wasEnabled)
+                    e.timer = closeTimers.schedule(e, Math.max(1, e.timerStart + newTicks - now));
+            } else if (e.timer.getDeadline() == e.timerStart + oldTicks) {
+                closeTimers.reschedule(e.timer, Math.max(1, e.timerStart + newTicks - now));
+            }
+        });
+    }
 
-        if (cmd.getName().equalsIgnoreCase("secretdoors")) {
-            if (args[0].equalsIgnoreCase("reload")) {
-                if (getConfig().getBoolean(CONFIG_PERMISSIONS_ENABLED)) {
-                    if (!sender.hasPermission("secretdoors.reload")) {
-                        return false;
-                    }
-                }
-                reloadConfig();
-                loadConfig();
-
-                sender.sendMessage(ChatColor.RED + "Secret Doors config reloaded");
-                return true;
+    /**
+     * Reloads config.yml: it is read and checked off the main thread, then the changed settings are applied at once on
+     * the main thread (the global region thread on Folia).  Open doors keep their auto close deadlines, moved to the
+     * new close time.  An invalid config.yml is not applied.
+     * @param done Receives a summary of the changes and of how long the main thread was paused, once applied.
+     */
+    public void reload(Consumer<String> done) {
+        File file = new File(getDataFolder(), "config.yml");
+        scheduler.runAsync(() -> {
+            YamlConfiguration config = new YamlConfiguration();
+            try {
+                config.load(file);
+            } catch (IOException | InvalidConfigurationException e) {
+                getLogger().log(Level.WARNING, "Could not reload config.yml - keeping the current settings", e);
+                scheduler.runGlobal(() -> done.accept("config.yml is invalid, keeping the current settings: "
+                        + e.getMessage()));
+                return;
             }
-        }
-        return false;
+            InputStream defaults = getResource("config.yml");
+            if (defaults != null)
+                config.setDefaults(YamlConfiguration.loadConfiguration(new InputStreamReader(defaults, StandardCharsets.UTF_8)));
+            SecretDoorsSettings loaded = SecretDoorsSettings.load(config, getLogger());
+
+            scheduler.runGlobal(() -> {
+                if (!isEnabled())
+                    return;
+                List<String> changed = loaded.diff(this.settings);
+                long start = System.nanoTime();
+                long timed = metrics.start();
+                applySettings(loaded);
+                metrics.stop(Metrics.Timer.RELOAD, timed);
+                long paused = System.nanoTime() - start;
+                getLogger().info("Reloaded config.yml in " + paused / 1000 + "µs on the main thread, changed: "
+                        + (changed.isEmpty() ? "nothing" : String.join(", ", changed)));
+                done.accept((changed.isEmpty() ? "nothing changed" : "changed " + String.join(", ", changed))
+                        + " (main thread paused " + String.format("%.2f", paused / 1e6) + "ms)");
+            });
+        });
+    }
+
+    /**
+     * @return the number of ticks since this plugin was enabled.
+     */
+    public long getCurrentTick() {
+        return currentTick;
+    }
+
+    /**
+     * @return the plugin's counters and latency histograms.
+     */
+    public Metrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * @return the currently loaded settings.  The returned object is immutable; a new instance is created whenever
+     *         the config is reloaded.
+     */
+    public SecretDoorsSettings getSettings() {
+        return settings;
+    }
+
+    @Override
+    public boolean onCommand(CommandSender sender, Command cmd, String label, String[] args) {
+        return command.onCommand(sender, cmd, label, args);
     }
 
     /**
-     * Adds the received SecretOpenable instance to this.
-     * If timers are enabled (i.e. getConfig().getBoolean(CONFIG_ENABLE_TIMERS) == true), then a task is created to
+     * Opens the received SecretOpenable and adds it to this.
+     * If timers are enabled (i.e. getSettings().isTimersEnabled() == true), then a timer is created to
      * close {@code door} based on the configured duration.
-     * @param door SecretOpenable to be added to this.
+     * @param door SecretOpenable to be opened.
      * @return returns door.
      */
-    public SecretOpenable addDoor(SecretOpenable door) {
-        this.doors.put(door.getKey(), door);
-
-        // add a task to close the door after the time
-        if (getConfig().getBoolean(CONFIG_ENABLE_TIMERS)) {
-            BukkitRunnable task = new BukkitRunnable() {
-                @Override
-                public void run() {
-                    closeDoorAuto(door.getKey());
-                }
-            };
-            task.runTaskLater(this, 20 * this.closeTime);
-            doorTasks.put(door.getKey(), task);
+    public SecretOpenable openDoor(SecretOpenable door) {
+        open(door);
+        DoorRegistry.Entry entry;
+        synchronized (stateLock) {
+            entry = register(door);
         }
-
+        entry.opened = true;
+        recordOpened(entry);
         return door;
     }
 
+    /**
+     * Adds the received SecretOpenable to this and queues opening it, see {@link #openDoor(SecretOpenable)}.
+     * Used where many doors may be opened in the same tick (redstone), the queue is applied within the configured
+     * per-tick budget.
+     * @param door SecretOpenable to be opened.
+     */
+    public void queueOpenDoor(SecretOpenable door) {
+        synchronized (stateLock) {
+            queue.add(register(door), DoorQueue.OPEN);
+        }
+    }
+
+    // Adds the received door to the registry and starts its auto close timer.  Called with stateLock held.
+    private DoorRegistry.Entry register(SecretOpenable door) {
+        DoorRegistry.Entry previous = this.doors.get(door.getKey());
+        if (previous != null)
+            forget(previous);
+        DoorRegistry.Entry entry = this.doors.add(door);
+
+        // add a timer to close the door after the time
+        SecretDoorsSettings settings = this.settings;
+        entry.timerStart = closeTimers.getTick();
+        if (settings.isTimersEnabled()) {
+            entry.timer = closeTimers.schedule(entry, 20L * settings.getCloseTime());
+        }
+        return entry;
+    }
 
     /**
-     * Returns true if the received block's Material type is considered to be valid.
-     * A Material type, m, is considered valid if:
-     *  - m is not an "attachable" (see
-     *  - whitelist is enabled for this instance and m is an element of the whitelist
-     *  - whitelist is not enabled and m is not an element of the blacklist
-     * @param block Block to be checked for validity
+     * Creates the SecretDoor a player opens: a {@link GhostDoor} seen by the player (and the players around it, if so
+     * configured) if ghost doors are enabled, otherwise a SecretDoor opened in the world.
+     * @param door The door block.
+     * @param other The concealing block in front of it (either half).
      */
-    public boolean isValidBlock(Block block) {
+    public SecretOpenable newSecretDoor(Player opener, Block door, Block other, SecretDoorHelper.Orientation orientation) {
+        return openedBy(opener, new SecretDoor(door, other, orientation, settings.shouldPreserveAttachments()));
+    }
 
-        if (block != null) {
+    /**
+     * Creates the SecretDoor of a registered door a player opens, see {@link #newSecretDoor}.  Only the blocks stored
+     * in the definition are read, unless a block event touched the door since it was last checked or the stored
+     * blocks are no longer what they were (changes no event reports, e.g. by world editors), in which case it is
+     * checked like any other door first.
+     * @return the door, or null if it cannot be opened (it is open already, or no longer a valid SecretDoor).
+     */
+    public SecretOpenable newRegisteredDoor(Player opener, DoorDefinitions.Definition definition, World world,
+                                            SecretDoorHelper.Orientation orientation) {
+        Block door = definition.getKeyBlock(world);
+        if (isSecretDoor(door))
+            return null;
+        boolean preserveAttachments = settings.shouldPreserveAttachments();
+        Block[] attached = definition.isDirty() ? null : definition.getAttachedBlocks(world);
+        if (attached == null || !isIntact(definition, door, attached)) {
+            if (!canBeSecretDoor(door) || SecretDoorHelper.getDoorFace(door) != definition.getFace())
+                return null;
+            SecretDoor checked = new SecretDoor(door, door.getRelative(definition.getFace()), orientation, true);
+            definitions.validated(definition, checked.getAttachments().getBlocks());
+            return openedBy(opener, preserveAttachments ? checked
+                    : new SecretDoor(door, door.getRelative(definition.getFace()), orientation, false));
+        }
+        Block bottom = door.getRelative(definition.getFace());
+        return openedBy(opener, new SecretDoor(door, bottom.getRelative(BlockFace.UP), bottom, attached, orientation,
+                preserveAttachments));
+    }
 
-            if (SecretDoorHelper.isAttachableItem(block.getType())) {
+    // Returns true if the blocks stored in the definition still are a closed door facing the same way, its concealing
+    // blocks and their attachments.
+    private boolean isIntact(DoorDefinitions.Definition definition, Block door, Block[] attached) {
+        if (!SecretDoorHelper.isValidDoor(door.getType()) || !(door.getBlockData() instanceof Door data)
+                || data.isOpen() || data.getHalf() != Bisected.Half.BOTTOM
+                || SecretDoorHelper.getDoorFace(door) != definition.getFace())
+            return false;
+        Block bottom = door.getRelative(definition.getFace());
+        if (!isValidBlock(bottom) || !isValidBlock(bottom.getRelative(BlockFace.UP)))
+            return false;
+        for (Block b : attached) {
+            if (!SecretDoorHelper.isAttachableItem(b.getType()))
                 return false;
-            }
+        }
+        return true;
+    }
 
-            // first check if we're using the whitelist
-            if (whitelist != null) {
-                return whitelist.contains(block.getType());
-            }
+    // Returns the received door, or a GhostDoor of it seen by the opener if ghost doors are enabled.
+    private SecretOpenable openedBy(Player opener, SecretDoor door) {
+        SecretDoorsSettings settings = this.settings;
+        if (!settings.isGhostDoorsEnabled())
+            return door;
 
-            // now check for the blacklist
-            return !blacklist.contains(block.getType());
+        Block key = door.getKey();
+        List<Player> viewers = new ArrayList<>();
+        viewers.add(opener);
+        int radius = settings.getGhostAudienceRadius();
+        if (radius > 0) {
+            Location centre = key.getLocation();
+            for (Player player : key.getWorld().getPlayers()) {
+                if (player != opener && player.getLocation().distanceSquared(centre) <= (double) radius * radius)
+                    viewers.add(player);
+            }
         }
+        return new GhostDoor(door, viewers.toArray(new Player[0]), ghostPassages);
+    }
 
-        return false;
+    /**
+     * @return true if the received block is part of the passage of a door opened in the world (see
+     *         {@link SecretOpenable#getPassageBlocks()}) and open doors are protected.  Doesn't allocate.
+     */
+    public boolean isProtectedPassage(Block block) {
+        return passages.size() != 0 && settings.isOpenDoorsProtected() && passages.contains(block);
+    }
+
+    /**
+     * @return the definition of the registered door the received block is part of, or null if it is not.
+     */
+    public DoorDefinitions.Definition getDoorDefinition(Block block) {
+        return definitions.get(block);
+    }
+
+    /**
+     * Marks the registered door that may be affected by a change of the received block to be checked again on its
+     * next click.
+     */
+    public void touchDoorDefinition(Block block) {
+        definitions.touch(block);
+    }
+
+    /**
+     * Registers the received door (either half), which must be able to be a SecretDoor, and saves every registered
+     * door.
+     * @return false if the door cannot be a SecretDoor.
+     */
+    public boolean registerDoor(Block door) {
+        if (!canBeSecretDoor(door))
+            return false;
+        Block key = SecretDoorHelper.getKeyFromBlock(door);
+        BlockFace face = SecretDoorHelper.getDoorFace(key);
+        SecretDoor secretDoor = new SecretDoor(key, key.getRelative(face), SecretDoorHelper.Orientation.DOOR_FIRST, true);
+        definitions.add(key, face, secretDoor.getAttachments().getBlocks());
+        definitions.save(new File(getDataFolder(), DEFINITIONS_FILE), getLogger());
+        return true;
+    }
+
+    /**
+     * Removes the registered door the received block is part of and saves every registered door.
+     * @return false if the block is not part of a registered door.
+     */
+    public boolean unregisterDoor(Block block) {
+        if (definitions.remove(block) == null)
+            return false;
+        definitions.save(new File(getDataFolder(), DEFINITIONS_FILE), getLogger());
+        return true;
+    }
+
+    /**
+     * @return true if the received key block is the key of an opened {@link GhostDoor}.
+     */
+    public boolean isGhostDoor(Block key) {
+        DoorRegistry.Entry entry = this.doors.get(key);
+        return entry != null && entry.getDoor() instanceof GhostDoor;
+    }
+
+    /**
+     * @return the opened GhostDoors by viewer.
+     */
+    public GhostPassages getGhostPassages() {
+        return ghostPassages;
+    }
+
+    /**
+     * @return true if the received player may open and close SecretOpenables, or permissions are disabled.
+     */
+    public boolean canUse(Player player) {
+        return !settings.isPermissionsEnabled()
+                || permissions.hasPermission(player, PermissionCache.USE, getCurrentTick());
+    }
+
+    /**
+     * @return true if the received player may create SecretOpenables, or permissions are disabled.
+     */
+    public boolean canCreate(Player player) {
+        return !settings.isPermissionsEnabled()
+                || permissions.hasPermission(player, PermissionCache.CREATE, getCurrentTick());
+    }
+
+    /**
+     * Drops the cached permission decisions of the received player, e.g. because they changed worlds.
+     */
+    public void invalidatePermissions(Player player) {
+        permissions.invalidate(player);
+    }
+
+    /**
+     * Returns true if the received block's Material type is considered to be valid.
+     * A Material type, m, is considered valid if:
+     *  - m is not an "attachable" (see {@link SecretDoorHelper#isAttachableItem(Material)})
+     *  - whitelist is enabled for this instance and m is an element of the whitelist
+     *  - whitelist is not enabled and m is not an element of the blacklist
+     * The checks are precomputed by {@link SecretDoorsSettings} so this is a single bit test.
+     * @param block Block to be checked for validity
+     */
+    public boolean isValidBlock(Block block) {
+        return block != null && settings.isAllowedMaterial(block.getType());
     }
 
     /**
      * @return true if attached blocks (signs, torches, etc.) should be preserved when doors open/close.
      */
     public boolean shouldPreserveAttachments() {
-        return getConfig().getBoolean(CONFIG_PRESERVE_ATTACHMENTS, true);
+        return settings.shouldPreserveAttachments();
     }
 
     /**
@@ -208,11 +644,14 @@ public class SecretDoors extends JavaPlugin {
      * - door has Material type WOODEN_DOOR
      * - the two blocks directly in front of the door are considered valid blocks
      * - the door is closed
+     * - the door is not an opened SecretOpenable already (ghost doors leave it closed in the world)
      */
     public boolean canBeSecretDoor(Block door) {
         if (!SecretDoorHelper.isValidDoor(door))
             return false;
         door = SecretDoorHelper.getKeyFromBlock(door);
+        if (isSecretDoor(door))
+            return false;
         // If the door is already opened, return false.
         if (((Door) door.getBlockData()).isOpen())
             return false;
@@ -255,11 +694,83 @@ public class SecretDoors extends JavaPlugin {
 
     }
 
+    /**
+     * Scans the received loaded chunk for doors and trapdoors off the main thread.  Until the scan is done
+     * {@link #mayBeNearDoor(Block)} returns true for every block in it.
+     */
+    public void indexChunk(Chunk chunk) {
+        if (!settings.isDoorIndexEnabled())
+            return;
+        World world = chunk.getWorld();
+        UUID uid = world.getUID();
+        int minY = world.getMinHeight();
+        int maxY = world.getMaxHeight();
+        DoorPositionIndex.ChunkPositions positions = doorPositions.beginScan(uid, chunk.getX(), chunk.getZ());
+        ChunkSnapshot snapshot = chunk.getChunkSnapshot(false, false, false);
+        scheduler.runAsync(() -> {
+            long[] found = DoorPositionIndex.scan(snapshot, minY, maxY);
+            if (isEnabled())
+                scheduler.runGlobal(() -> doorPositions.finishScan(uid, positions, found));
+        });
+    }
+
+    /**
+     * Drops the index of an unloaded chunk.
+     */
+    public void unindexChunk(World world, int chunkX, int chunkZ) {
+        doorPositions.unloadChunk(world.getUID(), chunkX, chunkZ);
+    }
+
+    /**
+     * Drops the index of every chunk of an unloaded world.
+     */
+    public void unindexWorld(World world) {
+        doorPositions.unloadWorld(world.getUID());
+    }
+
+    /**
+     * Adds a placed door (both halves) or trapdoor to the index.
+     */
+    public void indexDoorBlock(Block block) {
+        UUID uid = block.getWorld().getUID();
+        doorPositions.add(uid, block.getX(), block.getY(), block.getZ());
+        if (SecretDoorHelper.isValidDoor(block))
+            doorPositions.add(uid, block.getX(), block.getY() + 1, block.getZ());
+    }
+
+    /**
+     * Removes a door (both halves) or trapdoor that is being broken from the index.
+     */
+    public void unindexDoorBlock(Block block) {
+        UUID uid = block.getWorld().getUID();
+        doorPositions.remove(uid, block.getX(), block.getY(), block.getZ());
+        if (SecretDoorHelper.isValidDoor(block)) {
+            int other = SecretDoorHelper.isTopHalf(block) ? -1 : 1;
+            doorPositions.remove(uid, block.getX(), block.getY() + other, block.getZ());
+        }
+    }
+
+    /**
+     * @return false if neither the received block, the block below it nor its horizontal neighbours are a door or
+     *         trapdoor, as far as the index knows.  Always true if the index is disabled or the chunk was not scanned.
+     */
+    public boolean mayBeNearDoor(Block block) {
+        return !settings.isDoorIndexEnabled()
+                || doorPositions.mayBeNearDoor(block.getWorld().getUID(), block.getX(), block.getY(), block.getZ());
+    }
+
     /**
      * @return true if the received Block, door, is an opened SecretOpenable.
      */
     public boolean isSecretDoor(Block door) {
-        return this.doors.containsKey(door);
+        return door != null && this.doors.get(door) != null;
+    }
+
+    /**
+     * @return true if the block at the received position is the key of an opened SecretOpenable.
+     */
+    public boolean isSecretDoor(World world, int x, int y, int z) {
+        return this.doors.get(world, x, y, z) != null;
     }
 
     /**
@@ -272,44 +783,246 @@ public class SecretDoors extends JavaPlugin {
             System.out.println("closeDoor() called for " + door.getLocation());
             System.out.println("  isSecretDoor=" + isSecretDoor(door));
         }
-        if (isSecretDoor(door)) {
+        DoorRegistry.Entry entry = this.doors.get(door);
+        if (entry != null)
+            closeDoor(entry);
+    }
 
-            SecretOpenable secretDoor = this.doors.remove(door);
-            Block key = secretDoor.getKey();
-            if (DEBUG) {
-                System.out.println("  Calling close() on SecretDoor");
+    /**
+     * Closes every opened SecretOpenable that has blocks in the received chunk.
+     * @return the number of closed doors.
+     */
+    public int closeDoorsInChunk(World world, int chunkX, int chunkZ) {
+        DoorRegistry.Entry[] entries = this.doors.getChunk(world.getUID(), chunkX, chunkZ);
+        for (DoorRegistry.Entry entry : entries) {
+            closeDoor(entry);
+        }
+        return entries.length;
+    }
+
+    /**
+     * Closes every opened SecretOpenable in the received world.
+     * @return the number of closed doors.
+     */
+    public int closeDoorsInWorld(World world) {
+        List<DoorRegistry.Entry> entries = this.doors.getWorld(world.getUID());
+        entries.forEach(this::closeDoor);
+        return entries.size();
+    }
+
+    /**
+     * If the received Block, door, represents an opened SecretOpenable, then closing it is queued.  The door
+     * stays registered until the close is applied, see {@link #queueOpenDoor(SecretOpenable)}.
+     * @param door The key block to be closed.
+     */
+    public void queueCloseDoor(Block door) {
+        synchronized (stateLock) {
+            DoorRegistry.Entry entry = this.doors.get(door);
+            if (entry != null)
+                queueClose(entry);
+        }
+    }
+
+    /**
+     * Queues closing every opened SecretOpenable, or every one in the received world if it is not null.  The doors
+     * are closed within the configured per-tick budget, so closing thousands of them doesn't stall the server.
+     * @return the number of doors that were not already being closed.
+     */
+    public int queueCloseAll(World world) {
+        return queueClose(world == null ? this.doors.getAll() : this.doors.getWorld(world.getUID()));
+    }
+
+    /**
+     * Queues closing every opened SecretOpenable with its key block within {@code radius} blocks of {@code center},
+     * measured horizontally, see {@link #queueCloseAll(World)}.
+     * @return the number of doors that were not already being closed.
+     */
+    public int queueCloseNear(Block center, int radius) {
+        return queueClose(this.doors.getNear(center.getWorld().getUID(), center.getX(), center.getZ(), radius));
+    }
+
+    private int queueClose(List<DoorRegistry.Entry> entries) {
+        int queued = 0;
+        synchronized (stateLock) {
+            for (DoorRegistry.Entry entry : entries) {
+                // Skip doors closed since the lookup, and doors already waiting to be closed.
+                if (this.doors.get(entry.getWorld(), entry.getKey()) != entry || entry.pending == DoorQueue.CLOSE)
+                    continue;
+                queueClose(entry);
+                queued++;
             }
-            secretDoor.close();
-            // remove and cancel the auto-task if the user manually closed the door
-            if (getConfig().getBoolean(CONFIG_ENABLE_TIMERS)) {
-                BukkitRunnable task = doorTasks.remove(key);
-                if (task != null) {
-                    task.cancel();
-                    if (DEBUG) {
-                        System.out.println("  Cancelled auto-close timer");
-                    }
-                }
+        }
+        return queued;
+    }
+
+    /**
+     * @return a copy of the entries of every opened SecretOpenable, in no particular order.
+     */
+    public List<DoorRegistry.Entry> getOpenDoors() {
+        return this.doors.getAll();
+    }
+
+    /**
+     * Keeps the opened SecretOpenable with the received key block open if closing it is still queued.
+     * @return true if {@code door} is an opened SecretOpenable.
+     */
+    public boolean keepOpen(Block door) {
+        synchronized (stateLock) {
+            DoorRegistry.Entry entry = this.doors.get(door);
+            if (entry == null)
+                return false;
+            if (entry.pending == DoorQueue.CLOSE)
+                queue.cancel(entry);
+            // Restart the auto close timer, which also drops a close delayed by closeDoorLater.
+            if (entry.timer != null) {
+                closeTimers.cancel(entry.timer);
+                entry.timer = null;
             }
+            SecretDoorsSettings settings = this.settings;
+            entry.timerStart = closeTimers.getTick();
+            if (settings.isTimersEnabled())
+                entry.timer = closeTimers.schedule(entry, 20L * settings.getCloseTime());
+            return true;
+        }
+    }
+
+    /**
+     * Queues closing the opened SecretOpenable with the received key block in {@code ticks} ticks, replacing its
+     * auto close timer.  Does nothing if closing it is already queued.
+     */
+    public void closeDoorLater(Block door, long ticks) {
+        synchronized (stateLock) {
+            DoorRegistry.Entry entry = this.doors.get(door);
+            if (entry == null || entry.pending == DoorQueue.CLOSE)
+                return;
+            if (entry.timer != null)
+                closeTimers.reschedule(entry.timer, ticks);
+            else
+                entry.timer = closeTimers.schedule(entry, ticks);
         }
     }
 
+    // Removes the received entry from the registry and closes its door, on the thread owning its region.
+    private void closeDoor(DoorRegistry.Entry entry) {
+        synchronized (stateLock) {
+            if (!forget(entry))
+                return;
+        }
+        runAt(entry, applyClose);
+    }
+
+    // Called with stateLock held.
+    private void queueClose(DoorRegistry.Entry entry) {
+        if (entry.pending == DoorQueue.OPEN) {
+            // Closed before it was opened - nothing to do in the world.
+            forget(entry);
+            return;
+        }
+        if (entry.timer != null) {
+            closeTimers.cancel(entry.timer);
+            entry.timer = null;
+        }
+        queue.add(entry, DoorQueue.CLOSE);
+    }
+
+    // Removes the received entry from the registry and drops its queued operation and auto-close timer.
+    // Returns false if the entry was not registered.  Called with stateLock held.
+    private boolean forget(DoorRegistry.Entry entry) {
+        if (!this.doors.remove(entry))
+            return false;
+        queue.cancel(entry);
+        // remove and cancel the auto-close timer if the user manually closed the door
+        if (entry.timer != null) {
+            closeTimers.cancel(entry.timer);
+            entry.timer = null;
+        }
+        return true;
+    }
+
     // Helper for timed closing of doors.
     // "Programmatically" closes the door without a player click.
-    private void closeDoorAuto(Block door) {
+    private void closeDoorAuto(DoorRegistry.Entry entry) {
         if (DEBUG) {
-            System.out.println("closeDoorAuto() called for " + door.getLocation());
-            System.out.println("  isSecretDoor=" + isSecretDoor(door));
+            System.out.println("closeDoorAuto() called for " + entry.getDoor().getKey().getLocation());
         }
-        if (isSecretDoor(door)) {
+        // The timer has already fired, the handle is only dropped here.
+        entry.timer = null;
+        queueClose(entry);
+    }
 
-            SecretOpenable secretDoor = this.doors.remove(door);
-            Block key = secretDoor.getKey();
-            if (DEBUG) {
-                System.out.println("  Calling close() on SecretDoor (auto)");
-            }
-            secretDoor.close();
-            doorTasks.remove(key);
+    // Applies the queued operation of the received entry.  Called with stateLock held.
+    private void applyQueued(DoorRegistry.Entry entry) {
+        if (entry.pending == DoorQueue.OPEN)
+            runAt(entry, applyOpen);
+        else if (this.doors.remove(entry))
+            runAt(entry, applyClose);
+    }
+
+    // Runs the received operation on the thread owning the key block of the entry's door: at once if that is the
+    // current thread (always the case on single threaded servers), otherwise as a task of that region.
+    private void runAt(DoorRegistry.Entry entry, Consumer<DoorRegistry.Entry> op) {
+        World world = entry.getDoor().getKey().getWorld();
+        int chunkX = BlockKeys.unpackX(entry.getKey()) >> 4;
+        int chunkZ = BlockKeys.unpackZ(entry.getKey()) >> 4;
+        if (scheduler.isOwnedByCurrentThread(world, chunkX, chunkZ))
+            op.accept(entry);
+        else
+            scheduler.runAt(world, chunkX, chunkZ, () -> op.accept(entry));
+    }
+
+    // Opens the door of a drained entry, unless it was closed or replaced while waiting for its region's thread.
+    private void applyOpen(DoorRegistry.Entry entry) {
+        if (this.doors.get(entry.getWorld(), entry.getKey()) != entry)
+            return;
+        open(entry.getDoor());
+        entry.opened = true;
+        recordOpened(entry);
+    }
+
+    // Closes the door of an entry removed from the registry.  A door whose open was still queued (or waiting for its
+    // region's thread) was never opened in the world, so there is nothing to close.
+    private void applyClose(DoorRegistry.Entry entry) {
+        if (!entry.opened)
+            return;
+        if (DEBUG) {
+            System.out.println("  Calling close() on SecretDoor");
         }
+        close(entry.getDoor());
+        recordClosed(entry);
+    }
+
+    // Every door is opened and closed through these two, so the metrics cover them all.
+    private void open(SecretOpenable door) {
+        long start = metrics.start();
+        door.open();
+        metrics.stop(Metrics.Timer.OPEN, start);
+    }
+
+    private void close(SecretOpenable door) {
+        long start = metrics.start();
+        door.close();
+        metrics.stop(Metrics.Timer.CLOSE, start);
+    }
+
+    private void recordOpened(DoorRegistry.Entry entry) {
+        boolean changesWorld = entry.getDoor().changesWorld();
+        if (changesWorld)
+            passages.add(entry.getDoor());
+        DoorStorage storage = this.storage;
+        if (storage == null)
+            return;
+        storage.recordUse(entry.getWorld(), entry.getKey());
+        if (changesWorld)
+            storage.recordOpen(entry.getDoor().toRecord());
+    }
+
+    private void recordClosed(DoorRegistry.Entry entry) {
+        if (!entry.getDoor().changesWorld())
+            return;
+        passages.remove(entry.getDoor());
+        DoorStorage storage = this.storage;
+        if (storage != null)
+            storage.recordClose(entry.getWorld(), entry.getKey());
     }
 
-}
\ No newline at end of file
+}
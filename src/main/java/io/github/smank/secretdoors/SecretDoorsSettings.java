@@ -0,0 +1,300 @@
+package io.github.smank.secretdoors;
+
+import io.github.smank.secretdoors.storage.DoorStorage;
+import org.bukkit.Material;
+import org.bukkit.configuration.ConfigurationSection;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.logging.Logger;
+
+/**
+ * Immutable, typed view of config.yml.
+ * A new instance is built by {@link SecretDoors} every time the config is (re)loaded and swapped in as a whole, so
+ * event handlers can read settings through plain field accesses instead of string-keyed YAML lookups.
+ */
+public final class SecretDoorsSettings {
+
+    private final boolean permissionsEnabled;
+    private final boolean redstoneEnabled;
+    private final boolean trapdoorsEnabled;
+    private final boolean timersEnabled;
+    private final boolean preserveAttachments;
+    private final boolean persistenceEnabled;
+    private final boolean metricsEnabled;
+    private final boolean doorIndexEnabled;
+    private final boolean ghostDoors;
+    private final boolean registeredDoorsOnly;
+    private final boolean openDoorsProtected;
+
+    // Where opened doors are persisted if persistence is enabled.
+    private final DoorStorage.Type storageType;
+
+    // Radius in blocks around a ghost door in which players see it opened besides the opener, 0 for the opener only.
+    private final int ghostAudienceRadius;
+
+    // Seconds a player's permission decisions are cached, 0 disables the cache.
+    private final int permissionCacheSeconds;
+
+    // Represents the time in seconds in which SecretOpenable objects will automatically close.  This value cannot
+    // be negative.
+    private final int closeTime;
+
+    // Budget for applying queued door operations (redstone, auto close) per tick.  Both are at least 1.
+    private final int maxOpsPerTick;
+    private final long maxNanosPerTick;
+
+    // Minimum number of ticks a door opened by redstone stays open, never negative.
+    private final int redstoneMinHoldTicks;
+
+    // Bitset indexed by Material ordinal of the materials that may be used as concealing blocks.  Built from the
+    // whitelist (if enabled) or the blacklist, excluding attachable items which can never conceal a door.
+    private final long[] allowed;
+
+    private SecretDoorsSettings(ConfigurationSection config, Logger logger) {
+        this.permissionsEnabled  = config.getBoolean(SecretDoors.CONFIG_PERMISSIONS_ENABLED);
+        this.redstoneEnabled     = config.getBoolean(SecretDoors.CONFIG_ENABLE_REDSTONE);
+        this.trapdoorsEnabled    = config.getBoolean(SecretDoors.CONFIG_ENABLE_TRAPDOORS);
+        this.timersEnabled       = config.getBoolean(SecretDoors.CONFIG_ENABLE_TIMERS);
+        this.preserveAttachments = config.getBoolean(SecretDoors.CONFIG_PRESERVE_ATTACHMENTS, true);
+        this.persistenceEnabled  = config.getBoolean(SecretDoors.CONFIG_PERSIST_DOORS, true);
+        this.metricsEnabled      = config.getBoolean(SecretDoors.CONFIG_METRICS_ENABLED, true);
+        this.doorIndexEnabled    = config.getBoolean(SecretDoors.CONFIG_INDEX_DOORS, true);
+        this.ghostDoors          = config.getBoolean(SecretDoors.CONFIG_GHOST_DOORS, false);
+        this.registeredDoorsOnly = config.getBoolean(SecretDoors.CONFIG_REGISTERED_ONLY, false);
+        this.openDoorsProtected  = config.getBoolean(SecretDoors.CONFIG_PROTECT_DOORS, true);
+        this.storageType         = readStorageType(config, logger);
+        this.ghostAudienceRadius = Math.max(0, config.getInt(SecretDoors.CONFIG_GHOST_AUDIENCE_RADIUS, 0));
+        this.permissionCacheSeconds = Math.max(0, config.getInt(SecretDoors.CONFIG_PERMISSION_CACHE, 5));
+        this.closeTime           = Math.max(0, config.getInt(SecretDoors.CONFIG_CLOSE_TIME));
+        this.maxOpsPerTick       = Math.max(1, config.getInt(SecretDoors.CONFIG_MAX_OPS_PER_TICK, 32));
+        this.maxNanosPerTick     = Math.max(1, config.getInt(SecretDoors.CONFIG_MAX_MILLIS_PER_TICK, 5)) * 1_000_000L;
+        this.redstoneMinHoldTicks = Math.max(0, config.getInt(SecretDoors.CONFIG_REDSTONE_MIN_HOLD, 0));
+
+        boolean whitelistEnabled = config.getBoolean(SecretDoors.CONFIG_ENABLE_WHITELIST);
+        Set<Material> blacklist = readMaterials(config, "blacklist", logger);
+        Set<Material> whitelist = readMaterials(config, "whitelist", logger);
+        Set<Material> listed = whitelistEnabled ? whitelist : blacklist;
+
+        Material[] materials = Material.values();
+        this.allowed = new long[(materials.length + 63) >>> 6];
+        for (Material m : materials) {
+            if (SecretDoorHelper.isAttachableItem(m))
+                continue;
+            // With the whitelist only listed materials are allowed, otherwise everything but the blacklist is.
+            if (listed.contains(m) == whitelistEnabled)
+                allowed[m.ordinal() >>> 6] |= 1L << m.ordinal();
+        }
+    }
+
+    // Reads a list of material names, reporting any that don't name a Material.
+    private static Set<Material> readMaterials(ConfigurationSection config, String path, Logger logger) {
+        Set<Material> materials = EnumSet.noneOf(Material.class);
+        for (String name : config.getStringList(path)) {
+            Material m = Material.getMaterial(name);
+            if (m == null) {
+                logger.warning("Unknown material '" + name + "' in " + path + " - ignoring it");
+            } else {
+                materials.add(m);
+            }
+        }
+        return materials;
+    }
+
+    private static DoorStorage.Type readStorageType(ConfigurationSection config, Logger logger) {
+        String name = config.getString(SecretDoors.CONFIG_STORAGE, "journal");
+        try {
+            return DoorStorage.Type.valueOf(name.toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            logger.warning("Unknown storage '" + name + "' - using the journal");
+            return DoorStorage.Type.JOURNAL;
+        }
+    }
+
+    /**
+     * Reads every setting out of {@code config} into a new immutable instance.
+     * @param config The loaded config.yml (including defaults).
+     * @param logger Logger used to report invalid entries.
+     * @return a snapshot of the received config.
+     */
+    public static SecretDoorsSettings load(ConfigurationSection config, Logger logger) {
+        return new SecretDoorsSettings(config, logger);
+    }
+
+    /**
+     * @param previous The settings these replace.
+     * @return the config keys whose values differ from {@code previous}, in config.yml order.  Changes to the
+     *         blacklist and whitelist are reported as the materials allowed to conceal doors.
+     */
+    public List<String> diff(SecretDoorsSettings previous) {
+        List<String> changed = new ArrayList<>();
+        addIf(changed, permissionsEnabled != previous.permissionsEnabled, SecretDoors.CONFIG_PERMISSIONS_ENABLED);
+        addIf(changed, redstoneEnabled != previous.redstoneEnabled, SecretDoors.CONFIG_ENABLE_REDSTONE);
+        addIf(changed, trapdoorsEnabled != previous.trapdoorsEnabled, SecretDoors.CONFIG_ENABLE_TRAPDOORS);
+        addIf(changed, timersEnabled != previous.timersEnabled, SecretDoors.CONFIG_ENABLE_TIMERS);
+        addIf(changed, !Arrays.equals(allowed, previous.allowed), "concealing blocks");
+        addIf(changed, closeTime != previous.closeTime, SecretDoors.CONFIG_CLOSE_TIME);
+        addIf(changed, preserveAttachments != previous.preserveAttachments, SecretDoors.CONFIG_PRESERVE_ATTACHMENTS);
+        addIf(changed, persistenceEnabled != previous.persistenceEnabled, SecretDoors.CONFIG_PERSIST_DOORS);
+        addIf(changed, storageType != previous.storageType, SecretDoors.CONFIG_STORAGE);
+        addIf(changed, maxOpsPerTick != previous.maxOpsPerTick, SecretDoors.CONFIG_MAX_OPS_PER_TICK);
+        addIf(changed, maxNanosPerTick != previous.maxNanosPerTick, SecretDoors.CONFIG_MAX_MILLIS_PER_TICK);
+        addIf(changed, redstoneMinHoldTicks != previous.redstoneMinHoldTicks, SecretDoors.CONFIG_REDSTONE_MIN_HOLD);
+        addIf(changed, metricsEnabled != previous.metricsEnabled, SecretDoors.CONFIG_METRICS_ENABLED);
+        addIf(changed, doorIndexEnabled != previous.doorIndexEnabled, SecretDoors.CONFIG_INDEX_DOORS);
+        addIf(changed, permissionCacheSeconds != previous.permissionCacheSeconds, SecretDoors.CONFIG_PERMISSION_CACHE);
+        addIf(changed, ghostDoors != previous.ghostDoors, SecretDoors.CONFIG_GHOST_DOORS);
+        addIf(changed, ghostAudienceRadius != previous.ghostAudienceRadius, SecretDoors.CONFIG_GHOST_AUDIENCE_RADIUS);
+        addIf(changed, registeredDoorsOnly != previous.registeredDoorsOnly, SecretDoors.CONFIG_REGISTERED_ONLY);
+        addIf(changed, openDoorsProtected != previous.openDoorsProtected, SecretDoors.CONFIG_PROTECT_DOORS);
+        return changed;
+    }
+
+    private static void addIf(List<String> changed, boolean differs, String key) {
+        if (differs)
+            changed.add(key);
+    }
+
+    /**
+     * @return true if players need the secretdoors.* permissions to use and create doors.
+     */
+    public boolean isPermissionsEnabled() {
+        return permissionsEnabled;
+    }
+
+    /**
+     * @return true if redstone may open and close SecretOpenables.
+     */
+    public boolean isRedstoneEnabled() {
+        return redstoneEnabled;
+    }
+
+    /**
+     * @return true if SecretTrapdoors are enabled.
+     */
+    public boolean isTrapdoorsEnabled() {
+        return trapdoorsEnabled;
+    }
+
+    /**
+     * @return true if opened SecretOpenables should close automatically after {@link #getCloseTime()} seconds.
+     */
+    public boolean isTimersEnabled() {
+        return timersEnabled;
+    }
+
+    /**
+     * @return true if attached blocks (signs, torches, etc.) should be preserved when doors open/close.
+     */
+    public boolean shouldPreserveAttachments() {
+        return preserveAttachments;
+    }
+
+    /**
+     * @return true if opened doors are journaled to disk so they can be closed after a crash.  Only read on enable.
+     */
+    public boolean isPersistenceEnabled() {
+        return persistenceEnabled;
+    }
+
+    /**
+     * @return where opened doors are persisted if {@link #isPersistenceEnabled()}.  Only read on enable.
+     */
+    public DoorStorage.Type getStorageType() {
+        return storageType;
+    }
+
+    /**
+     * @return true if handler latencies and door counts are recorded for /sd stats and JMX.
+     */
+    public boolean isMetricsEnabled() {
+        return metricsEnabled;
+    }
+
+    /**
+     * @return true if the positions of doors and trapdoors in loaded chunks are indexed, so block placement far from
+     *         any door needs no further checks.
+     */
+    public boolean isDoorIndexEnabled() {
+        return doorIndexEnabled;
+    }
+
+    /**
+     * @return true if doors opened by players are only opened on the clients of their audience, see {@link GhostDoor}.
+     */
+    public boolean isGhostDoorsEnabled() {
+        return ghostDoors;
+    }
+
+    /**
+     * @return true if players can only open doors registered with /sd register (trapdoors are not affected).
+     */
+    public boolean isRegisteredDoorsOnly() {
+        return registeredDoorsOnly;
+    }
+
+    /**
+     * @return true if explosions, pistons and flowing liquids are kept out of the passages of open doors.
+     */
+    public boolean isOpenDoorsProtected() {
+        return openDoorsProtected;
+    }
+
+    /**
+     * @return the radius in blocks in which players see a ghost door opened besides its opener, 0 if only the opener
+     *         does.
+     */
+    public int getGhostAudienceRadius() {
+        return ghostAudienceRadius;
+    }
+
+    /**
+     * @return the number of seconds permission checks of a player are cached, 0 if they are not.
+     */
+    public int getPermissionCacheSeconds() {
+        return permissionCacheSeconds;
+    }
+
+    /**
+     * @return the auto close delay in seconds, never negative.
+     */
+    public int getCloseTime() {
+        return closeTime;
+    }
+
+    /**
+     * @return the minimum number of ticks a door opened by redstone stays open after losing power.  0 closes it
+     *         right away.
+     */
+    public int getRedstoneMinHoldTicks() {
+        return redstoneMinHoldTicks;
+    }
+
+    /**
+     * @return the maximum number of queued door operations applied in one tick.
+     */
+    public int getMaxOpsPerTick() {
+        return maxOpsPerTick;
+    }
+
+    /**
+     * @return the time in nanoseconds after which no more queued door operations are started in the current tick.
+     */
+    public long getMaxNanosPerTick() {
+        return maxNanosPerTick;
+    }
+
+    /**
+     * Returns true if the received Material type may be used as a concealing block.
+     * That is, it is not an attachable item and the whitelist contains it (if the whitelist is enabled) or the
+     * blacklist does not contain it.
+     */
+    public boolean isAllowedMaterial(Material material) {
+        int i = material.ordinal();
+        return (allowed[i >>> 6] & (1L << i)) != 0;
+    }
+}
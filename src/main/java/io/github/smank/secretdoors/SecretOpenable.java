@@ -1,8 +1,11 @@
 package io.github.smank.secretdoors;
 
 
+import io.github.smank.secretdoors.storage.DoorRecord;
 import org.bukkit.block.Block;
 
+import java.util.Arrays;
+
 /**
  * Standard interface for "secret" openable types.  SecretOpenables must be openable, closeable, and return a unique
  * key that properly implements hashCode and equals.  SecretOpenables themselves are not required to implement
@@ -31,4 +34,39 @@ public interface SecretOpenable {
      * @return A unique identifier for this in an opened state.
      */
     public Block getKey();
+
+    /**
+     * Returns the blocks that are cleared to open the passage, i.e. the blocks hiding this instance.
+     * The returned array must not be modified.
+     * @return The concealing blocks of this instance.
+     */
+    public Block[] getConcealingBlocks();
+
+    /**
+     * Returns every block whose state this instance restores when closed - the cleared concealing blocks, their
+     * attachments and the door itself.  Nothing else may change them while this is opened.
+     * @return The blocks of the opened passage.
+     */
+    public default Block[] getPassageBlocks() {
+        Block[] concealing = getConcealingBlocks();
+        Block[] blocks = Arrays.copyOf(concealing, concealing.length + 1);
+        blocks[concealing.length] = getKey();
+        return blocks;
+    }
+
+    /**
+     * Returns a record of every block this instance changes when opened, holding their state from before it was
+     * opened.  The record must be enough to close this instance without the object itself, i.e. after a crash.
+     * @return A record of the closed state of this instance.
+     */
+    public DoorRecord toRecord();
+
+    /**
+     * Returns false for SecretOpenables that are only opened for some players' clients and leave the world as it is.
+     * Those are not journaled, there is nothing to restore after a crash.
+     * @return true if opening this changes blocks in the world.
+     */
+    public default boolean changesWorld() {
+        return true;
+    }
 }
@@ -0,0 +1,241 @@
+package io.github.smank.secretdoors.commands;
+
+import io.github.smank.secretdoors.DoorRegistry;
+import io.github.smank.secretdoors.SecretDoors;
+import io.github.smank.secretdoors.SecretTrapdoor;
+import io.github.smank.secretdoors.metrics.LatencyHistogram;
+import io.github.smank.secretdoors.metrics.Metrics;
+import io.github.smank.secretdoors.util.BlockKeys;
+import org.bukkit.ChatColor;
+import org.bukkit.World;
+import org.bukkit.block.Block;
+import org.bukkit.command.Command;
+import org.bukkit.command.CommandExecutor;
+import org.bukkit.command.CommandSender;
+import org.bukkit.entity.Player;
+
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Executor of {@code /secretdoors} (alias {@code /sd}) and its subcommands.
+ */
+public class SecretDoorsCommand implements CommandExecutor {
+
+    // Same as the command's permission-message in plugin.yml.
+    private static final String PERMISSION_MESSAGE = "You don't have permissions to do that!";
+    private static final int LIST_PAGE_SIZE = 10;
+    // How far away the door looked at by /sd register may be.
+    private static final int REGISTER_REACH = 5;
+
+    // Order of /sd list: by world, then position.
+    private static final Comparator<DoorRegistry.Entry> LIST_ORDER =
+            Comparator.comparing((DoorRegistry.Entry e) -> e.getDoor().getKey().getWorld().getName())
+                    .thenComparingInt((e) -> BlockKeys.unpackX(e.getKey()))
+                    .thenComparingInt((e) -> BlockKeys.unpackZ(e.getKey()))
+                    .thenComparingInt((e) -> BlockKeys.unpackY(e.getKey()));
+
+    private final SecretDoors plugin;
+
+    public SecretDoorsCommand(SecretDoors plugin) {
+        this.plugin = plugin;
+    }
+
+    @Override
+    public boolean onCommand(CommandSender sender, Command cmd, String label, String[] args) {
+        if (args.length == 0)
+            return false;
+
+        switch (args[0].toLowerCase()) {
+            case "reload":
+                return args.length == 1 && reload(sender);
+            case "stats":
+                return stats(sender, args);
+            case "closeall":
+                return closeAll(sender, args);
+            case "close":
+                return close(sender, args);
+            case "list":
+                return list(sender, args);
+            case "register":
+                return args.length == 1 && register(sender, true);
+            case "unregister":
+                return args.length == 1 && register(sender, false);
+            default:
+                return false;
+        }
+    }
+
+    // Admin permissions are always checked - use-permissions only covers using and creating doors.  Tells the sender
+    // if it is missing.
+    private static boolean hasPermission(CommandSender sender, String permission) {
+        if (sender.hasPermission(permission))
+            return true;
+        sender.sendMessage(ChatColor.RED + PERMISSION_MESSAGE);
+        return false;
+    }
+
+    // sd reload
+    private boolean reload(CommandSender sender) {
+        if (!hasPermission(sender, SecretDoors.PERMISSION_SD_RELOAD))
+            return true;
+        sender.sendMessage(ChatColor.RED + "Reloading the Secret Doors config");
+        plugin.reload((summary) -> sender.sendMessage(ChatColor.RED + "Secret Doors config reloaded: " + summary));
+        return true;
+    }
+
+    // sd stats [reset]
+    private boolean stats(CommandSender sender, String[] args) {
+        if (!hasPermission(sender, SecretDoors.PERMISSION_SD_STATS))
+            return true;
+        Metrics metrics = plugin.getMetrics();
+        if (args.length == 2 && args[1].equalsIgnoreCase("reset")) {
+            metrics.reset();
+            sender.sendMessage(ChatColor.RED + "Secret Doors stats reset");
+            return true;
+        }
+        if (args.length != 1)
+            return false;
+
+        if (!metrics.isEnabled())
+            sender.sendMessage(ChatColor.RED + "Metrics are disabled (metrics-enabled in config.yml)");
+        long seconds = Math.max(1, TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - metrics.getResetAt()));
+        long toggles = metrics.getOpened() + metrics.getClosed();
+        sender.sendMessage(ChatColor.GOLD + "Secret Doors stats for the last " + formatSeconds(seconds) + ":");
+        sender.sendMessage(ChatColor.GRAY + "open doors " + ChatColor.WHITE + metrics.getOpenDoors()
+                + ChatColor.GRAY + ", pending timers " + ChatColor.WHITE + metrics.getPendingTimers()
+                + ChatColor.GRAY + ", queued " + ChatColor.WHITE + metrics.getQueuedOperations());
+        sender.sendMessage(ChatColor.GRAY + "toggles " + ChatColor.WHITE + toggles
+                + ChatColor.GRAY + " (" + String.format("%.2f", (double) toggles / seconds) + "/s, "
+                + metrics.getTogglesLastSecond() + " in the last second)");
+        for (Metrics.Timer timer : Metrics.Timer.values()) {
+            LatencyHistogram.Snapshot s = metrics.getLatency(timer);
+            if (s.getCount() == 0)
+                continue;
+            sender.sendMessage(ChatColor.GRAY + timer.getLabel() + ": " + ChatColor.WHITE + s.getCount()
+                    + ChatColor.GRAY + " calls, total " + ChatColor.WHITE + formatNanos(s.getTotalNanos())
+                    + ChatColor.GRAY + ", mean " + formatNanos(s.getMeanNanos())
+                    + ", p50 " + formatNanos(s.getP50Nanos())
+                    + ", p99 " + formatNanos(s.getP99Nanos())
+                    + ", max " + formatNanos(s.getMaxNanos()));
+        }
+        return true;
+    }
+
+    // sd closeall [world]
+    private boolean closeAll(CommandSender sender, String[] args) {
+        if (args.length > 2)
+            return false;
+        if (!hasPermission(sender, SecretDoors.PERMISSION_SD_CLOSE))
+            return true;
+        World world = null;
+        if (args.length == 2) {
+            world = plugin.getServer().getWorld(args[1]);
+            if (world == null) {
+                sender.sendMessage(ChatColor.RED + "Unknown world " + args[1]);
+                return true;
+            }
+        }
+        int queued = plugin.queueCloseAll(world);
+        sender.sendMessage(ChatColor.RED + "Closing " + queued + " secret door(s)"
+                + (world == null ? "" : " in " + world.getName()));
+        return true;
+    }
+
+    // sd close <radius>
+    private boolean close(CommandSender sender, String[] args) {
+        if (args.length != 2)
+            return false;
+        if (!hasPermission(sender, SecretDoors.PERMISSION_SD_CLOSE))
+            return true;
+        if (!(sender instanceof Player)) {
+            sender.sendMessage(ChatColor.RED + "Only players can close doors around them, use /sd closeall [world]");
+            return true;
+        }
+        int radius = parsePositive(args[1]);
+        if (radius <= 0)
+            return false;
+        Block center = ((Player) sender).getLocation().getBlock();
+        // Nothing within the world border is farther away than its diagonal.
+        long maxRadius = (long) Math.ceil(center.getWorld().getWorldBorder().getSize() * Math.sqrt(2));
+        radius = (int) Math.min(radius, maxRadius);
+        int queued = plugin.queueCloseNear(center, radius);
+        sender.sendMessage(ChatColor.RED + "Closing " + queued + " secret door(s) within " + radius + " blocks");
+        return true;
+    }
+
+    // sd list [page]
+    private boolean list(CommandSender sender, String[] args) {
+        if (args.length > 2)
+            return false;
+        if (!hasPermission(sender, SecretDoors.PERMISSION_SD_LIST))
+            return true;
+        int page = args.length == 2 ? parsePositive(args[1]) : 1;
+        if (page <= 0)
+            return false;
+
+        List<DoorRegistry.Entry> open = plugin.getOpenDoors();
+        int pages = Math.max(1, (open.size() + LIST_PAGE_SIZE - 1) / LIST_PAGE_SIZE);
+        page = Math.min(page, pages);
+        open.sort(LIST_ORDER);
+        sender.sendMessage(ChatColor.GOLD + "Open secret doors: " + open.size() + " (page " + page + "/" + pages + ")");
+        for (int i = (page - 1) * LIST_PAGE_SIZE; i < Math.min(open.size(), page * LIST_PAGE_SIZE); i++) {
+            DoorRegistry.Entry e = open.get(i);
+            long key = e.getKey();
+            sender.sendMessage(ChatColor.GRAY + (e.getDoor() instanceof SecretTrapdoor ? "trapdoor" : "door") + " in "
+                    + ChatColor.WHITE + e.getDoor().getKey().getWorld().getName()
+                    + ChatColor.GRAY + " at " + ChatColor.WHITE + BlockKeys.unpackX(key) + ", "
+                    + BlockKeys.unpackY(key) + ", " + BlockKeys.unpackZ(key));
+        }
+        return true;
+    }
+
+    // sd register, sd unregister
+    private boolean register(CommandSender sender, boolean register) {
+        if (!hasPermission(sender, SecretDoors.PERMISSION_SD_REGISTER))
+            return true;
+        if (!(sender instanceof Player)) {
+            sender.sendMessage(ChatColor.RED + "Only players can register doors, look at the door and try again");
+            return true;
+        }
+        Block target = ((Player) sender).getTargetBlockExact(REGISTER_REACH);
+        if (target == null) {
+            sender.sendMessage(ChatColor.RED + "Look at a door within " + REGISTER_REACH + " blocks");
+        } else if (register) {
+            sender.sendMessage(ChatColor.RED + (plugin.registerDoor(target) ? "Secret door registered"
+                    : "That is not a closed door with concealing blocks in front of it"));
+        } else {
+            sender.sendMessage(ChatColor.RED + (plugin.unregisterDoor(target) ? "Secret door unregistered"
+                    : "That is not part of a registered door"));
+        }
+        return true;
+    }
+
+    // Returns the received argument as a number, or -1 if it is not a positive number.
+    private static int parsePositive(String arg) {
+        try {
+            return Math.max(-1, Integer.parseInt(arg));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private static String formatSeconds(long seconds) {
+        if (seconds < 60)
+            return seconds + "s";
+        if (seconds < 3600)
+            return seconds / 60 + "m " + seconds % 60 + "s";
+        return seconds / 3600 + "h " + seconds / 60 % 60 + "m";
+    }
+
+    private static String formatNanos(long nanos) {
+        if (nanos < 1_000)
+            return nanos + "ns";
+        if (nanos < 1_000_000)
+            return String.format("%.1fµs", nanos / 1e3);
+        if (nanos < 1_000_000_000)
+            return String.format("%.1fms", nanos / 1e6);
+        return String.format("%.2fs", nanos / 1e9);
+    }
+}
@@ -7,12 +7,25 @@ import org.bukkit.block.Block;
 import org.bukkit.block.BlockFace;
 import org.bukkit.entity.Player;
 import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
 import org.bukkit.event.Listener;
 import org.bukkit.event.block.BlockBreakEvent;
+import org.bukkit.event.block.BlockBurnEvent;
+import org.bukkit.event.block.BlockExplodeEvent;
+import org.bukkit.event.block.BlockFadeEvent;
+import org.bukkit.event.block.BlockFromToEvent;
+import org.bukkit.event.block.BlockPhysicsEvent;
+import org.bukkit.event.block.BlockPistonExtendEvent;
+import org.bukkit.event.block.BlockPistonRetractEvent;
+import org.bukkit.event.block.LeavesDecayEvent;
+import org.bukkit.event.entity.EntityExplodeEvent;
 
 import io.github.smank.secretdoors.SecretDoors;
+import io.github.smank.secretdoors.metrics.Metrics;
 import org.bukkit.event.block.BlockPlaceEvent;
 
+import java.util.List;
+
 /**
  * BlockListener defines EventHandler methods for placing and destroying blocks that are used in SecretDoors and
  * SecretTrapdoors.  Primarily closing of SecretOpenables when a door is broken and permissions on creating
@@ -33,6 +46,8 @@ public class BlockListener implements Listener {
     /** Close the door/trapdoor if a user breaks the door block. */
     @EventHandler
     public void onBlockBreak(BlockBreakEvent bbe) {
+        Metrics metrics = plugin.getMetrics();
+        long start = metrics.start();
         Block block = bbe.getBlock();
         Block key = SecretDoorHelper.getKeyFromBlock(block);
         // Was a wooden door in this case
@@ -49,19 +64,117 @@ public class BlockListener implements Listener {
                 plugin.closeDoor(ladder);
             }
         }
+        metrics.stop(Metrics.Timer.BLOCK_BREAK, start);
+    }
+
+    /**
+     * Keeps the index of door positions up to date, and has registered doors checked again after their blocks change.
+     * Only breaks that happen are handled, hence MONITOR.
+     */
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onDoorBroken(BlockBreakEvent event) {
+        Block block = event.getBlock();
+        Material type = block.getType();
+        if (SecretDoorHelper.isValidDoor(type) || SecretDoorHelper.isValidTrapDoor(type))
+            plugin.unindexDoorBlock(block);
+        plugin.touchDoorDefinition(block);
+    }
+
+    /** Has registered doors checked again after a block is placed at or next to one of their positions. */
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onBlockPlaced(BlockPlaceEvent event) {
+        plugin.touchDoorDefinition(event.getBlock());
+    }
+
+    //// Every other way a block of a registered door can change.  Only changes that happen are handled, hence MONITOR.
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onEntityExploded(EntityExplodeEvent event) {
+        touchAll(event.blockList());
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onBlockExploded(BlockExplodeEvent event) {
+        touchAll(event.blockList());
+    }
+
+    /** Both the moved blocks and where they are moved to, and the piston head. */
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onPistonExtended(BlockPistonExtendEvent event) {
+        plugin.touchDoorDefinition(event.getBlock().getRelative(event.getDirection()));
+        touchMoved(event.getBlocks(), event.getDirection());
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onPistonRetracted(BlockPistonRetractEvent event) {
+        plugin.touchDoorDefinition(event.getBlock().getRelative(event.getDirection().getOppositeFace()));
+        touchMoved(event.getBlocks(), event.getDirection());
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onLiquidFlowed(BlockFromToEvent event) {
+        plugin.touchDoorDefinition(event.getToBlock());
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onBlockBurned(BlockBurnEvent event) {
+        plugin.touchDoorDefinition(event.getBlock());
+    }
+
+    /** Coral, ice, snow, etc. */
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onBlockFaded(BlockFadeEvent event) {
+        plugin.touchDoorDefinition(event.getBlock());
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onLeavesDecayed(LeavesDecayEvent event) {
+        plugin.touchDoorDefinition(event.getBlock());
+    }
+
+    /** Attachments dropped because their support is gone, falling blocks, etc. */
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onBlockPhysics(BlockPhysicsEvent event) {
+        plugin.touchDoorDefinition(event.getBlock());
+    }
+
+    private void touchAll(List<Block> blocks) {
+        for (Block b : blocks) {
+            plugin.touchDoorDefinition(b);
+        }
+    }
+
+    private void touchMoved(List<Block> blocks, BlockFace direction) {
+        for (Block b : blocks) {
+            plugin.touchDoorDefinition(b);
+            plugin.touchDoorDefinition(b.getRelative(direction));
+        }
     }
 
     /** Primarily for handling permissions on creating SecretOpenable objects */
     @EventHandler
     public void onBlockPlace(BlockPlaceEvent event) {
+        // Every placed door is indexed, even if the placement is cancelled later - that only costs a full check.
+        Block block = event.getBlock();
+        Material type = block.getType();
+        if (SecretDoorHelper.isValidDoor(type) || SecretDoorHelper.isValidTrapDoor(type))
+            plugin.indexDoorBlock(block);
 
         Player player = event.getPlayer();
         // don't bother with other checks if they have permissions
-        if (!plugin.getConfig().getBoolean(SecretDoors.CONFIG_PERMISSIONS_ENABLED) ||
-            player.hasPermission(SecretDoors.PERMISSION_SD_CREATE))
+        if (plugin.canCreate(player))
             return;
 
-        Block block = event.getBlock();
+        Metrics metrics = plugin.getMetrics();
+        long start = metrics.start();
+        // Far from any door or trapdoor nothing can be created, without looking at any neighbour.
+        if (plugin.mayBeNearDoor(block))
+            denyCreation(event, player, block);
+        metrics.stop(Metrics.Timer.BLOCK_PLACE, start);
+    }
+
+    // Cancels the received placement if it creates a SecretOpenable, or could be used to.
+    private void denyCreation(BlockPlaceEvent event, Player player, Block block) {
         // check if they placed a door that could be a secret door
         if (plugin.canBeSecretDoor(block)) {
             player.sendMessage(SECRETDOOR_MSG);
@@ -1,20 +1,32 @@
 package io.github.smank.secretdoors.listeners;
 
-import io.github.smank.secretdoors.SecretDoor;
+import io.github.smank.secretdoors.DoorDefinitions;
+import io.github.smank.secretdoors.SecretOpenable;
 import io.github.smank.secretdoors.SecretDoorHelper;
 import io.github.smank.secretdoors.SecretDoors;
+import io.github.smank.secretdoors.SecretDoorsSettings;
 import io.github.smank.secretdoors.SecretTrapdoor;
+import io.github.smank.secretdoors.metrics.Metrics;
+import org.bukkit.Location;
+import org.bukkit.Material;
 import org.bukkit.block.Block;
 import org.bukkit.block.BlockFace;
 import org.bukkit.block.data.Directional;
+import org.bukkit.entity.Player;
 import org.bukkit.event.EventHandler;
 import org.bukkit.event.Listener;
 import org.bukkit.event.block.Action;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.player.PlayerChangedWorldEvent;
 import org.bukkit.event.player.PlayerInteractEvent;
+import org.bukkit.event.player.PlayerJoinEvent;
+import org.bukkit.event.player.PlayerMoveEvent;
+import org.bukkit.event.player.PlayerQuitEvent;
 import org.bukkit.inventory.ItemStack;
 
 /**
  * PlayerListener defines EventHandler methods for player interactions with SecretDoors and SecretTrapdoors.
+ * All interactions go through a single handler which classifies the click once and then runs exactly one code path.
  */
 public class PlayerListener implements Listener {
 
@@ -24,176 +36,264 @@ public class PlayerListener implements Listener {
         this.plugin = plugin;
     }
 
-
     /**
-     * Handle when the user clicks on a door
+     * What a right-clicked block may be with respect to SecretOpenables.
      */
-    @EventHandler
-    public void onDoorClick(PlayerInteractEvent event) {
-
-        // handle permissions
-        if (plugin.getConfig().getBoolean(SecretDoors.CONFIG_PERMISSIONS_ENABLED)) {
-            if (!event.getPlayer().hasPermission(SecretDoors.PERMISSION_SD_USE)) {
-                return;
-            }
+    enum ClickTarget {
+        // Nothing we care about - the event is ignored.
+        NONE(null),
+        // The door part of a SecretDoor.
+        DOOR(Metrics.Timer.DOOR_CLICK),
+        // A trapdoor, either a SecretTrapdoor candidate or the key of an opened one.
+        TRAPDOOR(Metrics.Timer.TRAPDOOR_CLICK),
+        // A sign, torch, etc. which may be attached to the concealing block of a SecretDoor.
+        ATTACHABLE(Metrics.Timer.ATTACHABLE_CLICK),
+        // A block that could hide a SecretDoor behind it or a SecretTrapdoor below it.
+        CONCEALING(Metrics.Timer.DOOR_BLOCK_CLICK),
+        // Any position of a door registered with /sd register.
+        REGISTERED(Metrics.Timer.REGISTERED_CLICK);
+
+        // Path the handling of this target is timed as.
+        final Metrics.Timer timer;
+
+        ClickTarget(Metrics.Timer timer) {
+            this.timer = timer;
         }
+    }
 
-        Block door = event.getClickedBlock();
-        // right click and is door
-        if (event.getAction().equals(Action.RIGHT_CLICK_BLOCK) && SecretDoorHelper.isValidDoor(door)) {
-
-            // is a closed secret door
-            if (plugin.canBeSecretDoor(door)) {
-                BlockFace doorFace = SecretDoorHelper.getDoorFace(door);
-
-                // get the blocks in-front of the door
-                Block other = door.getRelative(doorFace);
-                plugin.addDoor(new SecretDoor(door, other, SecretDoorHelper.Orientation.DOOR_FIRST, plugin.shouldPreserveAttachments())).open();
-            }
-            // is an opened secret door
-            else if (plugin.isSecretDoor(SecretDoorHelper.getKeyFromBlock(door))) {
-                plugin.closeDoor(SecretDoorHelper.getKeyFromBlock(door));
-            }
-        }
+    /**
+     * Classifies the received block using only its Material type.
+     */
+    ClickTarget classify(Block clicked, SecretDoorsSettings settings) {
+        Material type = clicked.getType();
+        if (type == Material.AIR)
+            return ClickTarget.NONE;
+        if (SecretDoorHelper.isValidDoor(type))
+            return ClickTarget.DOOR;
+        if (SecretDoorHelper.isValidTrapDoor(type))
+            return settings.isTrapdoorsEnabled() ? ClickTarget.TRAPDOOR : ClickTarget.NONE;
+        if (SecretDoorHelper.isAttachableItem(type))
+            return ClickTarget.ATTACHABLE;
+        if (settings.isAllowedMaterial(type))
+            return ClickTarget.CONCEALING;
+        return ClickTarget.NONE;
     }
 
     /**
-     * Handle when the user clicks on the block part of a secret door
+     * Single entry point for every player interaction.
      */
     @EventHandler
-    public void onDoorBlockClick(PlayerInteractEvent event) {
+    public void onPlayerInteract(PlayerInteractEvent event) {
+        // Left clicks, air clicks and pressure plates can never open a SecretOpenable.
+        if (event.getAction() != Action.RIGHT_CLICK_BLOCK)
+            return;
+
+        Block clicked = event.getClickedBlock();
+        if (clicked == null)
+            return;
+
+        SecretDoorsSettings settings = plugin.getSettings();
+        ClickTarget target = classify(clicked, settings);
+        if (target == ClickTarget.NONE)
+            return;
+        // Registered doors are found by position, without looking at any block around the clicked one.  Their
+        // positions are doors, concealing blocks and attachments, never trapdoors.
+        DoorDefinitions.Definition definition = null;
+        if (target != ClickTarget.TRAPDOOR) {
+            definition = plugin.getDoorDefinition(clicked);
+            if (definition != null)
+                target = ClickTarget.REGISTERED;
+        }
 
         // handle permissions
-        if (plugin.getConfig().getBoolean(SecretDoors.CONFIG_PERMISSIONS_ENABLED)) {
-            if (!event.getPlayer().hasPermission(SecretDoors.PERMISSION_SD_USE)) {
-                return;
-            }
+        if (!plugin.canUse(event.getPlayer()))
+            return;
+
+        Metrics metrics = plugin.getMetrics();
+        long start = metrics.start();
+        switch (target) {
+            case REGISTERED:
+                onRegisteredClick(event, clicked, definition);
+                break;
+            case DOOR:
+                onDoorClick(event, clicked, settings);
+                break;
+            case TRAPDOOR:
+                onTrapdoorClick(event, clicked);
+                break;
+            case ATTACHABLE:
+                onAttachableClick(event, clicked, settings);
+                break;
+            case CONCEALING:
+                onDoorBlockClick(event, clicked, settings);
+                break;
+            default:
+                break;
         }
+        metrics.stop(target.timer, start);
+    }
 
-        Block clicked = event.getClickedBlock();
+    // Permissions may differ per world, or have changed while the player was away.
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onPlayerJoin(PlayerJoinEvent event) {
+        plugin.invalidatePermissions(event.getPlayer());
+    }
 
-        if (Action.RIGHT_CLICK_BLOCK.equals(event.getAction())) {
-            // Quick exit to prevent additional checks
-            if (SecretDoorHelper.isValidDoor(clicked))
-                return;
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onPlayerQuit(PlayerQuitEvent event) {
+        plugin.invalidatePermissions(event.getPlayer());
+        plugin.getGhostPassages().removeViewer(event.getPlayer());
+    }
 
-            // handle `attached blocks` (signs, torches, etc)
-            if (SecretDoorHelper.isAttachableItem(clicked.getType())) {
+    /**
+     * Moves players through the passages of ghost doors they see, which the server still considers solid.
+     */
+    @EventHandler(ignoreCancelled = true)
+    public void onPlayerMove(PlayerMoveEvent event) {
+        Location to = event.getTo();
+        if (to == null)
+            return;
+        Location out = plugin.getGhostPassages().passThrough(event.getPlayer(), event.getFrom(), to);
+        if (out != null)
+            event.setTo(out);
+    }
 
-                Directional item = SecretDoorHelper.getAttachableFromBlock(clicked);
-                BlockFace face  = SecretDoorHelper.getAttachableface(item);//item.getAttachedFace();
-                Block block     = clicked.getRelative(face);
-                Block door      = clicked.getRelative(face, 2);
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onPlayerChangedWorld(PlayerChangedWorldEvent event) {
+        plugin.invalidatePermissions(event.getPlayer());
+    }
 
-                if (plugin.isValidBlock(block) && plugin.canBeSecretDoor(door)) {
-                    plugin.addDoor(new SecretDoor(door, block, SecretDoorHelper.Orientation.BLOCK_FIRST, plugin.shouldPreserveAttachments())).open();
-                }
-            }
-            // handle regular blocks (non-attachables)
-            else if (plugin.isValidBlock(clicked)) {
-
-                // Case: user is holding an attachable item already (they are attempting to place it on the door blocks)
-                ItemStack heldItem = event.getItem();
-                if (heldItem != null && SecretDoorHelper.isPlaceableAttachable(heldItem.getType())) {
-                    return;
-                }
-
-                // Handle opening the door regularly.
-                BlockFace face  = event.getBlockFace().getOppositeFace();
-                Block door      = clicked.getRelative(face);
-
-                if (plugin.canBeSecretDoor(door)) {
-                    plugin.addDoor(new SecretDoor(door, clicked, SecretDoorHelper.Orientation.BLOCK_FIRST, plugin.shouldPreserveAttachments())).open();
-                }
+    /**
+     * Handle when the user clicks on any position of a registered door: its door, concealing blocks or attachments
+     */
+    private void onRegisteredClick(PlayerInteractEvent event, Block clicked, DoorDefinitions.Definition definition) {
+        Block key = definition.getKeyBlock(clicked.getWorld());
+        boolean onDoor = SecretDoorHelper.isValidDoor(clicked.getType());
+        // is an opened secret door - like any other door it is closed by clicking the door
+        if (plugin.isSecretDoor(key)) {
+            if (onDoor) {
+                if (plugin.isGhostDoor(key))
+                    event.setCancelled(true);
+                plugin.closeDoor(key);
             }
+            return;
         }
-    }
+        if (!onDoor && isPlacingAttachable(event))
+            return;
 
+        SecretOpenable door = plugin.newRegisteredDoor(event.getPlayer(), definition, clicked.getWorld(),
+                onDoor ? SecretDoorHelper.Orientation.DOOR_FIRST : SecretDoorHelper.Orientation.BLOCK_FIRST);
+        if (door != null)
+            openDoor(event, door);
+    }
 
     /**
-     * Handle opening SecretTrapdoors
+     * Handle when the user clicks on a door
      */
-    @EventHandler
-    public void onTrapdoorClick(PlayerInteractEvent event) {
-        if (!plugin.getConfig().getBoolean(SecretDoors.CONFIG_ENABLE_TRAPDOORS)) {
-            return;
+    private void onDoorClick(PlayerInteractEvent event, Block door, SecretDoorsSettings settings) {
+        Block key = SecretDoorHelper.getKeyFromBlock(door);
+        // is an opened secret door
+        if (plugin.isSecretDoor(key)) {
+            // A ghost door is closed in the world, don't let the click open it.
+            if (plugin.isGhostDoor(key))
+                event.setCancelled(true);
+            plugin.closeDoor(key);
         }
-        if (plugin.getConfig().getBoolean(SecretDoors.CONFIG_PERMISSIONS_ENABLED))
-            if (!event.getPlayer().hasPermission(SecretDoors.PERMISSION_SD_USE))
-                return;
+        // is a closed secret door
+        else if (!settings.isRegisteredDoorsOnly() && plugin.canBeSecretDoor(door)) {
+            BlockFace doorFace = SecretDoorHelper.getDoorFace(door);
 
-        if (event.getAction() == Action.RIGHT_CLICK_BLOCK) {
+            // get the blocks in-front of the door
+            Block other = door.getRelative(doorFace);
+            openDoor(event, door, other, SecretDoorHelper.Orientation.DOOR_FIRST);
+        }
+    }
 
-            Block clicked = event.getClickedBlock();
+    private void openDoor(PlayerInteractEvent event, Block door, Block other, SecretDoorHelper.Orientation orientation) {
+        openDoor(event, plugin.newSecretDoor(event.getPlayer(), door, other, orientation));
+    }
 
-            // Skip if player is placing an attachable item
-            ItemStack heldItem = event.getItem();
-            if (SecretDoors.DEBUG) {
-                System.out.println("onTrapdoorClick: clicked=" + clicked.getType() + " heldItem=" + (heldItem != null ? heldItem.getType() : "null"));
-                System.out.println("  isPlaceableAttachable=" + (heldItem != null ? SecretDoorHelper.isPlaceableAttachable(heldItem.getType()) : "n/a"));
-            }
-            if (heldItem != null && SecretDoorHelper.isPlaceableAttachable(heldItem.getType())) {
-                if (SecretDoors.DEBUG) {
-                    System.out.println("  RETURNING - player placing attachable");
-                }
-                return;
-            }
+    private void openDoor(PlayerInteractEvent event, SecretOpenable door) {
+        SecretOpenable opened = plugin.openDoor(door);
+        // A ghost door leaves the world as it is, including the door itself.
+        if (!opened.changesWorld())
+            event.setCancelled(true);
+    }
 
-            SecretTrapdoor door = null;
+    /**
+     * Handle when the user clicks on an `attached block` (signs, torches, etc) on the block part of a secret door
+     */
+    private void onAttachableClick(PlayerInteractEvent event, Block clicked, SecretDoorsSettings settings) {
+        if (settings.isRegisteredDoorsOnly())
+            return;
+        Directional item = SecretDoorHelper.getAttachableFromBlock(clicked);
+        if (item == null)
+            return;
+        BlockFace face  = SecretDoorHelper.getAttachableface(item);//item.getAttachedFace();
+        if (face == null)
+            return;
+        Block block     = clicked.getRelative(face);
+        Block door      = clicked.getRelative(face, 2);
 
-            if (plugin.canBeSecretTrapdoor(clicked))
-                door = new SecretTrapdoor(clicked, clicked.getRelative(BlockFace.UP), false, plugin.shouldPreserveAttachments());
-            else if (plugin.canBeSecretTrapdoor(clicked.getRelative(BlockFace.DOWN)))
-                door = new SecretTrapdoor(clicked.getRelative(BlockFace.DOWN), clicked, true, plugin.shouldPreserveAttachments());
-            else if (plugin.isSecretDoor(clicked))
-                plugin.closeDoor(clicked);
+        if (plugin.isValidBlock(block) && plugin.canBeSecretDoor(door)) {
+            openDoor(event, door, block, SecretDoorHelper.Orientation.BLOCK_FIRST);
+        }
+    }
 
+    /**
+     * Handle when the user clicks on the block part of a secret door, or the block concealing a secret trapdoor
+     */
+    private void onDoorBlockClick(PlayerInteractEvent event, Block clicked, SecretDoorsSettings settings) {
+        // Case: user is holding an attachable item already (they are attempting to place it on the door blocks)
+        if (isPlacingAttachable(event))
+            return;
 
-            if (door != null) {
-                event.setCancelled(true);
-                door.open();
-                plugin.addDoor(door);
-            }
+        // Handle opening the door regularly.
+        BlockFace face  = event.getBlockFace().getOppositeFace();
+        Block door      = clicked.getRelative(face);
 
+        if (!settings.isRegisteredDoorsOnly() && plugin.canBeSecretDoor(door)) {
+            openDoor(event, door, clicked, SecretDoorHelper.Orientation.BLOCK_FIRST);
+            return;
         }
-    }
-    @EventHandler
-    public void onTrapDoorCloseClick(PlayerInteractEvent event) {
 
-        // handle permissions
-        if (plugin.getConfig().getBoolean(SecretDoors.CONFIG_PERMISSIONS_ENABLED)) {
-            if (!event.getPlayer().hasPermission(SecretDoors.PERMISSION_SD_USE)) {
-                return;
-            }
+        // Handle opening a trapdoor from above.
+        if (settings.isTrapdoorsEnabled()) {
+            Block below = clicked.getRelative(BlockFace.DOWN);
+            if (plugin.canBeSecretTrapdoor(below))
+                openTrapdoor(event, new SecretTrapdoor(below, clicked, true, plugin.shouldPreserveAttachments()));
         }
+    }
 
-        Block door = event.getClickedBlock();
-        // right click and is door
-        if (event.getAction().equals(Action.RIGHT_CLICK_BLOCK) && SecretDoorHelper.isValidTrapDoor(door)) {
+    /**
+     * Handle opening and closing SecretTrapdoors
+     */
+    private void onTrapdoorClick(PlayerInteractEvent event, Block clicked) {
+        // Skip if player is placing an attachable item
+        if (isPlacingAttachable(event))
+            return;
 
-            // Skip if player is placing an attachable item
-            ItemStack heldItem = event.getItem();
-            if (SecretDoors.DEBUG) {
-                System.out.println("onTrapDoorCloseClick: clicked=" + door.getType() + " heldItem=" + (heldItem != null ? heldItem.getType() : "null"));
-            }
-            if (heldItem != null && SecretDoorHelper.isPlaceableAttachable(heldItem.getType())) {
-                if (SecretDoors.DEBUG) {
-                    System.out.println("  RETURNING - player placing attachable");
-                }
-                return;
-            }
+        if (plugin.canBeSecretTrapdoor(clicked))
+            openTrapdoor(event, new SecretTrapdoor(clicked, clicked.getRelative(BlockFace.UP), false, plugin.shouldPreserveAttachments()));
+        else if (plugin.canBeSecretTrapdoor(clicked.getRelative(BlockFace.DOWN)))
+            openTrapdoor(event, new SecretTrapdoor(clicked.getRelative(BlockFace.DOWN), clicked, true, plugin.shouldPreserveAttachments()));
+        // is an opened secret trapdoor
+        else if (plugin.isSecretDoor(clicked))
+            plugin.closeDoor(clicked);
+    }
 
-            // is a closed secret door
-            if (plugin.canBeSecretTrapdoor(door)) {
-                // get the blocks in-front of the door
-                Block other = door.getRelative(BlockFace.UP);
-                plugin.addDoor(new SecretTrapdoor(door, other, true, plugin.shouldPreserveAttachments())).open();
-            }
-            // is an opened secret door
-            else if (plugin.isSecretDoor(SecretDoorHelper.getKeyFromBlock(door))) {
-                plugin.closeDoor(SecretDoorHelper.getKeyFromBlock(door));
-            }
+    private void openTrapdoor(PlayerInteractEvent event, SecretTrapdoor door) {
+        event.setCancelled(true);
+        plugin.openDoor(door);
+    }
+
+    // Returns true if the player is holding a placeable attachable item.
+    private boolean isPlacingAttachable(PlayerInteractEvent event) {
+        ItemStack heldItem = event.getItem();
+        if (SecretDoors.DEBUG) {
+            System.out.println("onPlayerInteract: clicked=" + event.getClickedBlock().getType() + " heldItem=" + (heldItem != null ? heldItem.getType() : "null"));
         }
+        return heldItem != null && SecretDoorHelper.isPlaceableAttachable(heldItem.getType());
     }
 
-}
\ No newline at end of file
+}
@@ -4,88 +4,168 @@ import io.github.smank.secretdoors.SecretDoor;
 import io.github.smank.secretdoors.SecretDoorHelper;
 import io.github.smank.secretdoors.SecretDoors;
 import io.github.smank.secretdoors.SecretTrapdoor;
+import io.github.smank.secretdoors.metrics.Metrics;
+import io.github.smank.secretdoors.util.BlockKeys;
+import io.github.smank.secretdoors.util.LongObjectMap;
+import org.bukkit.Chunk;
+import org.bukkit.Material;
 import org.bukkit.block.Block;
 import org.bukkit.block.BlockFace;
-import org.bukkit.block.data.type.Door;
-import org.bukkit.block.data.type.TrapDoor;
 import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
 import org.bukkit.event.Listener;
 import org.bukkit.event.block.BlockRedstoneEvent;
+import org.bukkit.event.world.ChunkUnloadEvent;
+import org.bukkit.event.world.WorldUnloadEvent;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
 
 
 /**
  * PowerListener handles closing and opening of doors if they are powered by Redstone.
+ * Only real edges are acted on: events that change the power level without switching between powered and unpowered
+ * (most of what a redstone line produces) return right away, and an edge that was already seen for the same key in
+ * the same tick (e.g. from the other half of a door) is ignored.
  */
 public class PowerListener implements Listener {
 
     private SecretDoors plugin;
 
+    // Key blocks of powered secret doors and trapdoors, per world, mapped to their rising edge.  Entries are removed
+    // on the falling edge, and when their chunk or world unloads.  Guarded by its own lock, edges of different regions
+    // may be handled concurrently on region threaded servers.
+    private final Map<UUID, LongObjectMap<RisingEdge>> powered = new HashMap<>();
+
+    private static final class RisingEdge {
+        final long key;
+        final long tick;
+
+        RisingEdge(long key, long tick) {
+            this.key = key;
+            this.tick = tick;
+        }
+    }
+
     public PowerListener(SecretDoors plugin) {
         this.plugin = plugin;
     }
 
-    // NOTE: This implementation does not currently support SecretTrapdoors
     @EventHandler
     public void onBlockPowered(BlockRedstoneEvent event) {
-        Block door = event.getBlock();
-        if (SecretDoorHelper.isValidDoor(door) &&
-            plugin.getConfig().getBoolean(SecretDoors.CONFIG_ENABLE_REDSTONE))
-        {
-
-            if (SecretDoors.DEBUG) {
-                System.out.println("Redstone handler called:\n" +
-                        "\tisOpened == " + isOpenedDoor(door) +
-                        "\n\tisPowered == " + door.isBlockPowered()
-                );
-            }
+        boolean rising = event.getNewCurrent() > 0;
+        // Level changes within powered (or unpowered) don't open or close anything.
+        if ((event.getOldCurrent() > 0) == rising)
+            return;
+        if (!plugin.getSettings().isRedstoneEnabled())
+            return;
+
+        Metrics metrics = plugin.getMetrics();
+        long start = metrics.start();
+        onEdge(event.getBlock(), rising);
+        metrics.stop(Metrics.Timer.BLOCK_POWERED, start);
+    }
+
+    // Handles a rising or falling edge at the received block.
+    private void onEdge(Block door, boolean rising) {
+        Material type = door.getType();
+        Block key;
+        if (SecretDoorHelper.isValidDoor(type))
+            key = SecretDoorHelper.getKeyFromBlock(door);
+        else if (SecretDoorHelper.isValidTrapDoor(type))
+            key = door;
+        else
+            return;
+
+        if (SecretDoors.DEBUG) {
+            System.out.println("Redstone handler called:\n" +
+                    "\trising == " + rising +
+                    "\n\tkey == " + key.getLocation()
+            );
+        }
 
-            Block key = SecretDoorHelper.getKeyFromBlock(door);
+        long now = plugin.getCurrentTick();
+        UUID uid = key.getWorld().getUID();
+        long packed = BlockKeys.pack(key);
 
-            // open the door
-            if (!isOpenedDoor(door) && plugin.canBeSecretDoor(door) && !plugin.isSecretDoor(key)) {
-                plugin.addDoor(new SecretDoor(door, door.getRelative(SecretDoorHelper.getDoorFace(door)),
-                               SecretDoorHelper.Orientation.DOOR_FIRST,
-                               plugin.shouldPreserveAttachments()
-                )).open();
+        if (rising) {
+            RisingEdge previous;
+            synchronized (powered) {
+                LongObjectMap<RisingEdge> worldPowered = powered.get(uid);
+                previous = worldPowered == null ? null : worldPowered.get(packed);
             }
-
-            // close the door
-            else if (isOpenedDoor(door) && plugin.isSecretDoor(key)) {
-                plugin.closeDoor(key);
+            // Already handled this tick.
+            if (previous != null && previous.tick == now)
+                return;
+
+            // open the door - or keep it open if closing it is still pending
+            if (!plugin.keepOpen(key)) {
+                if (SecretDoorHelper.isValidDoor(type) && plugin.canBeSecretDoor(door)) {
+                    plugin.queueOpenDoor(new SecretDoor(door, door.getRelative(SecretDoorHelper.getDoorFace(door)),
+                                         SecretDoorHelper.Orientation.DOOR_FIRST,
+                                         plugin.shouldPreserveAttachments()
+                    ));
+                } else if (SecretDoorHelper.isValidTrapDoor(type) && plugin.canBeSecretTrapdoor(door)) {
+                    plugin.queueOpenDoor(new SecretTrapdoor(door, door.getRelative(BlockFace.UP), true));
+                } else {
+                    // Not a secret door - nothing to remember until its falling edge.
+                    return;
+                }
             }
-        } else if (SecretDoorHelper.isValidTrapDoor(door) &&
-                plugin.getConfig().getBoolean(SecretDoors.CONFIG_ENABLE_REDSTONE)) {
-
-//////////////////////////////////////////////////////////////////////
-            if (SecretDoors.DEBUG) {
-                System.out.println("Redstone handler called:\n" +
-                        "\tisOpened == " + isOpenedTrapDoor(door) +
-                        "\n\tisPowered == " + door.isBlockPowered()
-                );
+            synchronized (powered) {
+                powered.computeIfAbsent(uid, (u) -> new LongObjectMap<>()).put(packed, new RisingEdge(packed, now));
             }
-
-            Block key = SecretDoorHelper.getKeyFromBlock(door);
-
-            // open the door
-            if (!isOpenedTrapDoor(door) && plugin.canBeSecretTrapdoor(door) && !plugin.isSecretDoor(key)) {
-                plugin.addDoor(new SecretTrapdoor(door, door.getRelative(BlockFace.UP),true)).open();
+        } else {
+            RisingEdge edge;
+            synchronized (powered) {
+                LongObjectMap<RisingEdge> worldPowered = powered.get(uid);
+                edge = worldPowered == null ? null : worldPowered.remove(packed);
+                if (worldPowered != null && worldPowered.isEmpty())
+                    powered.remove(uid);
             }
 
-            // close the door
-            else if (isOpenedTrapDoor(door) && plugin.isSecretDoor(key)) {
-                plugin.closeDoor(key);
-            }
+            // close the door, but not before it was held open for the configured minimum
+            if (!plugin.isSecretDoor(key))
+                return;
+            long held = edge == null ? Long.MAX_VALUE : now - edge.tick;
+            int minHold = plugin.getSettings().getRedstoneMinHoldTicks();
+            if (held < minHold)
+                plugin.closeDoorLater(key, minHold - held);
+            else
+                plugin.queueCloseDoor(key);
         }
     }
 
-    // return Returns true if the door is opened.
-    // Assumes that door has material type is a valid door
-    private boolean isOpenedDoor(Block door) {
-        return ((Door)SecretDoorHelper.getKeyFromBlock(door).getBlockData()).isOpen();
+    /** Drops the rising edges of doors in an unloading chunk, whose doors are closed as it unloads. */
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onChunkUnload(ChunkUnloadEvent event) {
+        Chunk chunk = event.getChunk();
+        long chunkKey = BlockKeys.chunkKey(chunk.getX(), chunk.getZ());
+        UUID uid = event.getWorld().getUID();
+        synchronized (powered) {
+            LongObjectMap<RisingEdge> worldPowered = powered.get(uid);
+            if (worldPowered == null)
+                return;
+            List<RisingEdge> unloaded = new ArrayList<>();
+            worldPowered.forEachValue((e) -> {
+                if (BlockKeys.chunkKeyOf(e.key) == chunkKey)
+                    unloaded.add(e);
+            });
+            for (RisingEdge e : unloaded) {
+                worldPowered.remove(e.key);
+            }
+            if (worldPowered.isEmpty())
+                powered.remove(uid);
+        }
     }
 
-    private boolean isOpenedTrapDoor(Block door) {
-        return ((TrapDoor)SecretDoorHelper.getKeyFromTrapDoorBlock(door).getBlockData()).isOpen();
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onWorldUnload(WorldUnloadEvent event) {
+        synchronized (powered) {
+            powered.remove(event.getWorld().getUID());
+        }
     }
-
 }
@@ -0,0 +1,80 @@
+package io.github.smank.secretdoors.listeners;
+
+import io.github.smank.secretdoors.SecretDoors;
+import org.bukkit.block.Block;
+import org.bukkit.block.BlockFace;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.Listener;
+import org.bukkit.event.block.BlockExplodeEvent;
+import org.bukkit.event.block.BlockFromToEvent;
+import org.bukkit.event.block.BlockPistonExtendEvent;
+import org.bukkit.event.block.BlockPistonRetractEvent;
+import org.bukkit.event.entity.EntityExplodeEvent;
+
+import java.util.List;
+
+/**
+ * ProtectionListener keeps explosions, pistons and flowing liquids out of the passages of opened SecretOpenables.
+ * Their concealing blocks are AIR while they are open, and closing them only puts back what is still AIR, so anything
+ * moved into a passage would otherwise break the door for good.
+ * Every handler returns after one check while no door is open; liquid flow in particular fires constantly.
+ */
+public class ProtectionListener implements Listener {
+
+    private SecretDoors plugin;
+
+    public ProtectionListener(SecretDoors plugin) {
+        this.plugin = plugin;
+    }
+
+    /** Water and lava never flow into a passage. */
+    @EventHandler(priority = EventPriority.HIGH, ignoreCancelled = true)
+    public void onBlockFromTo(BlockFromToEvent event) {
+        if (plugin.isProtectedPassage(event.getToBlock()))
+            event.setCancelled(true);
+    }
+
+    /** TNT, creepers, etc. leave the blocks of a passage alone, the rest of the explosion happens. */
+    @EventHandler(priority = EventPriority.HIGH, ignoreCancelled = true)
+    public void onEntityExplode(EntityExplodeEvent event) {
+        removeProtected(event.blockList());
+    }
+
+    /** Beds, respawn anchors, etc. leave the blocks of a passage alone, the rest of the explosion happens. */
+    @EventHandler(priority = EventPriority.HIGH, ignoreCancelled = true)
+    public void onBlockExplode(BlockExplodeEvent event) {
+        removeProtected(event.blockList());
+    }
+
+    /** A piston may not push blocks, or its head, into a passage. */
+    @EventHandler(priority = EventPriority.HIGH, ignoreCancelled = true)
+    public void onPistonExtend(BlockPistonExtendEvent event) {
+        BlockFace direction = event.getDirection();
+        if (plugin.isProtectedPassage(event.getBlock().getRelative(direction)) || movesProtected(event.getBlocks(), direction))
+            event.setCancelled(true);
+    }
+
+    /** A sticky piston may not pull blocks into a passage. */
+    @EventHandler(priority = EventPriority.HIGH, ignoreCancelled = true)
+    public void onPistonRetract(BlockPistonRetractEvent event) {
+        if (movesProtected(event.getBlocks(), event.getDirection()))
+            event.setCancelled(true);
+    }
+
+    private void removeProtected(List<Block> blocks) {
+        for (int i = blocks.size() - 1; i >= 0; i--) {
+            if (plugin.isProtectedPassage(blocks.get(i)))
+                blocks.remove(i);
+        }
+    }
+
+    // Returns true if any of the received blocks is part of a passage or is moved into one.
+    private boolean movesProtected(List<Block> blocks, BlockFace direction) {
+        for (Block b : blocks) {
+            if (plugin.isProtectedPassage(b) || plugin.isProtectedPassage(b.getRelative(direction)))
+                return true;
+        }
+        return false;
+    }
+}
@@ -0,0 +1,44 @@
+package io.github.smank.secretdoors.listeners;
+
+import io.github.smank.secretdoors.SecretDoors;
+import org.bukkit.Chunk;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.Listener;
+import org.bukkit.event.world.ChunkLoadEvent;
+import org.bukkit.event.world.ChunkUnloadEvent;
+import org.bukkit.event.world.WorldUnloadEvent;
+
+/**
+ * WorldListener closes opened SecretOpenables before the chunks or worlds they are in are unloaded, so that the
+ * plugin doesn't keep unloaded worlds alive and doesn't have to load chunks again just to close doors.
+ * It also keeps the index of door positions in step with the loaded chunks, and closes doors left open by the last
+ * shutdown as their chunks load.
+ */
+public class WorldListener implements Listener {
+
+    private SecretDoors plugin;
+
+    public WorldListener(SecretDoors plugin) {
+        this.plugin = plugin;
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onChunkLoad(ChunkLoadEvent event) {
+        plugin.indexChunk(event.getChunk());
+        plugin.restoreDoorsInChunk(event.getChunk());
+    }
+
+    @EventHandler
+    public void onChunkUnload(ChunkUnloadEvent event) {
+        Chunk chunk = event.getChunk();
+        plugin.closeDoorsInChunk(event.getWorld(), chunk.getX(), chunk.getZ());
+        plugin.unindexChunk(event.getWorld(), chunk.getX(), chunk.getZ());
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onWorldUnload(WorldUnloadEvent event) {
+        plugin.closeDoorsInWorld(event.getWorld());
+        plugin.unindexWorld(event.getWorld());
+    }
+}
@@ -0,0 +1,160 @@
+package io.github.smank.secretdoors.metrics;
+
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Histogram of durations in nanoseconds with fixed buckets, safe to record into from any thread.
+ * Each power of two is split into 4 linear sub-buckets (like an HdrHistogram with 2 significant bits), so reported
+ * percentiles are at most 25% above the real value.  Durations of 2^36 ns (about 69 seconds) and more share the last
+ * bucket.
+ */
+public final class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 2;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int MAX_EXPONENT = 36;
+    private static final int BUCKETS = index(1L << MAX_EXPONENT) + 1;
+
+    private final LongAdder[] buckets = new LongAdder[BUCKETS];
+    private final LongAdder count = new LongAdder();
+    private final LongAdder total = new LongAdder();
+    private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+    public LatencyHistogram() {
+        for (int i = 0; i < BUCKETS; i++) {
+            buckets[i] = new LongAdder();
+        }
+    }
+
+    // Values below SUB_BUCKETS have a bucket each, above that each power of two has SUB_BUCKETS buckets.
+    private static int index(long nanos) {
+        if (nanos < SUB_BUCKETS)
+            return (int) Math.max(0, nanos);
+        int exponent = Math.min(63 - Long.numberOfLeadingZeros(nanos), MAX_EXPONENT);
+        if (exponent == MAX_EXPONENT)
+            nanos = 1L << MAX_EXPONENT;
+        int sub = (int) (nanos >>> (exponent - SUB_BUCKET_BITS)) - SUB_BUCKETS;
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + sub;
+    }
+
+    // Returns the largest value that falls into the received bucket.
+    private static long upperBound(int index) {
+        if (index < SUB_BUCKETS)
+            return index;
+        int exponent = index / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        int sub = index % SUB_BUCKETS;
+        if (exponent >= MAX_EXPONENT)
+            return Long.MAX_VALUE;
+        return ((long) (SUB_BUCKETS + sub + 1) << (exponent - SUB_BUCKET_BITS)) - 1;
+    }
+
+    /**
+     * Records one duration.
+     */
+    public void record(long nanos) {
+        buckets[index(nanos)].increment();
+        count.increment();
+        total.add(nanos);
+        max.accumulate(nanos);
+    }
+
+    /**
+     * @return the number of recorded durations.
+     */
+    public long getCount() {
+        return count.sum();
+    }
+
+    public void reset() {
+        for (LongAdder bucket : buckets) {
+            bucket.reset();
+        }
+        count.reset();
+        total.reset();
+        max.reset();
+    }
+
+    /**
+     * @return the current values.  Recordings made while the snapshot is taken may be partially included.
+     */
+    public Snapshot snapshot() {
+        long[] counts = new long[BUCKETS];
+        long n = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            counts[i] = buckets[i].sum();
+            n += counts[i];
+        }
+        return new Snapshot(n, total.sum(), max.get(),
+                percentile(counts, n, 0.5), percentile(counts, n, 0.9),
+                percentile(counts, n, 0.99), percentile(counts, n, 0.999));
+    }
+
+    private static long percentile(long[] counts, long n, double p) {
+        if (n == 0)
+            return 0;
+        long rank = (long) Math.ceil(p * n);
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= rank)
+                return upperBound(i);
+        }
+        return upperBound(counts.length - 1);
+    }
+
+    /**
+     * Immutable view of a histogram, durations in nanoseconds.  Percentiles are bucket upper bounds.
+     */
+    public static final class Snapshot {
+        private final long count;
+        private final long totalNanos;
+        private final long maxNanos;
+        private final long p50Nanos;
+        private final long p90Nanos;
+        private final long p99Nanos;
+        private final long p999Nanos;
+
+        Snapshot(long count, long totalNanos, long maxNanos, long p50Nanos, long p90Nanos, long p99Nanos, long p999Nanos) {
+            this.count = count;
+            this.totalNanos = totalNanos;
+            this.maxNanos = maxNanos;
+            this.p50Nanos = Math.min(p50Nanos, maxNanos);
+            this.p90Nanos = Math.min(p90Nanos, maxNanos);
+            this.p99Nanos = Math.min(p99Nanos, maxNanos);
+            this.p999Nanos = Math.min(p999Nanos, maxNanos);
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public long getTotalNanos() {
+            return totalNanos;
+        }
+
+        public long getMeanNanos() {
+            return count == 0 ? 0 : totalNanos / count;
+        }
+
+        public long getMaxNanos() {
+            return maxNanos;
+        }
+
+        public long getP50Nanos() {
+            return p50Nanos;
+        }
+
+        public long getP90Nanos() {
+            return p90Nanos;
+        }
+
+        public long getP99Nanos() {
+            return p99Nanos;
+        }
+
+        public long getP999Nanos() {
+            return p999Nanos;
+        }
+    }
+}
@@ -0,0 +1,208 @@
+package io.github.smank.secretdoors.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Counters and latency histograms of the plugin's event handlers and door operations.
+ * Timing a path costs two System.nanoTime calls and a few uncontended LongAdder increments; when disabled
+ * {@link #start()} and {@link #stop(Timer, long)} do nothing but a field read.
+ * <pre>
+ *   long start = metrics.start();
+ *   ...
+ *   metrics.stop(Metrics.Timer.BLOCK_BREAK, start);
+ * </pre>
+ */
+public final class Metrics implements SecretDoorsMetricsMXBean {
+
+    public static final String OBJECT_NAME = "io.github.smank.secretdoors:type=Metrics";
+
+    /**
+     * Timed code paths.  The listener paths are named after the handler methods.
+     */
+    public enum Timer {
+        DOOR_CLICK("onDoorClick"),
+        ATTACHABLE_CLICK("onAttachableClick"),
+        DOOR_BLOCK_CLICK("onDoorBlockClick"),
+        TRAPDOOR_CLICK("onTrapdoorClick"),
+        REGISTERED_CLICK("onRegisteredClick"),
+        // Only rising and falling edges, level changes return before being timed.
+        BLOCK_POWERED("onBlockPowered"),
+        BLOCK_BREAK("onBlockBreak"),
+        BLOCK_PLACE("onBlockPlace"),
+        OPEN("open"),
+        CLOSE("close"),
+        // Timers and the door queue, including the open and close calls made by it.
+        TICK("tick"),
+        RELOAD("applyReload");
+
+        private final String label;
+
+        Timer(String label) {
+            this.label = label;
+        }
+
+        public String getLabel() {
+            return label;
+        }
+    }
+
+    // Returned by start() when disabled.
+    private static final long NOT_TIMED = Long.MIN_VALUE;
+
+    private final LatencyHistogram[] latencies = new LatencyHistogram[Timer.values().length];
+
+    private volatile boolean enabled = true;
+    private volatile long resetAt = System.nanoTime();
+
+    // Sampled on the main thread by sample(), so other threads (commands, JMX) never touch the plugin's state.
+    private volatile int openDoors;
+    private volatile int pendingTimers;
+    private volatile int queuedOperations;
+    private volatile long togglesLastSecond;
+    private int ticks = 0;
+    private long togglesAtSecond = 0;
+
+    public Metrics() {
+        for (int i = 0; i < latencies.length; i++) {
+            latencies[i] = new LatencyHistogram();
+        }
+    }
+
+    @Override
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    /**
+     * @return the start time to pass to {@link #stop(Timer, long)}.
+     */
+    public long start() {
+        return enabled ? System.nanoTime() : NOT_TIMED;
+    }
+
+    /**
+     * Records the time since {@code start} for the received path.
+     */
+    public void stop(Timer timer, long start) {
+        if (start != NOT_TIMED)
+            latencies[timer.ordinal()].record(System.nanoTime() - start);
+    }
+
+    /**
+     * Updates the gauges.  Called once per tick on the main thread.
+     */
+    public void sample(int openDoors, int pendingTimers, int queuedOperations) {
+        if (!enabled)
+            return;
+        this.openDoors = openDoors;
+        this.pendingTimers = pendingTimers;
+        this.queuedOperations = queuedOperations;
+        if (++ticks == 20) {
+            ticks = 0;
+            long toggles = getOpened() + getClosed();
+            togglesLastSecond = Math.max(0, toggles - togglesAtSecond);
+            togglesAtSecond = toggles;
+        }
+    }
+
+    public LatencyHistogram.Snapshot getLatency(Timer timer) {
+        return latencies[timer.ordinal()].snapshot();
+    }
+
+    /**
+     * @return the nanoTime of the last {@link #reset()}, or of the creation of this.
+     */
+    public long getResetAt() {
+        return resetAt;
+    }
+
+    @Override
+    public int getOpenDoors() {
+        return openDoors;
+    }
+
+    @Override
+    public int getPendingTimers() {
+        return pendingTimers;
+    }
+
+    @Override
+    public int getQueuedOperations() {
+        return queuedOperations;
+    }
+
+    @Override
+    public long getOpened() {
+        return latencies[Timer.OPEN.ordinal()].getCount();
+    }
+
+    @Override
+    public long getClosed() {
+        return latencies[Timer.CLOSE.ordinal()].getCount();
+    }
+
+    @Override
+    public long getTogglesLastSecond() {
+        return togglesLastSecond;
+    }
+
+    @Override
+    public Map<String, LatencyHistogram.Snapshot> getLatencies() {
+        Map<String, LatencyHistogram.Snapshot> all = new LinkedHashMap<>();
+        for (Timer timer : Timer.values()) {
+            LatencyHistogram.Snapshot s = getLatency(timer);
+            if (s.getCount() > 0)
+                all.put(timer.getLabel(), s);
+        }
+        return all;
+    }
+
+    @Override
+    public void reset() {
+        for (LatencyHistogram h : latencies) {
+            h.reset();
+        }
+        resetAt = System.nanoTime();
+    }
+
+    /**
+     * Registers this with the platform MBeanServer as {@value #OBJECT_NAME}.
+     * @return false if that failed, which is logged.
+     */
+    public boolean register(Logger logger) {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(OBJECT_NAME);
+            // Left over by a plugin reload that did not disable us.
+            if (server.isRegistered(name))
+                server.unregisterMBean(name);
+            server.registerMBean(this, name);
+            return true;
+        } catch (JMException e) {
+            logger.log(Level.WARNING, "Could not register metrics with JMX", e);
+            return false;
+        }
+    }
+
+    public void unregister(Logger logger) {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(OBJECT_NAME);
+            if (server.isRegistered(name))
+                server.unregisterMBean(name);
+        } catch (JMException e) {
+            logger.log(Level.WARNING, "Could not unregister metrics from JMX", e);
+        }
+    }
+}
@@ -0,0 +1,30 @@
+package io.github.smank.secretdoors.metrics;
+
+import java.util.Map;
+
+/**
+ * JMX view of {@link Metrics}, registered as {@value Metrics#OBJECT_NAME} while the plugin is enabled.
+ */
+public interface SecretDoorsMetricsMXBean {
+
+    boolean isEnabled();
+
+    int getOpenDoors();
+
+    int getPendingTimers();
+
+    int getQueuedOperations();
+
+    long getOpened();
+
+    long getClosed();
+
+    long getTogglesLastSecond();
+
+    /**
+     * @return a snapshot of every timed path that has been called, by name.
+     */
+    Map<String, LatencyHistogram.Snapshot> getLatencies();
+
+    void reset();
+}
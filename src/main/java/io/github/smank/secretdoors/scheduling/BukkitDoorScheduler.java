@@ -0,0 +1,54 @@
+package io.github.smank.secretdoors.scheduling;
+
+import org.bukkit.World;
+import org.bukkit.plugin.Plugin;
+
+/**
+ * DoorScheduler for servers with a single main thread, on the BukkitScheduler.
+ */
+final class BukkitDoorScheduler implements DoorScheduler {
+
+    private final Plugin plugin;
+
+    BukkitDoorScheduler(Plugin plugin) {
+        this.plugin = plugin;
+    }
+
+    @Override
+    public boolean isRegionThreaded() {
+        return false;
+    }
+
+    @Override
+    public boolean isOwnedByCurrentThread(World world, int chunkX, int chunkZ) {
+        return plugin.getServer().isPrimaryThread();
+    }
+
+    @Override
+    public void runAt(World world, int chunkX, int chunkZ, Runnable task) {
+        if (plugin.getServer().isPrimaryThread())
+            task.run();
+        else
+            plugin.getServer().getScheduler().runTask(plugin, task);
+    }
+
+    @Override
+    public void runGlobal(Runnable task) {
+        plugin.getServer().getScheduler().runTask(plugin, task);
+    }
+
+    @Override
+    public void runGlobalTimer(Runnable task, long delay, long period) {
+        plugin.getServer().getScheduler().runTaskTimer(plugin, task, delay, period);
+    }
+
+    @Override
+    public void runAsync(Runnable task) {
+        plugin.getServer().getScheduler().runTaskAsynchronously(plugin, task);
+    }
+
+    @Override
+    public void cancelAll() {
+        plugin.getServer().getScheduler().cancelTasks(plugin);
+    }
+}
@@ -0,0 +1,59 @@
+package io.github.smank.secretdoors.scheduling;
+
+import org.bukkit.World;
+import org.bukkit.plugin.Plugin;
+
+/**
+ * Where the plugin's work runs.  On Bukkit/Spigot/Paper everything that touches the world runs on the main thread; on
+ * region threaded servers (Folia) blocks may only be touched by the thread owning their region, and there is no main
+ * thread at all.  Every task the plugin schedules goes through this, so the rest of the code does not need to know
+ * which kind of server it runs on.
+ */
+public interface DoorScheduler {
+
+    /**
+     * @return a scheduler for the server the received plugin runs on.
+     * @throws IllegalStateException if the server is region threaded but its scheduler API could not be found.
+     */
+    static DoorScheduler create(Plugin plugin) {
+        return FoliaDoorScheduler.isRegionThreadedServer() ? new FoliaDoorScheduler(plugin) : new BukkitDoorScheduler(plugin);
+    }
+
+    /**
+     * @return true if the server ticks regions on separate threads.
+     */
+    boolean isRegionThreaded();
+
+    /**
+     * @return true if the current thread may touch the blocks of the received chunk.
+     */
+    boolean isOwnedByCurrentThread(World world, int chunkX, int chunkZ);
+
+    /**
+     * Runs {@code task} on the thread owning the received chunk: at once if that is the current thread, otherwise as
+     * soon as possible on that thread.
+     */
+    void runAt(World world, int chunkX, int chunkZ, Runnable task);
+
+    /**
+     * Runs {@code task} on the next tick, on the main thread or on the global region thread.  Tasks run there must not
+     * touch blocks, use {@link #runAt(World, int, int, Runnable)} for that.
+     */
+    void runGlobal(Runnable task);
+
+    /**
+     * Runs {@code task} every {@code period} ticks starting in {@code delay} ticks, like
+     * {@link #runGlobal(Runnable)}.
+     */
+    void runGlobalTimer(Runnable task, long delay, long period);
+
+    /**
+     * Runs {@code task} off every tick thread.
+     */
+    void runAsync(Runnable task);
+
+    /**
+     * Cancels every task scheduled by the plugin that has not run yet.
+     */
+    void cancelAll();
+}
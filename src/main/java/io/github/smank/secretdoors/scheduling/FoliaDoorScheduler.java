@@ -0,0 +1,129 @@
+package io.github.smank.secretdoors.scheduling;
+
+import org.bukkit.Server;
+import org.bukkit.World;
+import org.bukkit.plugin.Plugin;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.function.Consumer;
+
+/**
+ * DoorScheduler for region threaded servers (Folia).
+ * The plugin is compiled against the Spigot API, which has none of Folia's schedulers, so they are looked up by
+ * reflection once and called through the resolved Methods.
+ */
+final class FoliaDoorScheduler implements DoorScheduler {
+
+    // Only present on region threaded servers.
+    private static final String REGIONIZED_SERVER = "io.papermc.paper.threadedregions.RegionizedServer";
+    private static final String SCHEDULER_PACKAGE = "io.papermc.paper.threadedregions.scheduler.";
+
+    private final Plugin plugin;
+
+    private final Object regionScheduler;
+    private final Object globalScheduler;
+    private final Object asyncScheduler;
+
+    private final Method isOwnedByCurrentRegion;
+    private final Method regionExecute;
+    private final Method globalExecute;
+    private final Method globalRunAtFixedRate;
+    private final Method globalCancelTasks;
+    private final Method asyncRunNow;
+    private final Method asyncCancelTasks;
+
+    /**
+     * @return true if the server the plugin runs on is region threaded.
+     */
+    static boolean isRegionThreadedServer() {
+        try {
+            Class.forName(REGIONIZED_SERVER);
+            return true;
+        } catch (ClassNotFoundException e) {
+            return false;
+        }
+    }
+
+    FoliaDoorScheduler(Plugin plugin) {
+        this.plugin = plugin;
+        Server server = plugin.getServer();
+        try {
+            Class<?> region = Class.forName(SCHEDULER_PACKAGE + "RegionScheduler");
+            Class<?> global = Class.forName(SCHEDULER_PACKAGE + "GlobalRegionScheduler");
+            Class<?> async = Class.forName(SCHEDULER_PACKAGE + "AsyncScheduler");
+
+            // Looked up on the API interfaces, the implementing classes need not be accessible.
+            this.regionScheduler = Server.class.getMethod("getRegionScheduler").invoke(server);
+            this.globalScheduler = Server.class.getMethod("getGlobalRegionScheduler").invoke(server);
+            this.asyncScheduler = Server.class.getMethod("getAsyncScheduler").invoke(server);
+
+            this.isOwnedByCurrentRegion = Server.class.getMethod("isOwnedByCurrentRegion", World.class, int.class, int.class);
+            this.regionExecute = region.getMethod("execute", Plugin.class, World.class, int.class, int.class, Runnable.class);
+            this.globalExecute = global.getMethod("execute", Plugin.class, Runnable.class);
+            this.globalRunAtFixedRate = global.getMethod("runAtFixedRate", Plugin.class, Consumer.class, long.class, long.class);
+            this.globalCancelTasks = global.getMethod("cancelTasks", Plugin.class);
+            this.asyncRunNow = async.getMethod("runNow", Plugin.class, Consumer.class);
+            this.asyncCancelTasks = async.getMethod("cancelTasks", Plugin.class);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Region threaded server without the expected scheduler API", e);
+        }
+    }
+
+    @Override
+    public boolean isRegionThreaded() {
+        return true;
+    }
+
+    @Override
+    public boolean isOwnedByCurrentThread(World world, int chunkX, int chunkZ) {
+        return (Boolean) invoke(isOwnedByCurrentRegion, plugin.getServer(), world, chunkX, chunkZ);
+    }
+
+    @Override
+    public void runAt(World world, int chunkX, int chunkZ, Runnable task) {
+        if (isOwnedByCurrentThread(world, chunkX, chunkZ))
+            task.run();
+        else
+            invoke(regionExecute, regionScheduler, plugin, world, chunkX, chunkZ, task);
+    }
+
+    @Override
+    public void runGlobal(Runnable task) {
+        invoke(globalExecute, globalScheduler, plugin, task);
+    }
+
+    @Override
+    public void runGlobalTimer(Runnable task, long delay, long period) {
+        // Folia does not accept an initial delay below one tick.
+        Consumer<Object> consumer = (scheduledTask) -> task.run();
+        invoke(globalRunAtFixedRate, globalScheduler, plugin, consumer, Math.max(1L, delay), period);
+    }
+
+    @Override
+    public void runAsync(Runnable task) {
+        Consumer<Object> consumer = (scheduledTask) -> task.run();
+        invoke(asyncRunNow, asyncScheduler, plugin, consumer);
+    }
+
+    @Override
+    public void cancelAll() {
+        invoke(globalCancelTasks, globalScheduler, plugin);
+        invoke(asyncCancelTasks, asyncScheduler, plugin);
+    }
+
+    private static Object invoke(Method method, Object target, Object... args) {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException)
+                throw (RuntimeException) cause;
+            if (cause instanceof Error)
+                throw (Error) cause;
+            throw new IllegalStateException(cause);
+        } catch (IllegalAccessException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,348 @@
+package io.github.smank.secretdoors.storage;
+
+import io.github.smank.secretdoors.util.BlockKeys;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only journal of opened and closed SecretOpenables, used to restore doors that were still open when the
+ * server stopped without closing them (crash, kill, power loss).
+ * <p>
+ * Records are queued by the main thread and written by a single background thread.  Every batch of queued records is
+ * written with one fsync, and the journal is rewritten with only the currently opened doors whenever it has grown
+ * well beyond them.  Nothing is read or written on the calling thread.
+ * <p>
+ * File layout: a header ({@link #MAGIC}, {@link #VERSION}) followed by frames of
+ * {@code [int length][byte type][payload][int crc32]}.  A torn or corrupt frame ends the replay.
+ * <p>
+ * The whole journal is replayed and compacted by the writer thread when it starts, and the doors left open are kept in
+ * memory by chunk until their chunk loads.  Lookups made before the replay finished are queued until then.
+ */
+public final class DoorJournal implements DoorStorage {
+
+    private static final int MAGIC = 0x53444A4C; // "SDJL"
+    // 2: signs are stored as SignSnapshots.  Version 1 journals are still replayed, and rewritten as version 2.
+    private static final short VERSION = 2;
+
+    private static final byte OPEN  = 1;
+    private static final byte CLOSE = 2;
+    // Never written - a lookup of doors left open, queued until the replay finished.
+    private static final byte LOAD  = 3;
+    // Never written - tells the writer thread to stop.
+    private static final byte STOP  = 4;
+
+    // Compact once the journal has this many bytes more than the live records need...
+    private static final long COMPACT_MIN_GARBAGE = 256 * 1024;
+    // ... or at the latest after this long if there is anything to compact at all.
+    private static final long COMPACT_INTERVAL_MILLIS = TimeUnit.MINUTES.toMillis(5);
+
+    private final File file;
+    private final Logger logger;
+
+    private final BlockingQueue<Op> queue = new LinkedBlockingQueue<>();
+    // Records of the doors left open by the last shutdown, by world and chunk key, until their chunk loads.  null until
+    // the writer thread has replayed the journal, lookups are queued until then.
+    private volatile Map<WorldPosition, List<DoorRecord>> leftOpen;
+    private Thread writer;
+    private volatile boolean running;
+
+    //// Writer thread state
+
+    private FileOutputStream fileOut;
+    private DataOutputStream out;
+    // Encoded frames of every currently opened door, in opening order.  Used for compaction.
+    private final Map<WorldPosition, byte[]> live = new LinkedHashMap<>();
+    private long liveBytes = 0;
+    private long fileBytes = 0;
+    private long lastCompaction = System.currentTimeMillis();
+
+    public DoorJournal(File file, Logger logger) {
+        this.file = file;
+        this.logger = logger;
+    }
+
+    /**
+     * Starts the writer thread, which replays and compacts the journal.
+     */
+    @Override
+    public void open() throws IOException {
+        running = true;
+        writer = new Thread(this::run, "SecretDoors-Journal");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    @Override
+    public void recordOpen(DoorRecord record) {
+        if (!running)
+            return;
+        queue.add(new Op(OPEN, new WorldPosition(record.getWorld(), record.getKey()), record, null));
+    }
+
+    @Override
+    public void recordClose(UUID world, long key) {
+        if (!running)
+            return;
+        queue.add(new Op(CLOSE, new WorldPosition(world, key), null, null));
+    }
+
+    /**
+     * Hands out the records kept in memory since the replay - a record stays in the journal until its door is closed.
+     * Until the replay finished the lookup is queued and done by the writer thread.
+     */
+    @Override
+    public void loadLeftOpen(UUID world, int chunkX, int chunkZ, Consumer<List<DoorRecord>> loaded) {
+        if (!running)
+            return;
+        WorldPosition chunk = new WorldPosition(world, BlockKeys.chunkKey(chunkX, chunkZ));
+        Map<WorldPosition, List<DoorRecord>> records = leftOpen;
+        if (records == null)
+            queue.add(new Op(LOAD, chunk, null, loaded));
+        else
+            load(records, chunk, loaded);
+    }
+
+    private static void load(Map<WorldPosition, List<DoorRecord>> leftOpen, WorldPosition chunk,
+                             Consumer<List<DoorRecord>> loaded) {
+        if (leftOpen.isEmpty())
+            return;
+        List<DoorRecord> records = leftOpen.remove(chunk);
+        if (records != null)
+            loaded.accept(records);
+    }
+
+    /**
+     * Writes everything still queued, compacts the journal and stops the writer thread.
+     */
+    @Override
+    public void close() {
+        running = false;
+        if (writer == null)
+            return;
+        // Not interrupting the writer, that would close the file channel under it.
+        queue.add(new Op(STOP, null, null, null));
+        try {
+            writer.join(TimeUnit.SECONDS.toMillis(10));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        writer = null;
+    }
+
+    private void run() {
+        List<Op> batch = new ArrayList<>();
+        try {
+            recover();
+            boolean stop = false;
+            while (!stop) {
+                Op first;
+                try {
+                    first = queue.poll(1, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    break;
+                }
+                if (first != null) {
+                    batch.add(first);
+                    queue.drainTo(batch);
+                    stop = writeBatch(batch);
+                    batch.clear();
+                }
+
+                long garbage = fileBytes - liveBytes;
+                if (garbage > COMPACT_MIN_GARBAGE && garbage > liveBytes * 3
+                        || garbage > 0 && System.currentTimeMillis() - lastCompaction > COMPACT_INTERVAL_MILLIS) {
+                    compact();
+                }
+            }
+            compact();
+        } catch (IOException e) {
+            running = false;
+            queue.clear();
+            logger.log(Level.SEVERE, "Failed to read or write the open door journal"
+                    + " - opened doors will not survive a crash", e);
+        } finally {
+            closeQuietly();
+        }
+    }
+
+    // Replays the journal, keeps the doors left open for their chunks and compacts the journal to only them.
+    private void recover() throws IOException {
+        Map<WorldPosition, DoorRecord> open = new LinkedHashMap<>();
+        if (file.exists())
+            replay(open);
+
+        Map<WorldPosition, List<DoorRecord>> chunks = new ConcurrentHashMap<>();
+        for (Map.Entry<WorldPosition, DoorRecord> e : open.entrySet()) {
+            DoorRecord record = e.getValue();
+            byte[] frame = encode(OPEN, record);
+            live.put(e.getKey(), frame);
+            liveBytes += frame.length;
+            chunks.computeIfAbsent(new WorldPosition(record.getWorld(), BlockKeys.chunkKeyOf(record.getKey())),
+                    (k) -> new ArrayList<>()).add(record);
+        }
+        compact();
+        leftOpen = chunks;
+    }
+
+    // Returns true if the batch contained the STOP marker.
+    private boolean writeBatch(List<Op> batch) throws IOException {
+        boolean stop = false;
+        boolean written = false;
+        for (Op op : batch) {
+            if (op.type == STOP) {
+                stop = true;
+                continue;
+            }
+            if (op.type == LOAD) {
+                load(leftOpen, op.position, op.loaded);
+                continue;
+            }
+            written = true;
+            byte[] frame = op.type == OPEN ? encode(OPEN, op.record) : encodeClose(op.position);
+            out.write(frame);
+            fileBytes += frame.length;
+
+            byte[] previous = op.type == OPEN ? live.put(op.position, frame) : live.remove(op.position);
+            if (previous != null)
+                liveBytes -= previous.length;
+            if (op.type == OPEN)
+                liveBytes += frame.length;
+        }
+        if (written) {
+            out.flush();
+            // One fsync per batch, data only - the file length is recovered from the frames themselves.
+            fileOut.getChannel().force(false);
+        }
+        return stop;
+    }
+
+    // Rewrites the journal with only the live records and reopens it for appending.
+    private void compact() throws IOException {
+        closeQuietly();
+
+        File tmp = new File(file.getPath() + ".tmp");
+        try (FileOutputStream fos = new FileOutputStream(tmp);
+             DataOutputStream tmpOut = new DataOutputStream(new BufferedOutputStream(fos))) {
+            tmpOut.writeInt(MAGIC);
+            tmpOut.writeShort(VERSION);
+            for (byte[] frame : live.values()) {
+                tmpOut.write(frame);
+            }
+            tmpOut.flush();
+            fos.getChannel().force(true);
+        }
+        Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+        fileOut = new FileOutputStream(file, true);
+        out = new DataOutputStream(new BufferedOutputStream(fileOut));
+        fileBytes = liveBytes;
+        lastCompaction = System.currentTimeMillis();
+    }
+
+    private void replay(Map<WorldPosition, DoorRecord> open) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != MAGIC)
+                throw new IOException("Not a SecretDoors journal: " + file);
+            short version = in.readShort();
+            if (version < 1 || version > VERSION)
+                throw new IOException("Unsupported journal version " + version + " in " + file);
+
+            CRC32 crc = new CRC32();
+            while (true) {
+                byte[] body;
+                try {
+                    int length = in.readInt();
+                    if (length <= 0 || length > 1 << 20)
+                        break;
+                    body = new byte[length];
+                    in.readFully(body);
+                    crc.reset();
+                    crc.update(body);
+                    if (in.readInt() != (int) crc.getValue())
+                        break;
+                } catch (EOFException e) {
+                    break;
+                }
+
+                DataInputStream frame = new DataInputStream(new ByteArrayInputStream(body));
+                byte type = frame.readByte();
+                if (type == OPEN) {
+                    DoorRecord record = DoorRecord.read(frame, version);
+                    open.put(new WorldPosition(record.getWorld(), record.getKey()), record);
+                } else if (type == CLOSE) {
+                    open.remove(new WorldPosition(new UUID(frame.readLong(), frame.readLong()), frame.readLong()));
+                }
+            }
+        } catch (EOFException e) {
+            // Header itself was torn - nothing to replay.
+        }
+    }
+
+    private static byte[] encode(byte type, DoorRecord record) throws IOException {
+        ByteArrayOutputStream body = new ByteArrayOutputStream(128);
+        DataOutputStream out = new DataOutputStream(body);
+        out.writeByte(type);
+        record.write(out);
+        return frame(body.toByteArray());
+    }
+
+    private static byte[] encodeClose(WorldPosition position) throws IOException {
+        ByteArrayOutputStream body = new ByteArrayOutputStream(25);
+        DataOutputStream out = new DataOutputStream(body);
+        out.writeByte(CLOSE);
+        out.writeLong(position.world.getMostSignificantBits());
+        out.writeLong(position.world.getLeastSignificantBits());
+        out.writeLong(position.key);
+        return frame(body.toByteArray());
+    }
+
+    private static byte[] frame(byte[] body) throws IOException {
+        CRC32 crc = new CRC32();
+        crc.update(body);
+        ByteArrayOutputStream frame = new ByteArrayOutputStream(body.length + 8);
+        DataOutputStream out = new DataOutputStream(frame);
+        out.writeInt(body.length);
+        out.write(body);
+        out.writeInt((int) crc.getValue());
+        return frame.toByteArray();
+    }
+
+    private void closeQuietly() {
+        if (out == null)
+            return;
+        try {
+            out.flush();
+            fileOut.getChannel().force(false);
+            out.close();
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Failed to close the open door journal", e);
+        }
+        out = null;
+        fileOut = null;
+    }
+
+    private static final class Op {
+        final byte type;
+        final WorldPosition position;
+        final DoorRecord record;
+        final Consumer<List<DoorRecord>> loaded;
+
+        Op(byte type, WorldPosition position, DoorRecord record, Consumer<List<DoorRecord>> loaded) {
+            this.type = type;
+            this.position = position;
+            this.record = record;
+            this.loaded = loaded;
+        }
+    }
+}
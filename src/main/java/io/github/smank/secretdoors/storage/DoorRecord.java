@@ -0,0 +1,239 @@
+package io.github.smank.secretdoors.storage;
+
+import io.github.smank.secretdoors.util.BlockKeys;
+import org.bukkit.Bukkit;
+import org.bukkit.World;
+import org.bukkit.block.Block;
+import org.bukkit.block.data.BlockData;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.UUID;
+
+/**
+ * Everything needed to close an opened SecretOpenable without the object itself: the world, the key position and,
+ * for every block the SecretOpenable changed, its position and original BlockData (plus a {@link SignSnapshot} of
+ * signs).
+ * Entries are kept in restore order - concealing blocks first, then attachments, then the key.
+ */
+public final class DoorRecord {
+
+    /**
+     * Entry kind of a block that was replaced by AIR while the door is open.  Only restored if it is still AIR.
+     */
+    public static final byte HIDDEN = 0;
+
+    /**
+     * Entry kind of the door or trapdoor itself.  Only restored if the block still has the same Material type.
+     */
+    public static final byte KEY = 1;
+
+    private final UUID world;
+    private final long key;
+
+    private final byte[] kinds;
+    private final int[] xs;
+    private final int[] ys;
+    private final int[] zs;
+    // Captured BlockData for records created in game, serialised lazily on the journal thread.
+    private final BlockData[] data;
+    // BlockData strings for records read back from disk.
+    private final String[] dataStrings;
+    // Snapshot of every entry that is a sign, null otherwise.
+    private final SignSnapshot[] signs;
+
+    private DoorRecord(UUID world, long key, byte[] kinds, int[] xs, int[] ys, int[] zs, BlockData[] data,
+                       String[] dataStrings, SignSnapshot[] signs) {
+        this.world = world;
+        this.key = key;
+        this.kinds = kinds;
+        this.xs = xs;
+        this.ys = ys;
+        this.zs = zs;
+        this.data = data;
+        this.dataStrings = dataStrings;
+        this.signs = signs;
+    }
+
+    /**
+     * @return the UID of the world the door is in.
+     */
+    public UUID getWorld() {
+        return world;
+    }
+
+    /**
+     * @return the packed position (see {@link BlockKeys}) of the door's key block.
+     */
+    public long getKey() {
+        return key;
+    }
+
+    public int size() {
+        return kinds.length;
+    }
+
+    private String getDataString(int i) {
+        return dataStrings != null ? dataStrings[i] : data[i].getAsString();
+    }
+
+    /**
+     * Restores every recorded block that has not been changed by something else in the meantime.
+     * Must be called from the main thread.
+     * @param w The loaded world with UID {@link #getWorld()}.
+     * @throws IllegalArgumentException if a recorded BlockData string can't be parsed by this server.
+     */
+    public void restore(World w) {
+        for (int i = 0; i < kinds.length; i++) {
+            Block block = w.getBlockAt(xs[i], ys[i], zs[i]);
+            BlockData restored = data != null ? data[i] : Bukkit.createBlockData(dataStrings[i]);
+
+            if (kinds[i] == KEY) {
+                // Let physics run so the other half of a door follows.
+                if (block.getType() == restored.getMaterial())
+                    block.setBlockData(restored);
+                continue;
+            }
+
+            if (!block.getType().isAir())
+                continue;
+            block.setBlockData(restored, false);
+            if (signs[i] != null)
+                signs[i].restore(block);
+        }
+    }
+
+    /**
+     * Writes this record.  Safe to call from any thread.
+     */
+    void write(DataOutput out) throws IOException {
+        out.writeLong(world.getMostSignificantBits());
+        out.writeLong(world.getLeastSignificantBits());
+        out.writeLong(key);
+        out.writeByte(kinds.length);
+
+        int kx = BlockKeys.unpackX(key), ky = BlockKeys.unpackY(key), kz = BlockKeys.unpackZ(key);
+        for (int i = 0; i < kinds.length; i++) {
+            out.writeByte(kinds[i]);
+            // All involved blocks are right next to the key, so offsets fit in a byte.
+            out.writeByte(xs[i] - kx);
+            out.writeByte(ys[i] - ky);
+            out.writeByte(zs[i] - kz);
+            out.writeUTF(getDataString(i));
+
+            out.writeBoolean(signs[i] != null);
+            if (signs[i] != null)
+                signs[i].write(out);
+        }
+    }
+
+    /**
+     * Reads a record written by {@link #write(DataOutput)}.
+     * @param version Journal version the record was written with.  Version 1 stored only the front text of signs.
+     */
+    static DoorRecord read(DataInput in, int version) throws IOException {
+        UUID world = new UUID(in.readLong(), in.readLong());
+        long key = in.readLong();
+        int count = in.readUnsignedByte();
+
+        int kx = BlockKeys.unpackX(key), ky = BlockKeys.unpackY(key), kz = BlockKeys.unpackZ(key);
+        byte[] kinds = new byte[count];
+        int[] xs = new int[count], ys = new int[count], zs = new int[count];
+        String[] dataStrings = new String[count];
+        SignSnapshot[] signs = new SignSnapshot[count];
+        for (int i = 0; i < count; i++) {
+            kinds[i] = in.readByte();
+            xs[i] = kx + in.readByte();
+            ys[i] = ky + in.readByte();
+            zs[i] = kz + in.readByte();
+            dataStrings[i] = in.readUTF();
+
+            if (version == 1) {
+                int lines = in.readUnsignedByte();
+                if (lines > 0) {
+                    String[] front = new String[lines];
+                    for (int j = 0; j < lines; j++) {
+                        front[j] = in.readUTF();
+                    }
+                    signs[i] = SignSnapshot.ofFrontText(front);
+                }
+            } else if (in.readBoolean()) {
+                signs[i] = SignSnapshot.read(in);
+            }
+        }
+        return new DoorRecord(world, key, kinds, xs, ys, zs, null, dataStrings, signs);
+    }
+
+    /**
+     * Collects the entries of a {@link DoorRecord} in restore order.
+     */
+    public static final class Builder {
+
+        private final UUID world;
+        private final long key;
+
+        private byte[] kinds = new byte[8];
+        private int[] xs = new int[8];
+        private int[] ys = new int[8];
+        private int[] zs = new int[8];
+        private BlockData[] data = new BlockData[8];
+        private SignSnapshot[] signs = new SignSnapshot[8];
+        private int count = 0;
+
+        /**
+         * @param keyBlock The key block of the SecretOpenable being recorded.
+         */
+        public Builder(Block keyBlock) {
+            this.world = keyBlock.getWorld().getUID();
+            this.key = BlockKeys.pack(keyBlock);
+        }
+
+        /**
+         * Adds a block that is replaced by AIR while the door is open.
+         * @param sign Snapshot of the block if it is a sign, or null.
+         */
+        public Builder hidden(Block block, BlockData original, SignSnapshot sign) {
+            return add(HIDDEN, block, original, sign);
+        }
+
+        /**
+         * Adds the key block with its closed BlockData.  Should be added last.
+         */
+        public Builder key(Block block, BlockData closed) {
+            return add(KEY, block, closed, null);
+        }
+
+        private Builder add(byte kind, Block block, BlockData original, SignSnapshot sign) {
+            if (count == kinds.length) {
+                int size = count * 2;
+                kinds = Arrays.copyOf(kinds, size);
+                xs = Arrays.copyOf(xs, size);
+                ys = Arrays.copyOf(ys, size);
+                zs = Arrays.copyOf(zs, size);
+                data = Arrays.copyOf(data, size);
+                signs = Arrays.copyOf(signs, size);
+            }
+            kinds[count] = kind;
+            xs[count] = block.getX();
+            ys[count] = block.getY();
+            zs[count] = block.getZ();
+            data[count] = original;
+            signs[count] = sign;
+            count++;
+            return this;
+        }
+
+        public DoorRecord build() {
+            return new DoorRecord(world, key,
+                    Arrays.copyOf(kinds, count),
+                    Arrays.copyOf(xs, count),
+                    Arrays.copyOf(ys, count),
+                    Arrays.copyOf(zs, count),
+                    Arrays.copyOf(data, count),
+                    null,
+                    Arrays.copyOf(signs, count));
+        }
+    }
+}
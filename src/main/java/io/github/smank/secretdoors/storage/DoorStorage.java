@@ -0,0 +1,61 @@
+package io.github.smank.secretdoors.storage;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.UUID;
+import java.util.function.Consumer;
+
+/**
+ * Persists opened SecretOpenables, so that doors still open when the server stopped without closing them (crash,
+ * kill, power loss) are closed again on the next start.
+ * <p>
+ * Writes are queued and done by a single background thread.  Doors left open are handed out per chunk as chunks
+ * load, so only the records of loaded chunks are ever read.
+ */
+public interface DoorStorage {
+
+    /**
+     * The storages to choose from with {@code storage} in config.yml.
+     */
+    enum Type {
+        // DoorJournal - an append-only file.
+        JOURNAL,
+        // SqliteDoorStorage - a SQLite database, which also keeps how often each door was opened.
+        SQLITE
+    }
+
+    /**
+     * Opens the storage and starts its writer thread.
+     * @throws IOException if the storage cannot be used at all.
+     */
+    void open() throws IOException;
+
+    /**
+     * Queues a record of a door having been opened.  Replaces any previous record with the same key.
+     */
+    void recordOpen(DoorRecord record);
+
+    /**
+     * Queues a record of the door with the received key having been closed.
+     */
+    void recordClose(UUID world, long key);
+
+    /**
+     * Queues one more use of the door with the received key, whether or not it changed the world.  Only kept by
+     * storages that can be queried.
+     */
+    default void recordUse(UUID world, long key) {
+    }
+
+    /**
+     * Looks up the doors in the received chunk that were left open by the last shutdown.  Each chunk is only looked
+     * up once, later calls for it do nothing.  Never blocks on disk.
+     * @param loaded Receives the records if there are any, on an unspecified thread.
+     */
+    void loadLeftOpen(UUID world, int chunkX, int chunkZ, Consumer<List<DoorRecord>> loaded);
+
+    /**
+     * Writes everything still queued and stops the writer thread.
+     */
+    void close();
+}
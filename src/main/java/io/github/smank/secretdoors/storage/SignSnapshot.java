@@ -0,0 +1,141 @@
+package io.github.smank.secretdoors.storage;
+
+import org.bukkit.DyeColor;
+import org.bukkit.block.Block;
+import org.bukkit.block.BlockState;
+import org.bukkit.block.Sign;
+import org.bukkit.block.sign.Side;
+import org.bukkit.block.sign.SignSide;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * Everything a sign stores besides its BlockData: the text, dye colour and glow of both sides, and whether it is
+ * waxed.  Immutable, so a snapshot captured on the main thread can be serialised by the journal thread.
+ */
+public final class SignSnapshot {
+
+    private static final Side[] SIDES = Side.values();
+
+    // Per side, indexed by Side ordinal.
+    private final String[][] lines;
+    // null if the side has no colour, e.g. for snapshots read from a version 1 journal.
+    private final DyeColor[] colors;
+    private final boolean[] glowing;
+    private final boolean waxed;
+
+    private SignSnapshot(String[][] lines, DyeColor[] colors, boolean[] glowing, boolean waxed) {
+        this.lines = lines;
+        this.colors = colors;
+        this.glowing = glowing;
+        this.waxed = waxed;
+    }
+
+    /**
+     * @return a snapshot of the received sign.
+     */
+    public static SignSnapshot of(Sign sign) {
+        String[][] lines = new String[SIDES.length][];
+        DyeColor[] colors = new DyeColor[SIDES.length];
+        boolean[] glowing = new boolean[SIDES.length];
+        for (Side side : SIDES) {
+            SignSide s = sign.getSide(side);
+            lines[side.ordinal()] = s.getLines();
+            colors[side.ordinal()] = s.getColor();
+            glowing[side.ordinal()] = s.isGlowingText();
+        }
+        return new SignSnapshot(lines, colors, glowing, sign.isWaxed());
+    }
+
+    /**
+     * @return a snapshot of the sign at the received block, or null if it is not a sign.
+     */
+    public static SignSnapshot capture(Block block) {
+        BlockState state = block.getState();
+        return state instanceof Sign ? of((Sign) state) : null;
+    }
+
+    /**
+     * @return the text of the received side.
+     */
+    public String[] getLines(Side side) {
+        return lines[side.ordinal()].clone();
+    }
+
+    /**
+     * Writes this snapshot into the sign at the received block with one state update and no physics.
+     * @return false if the block is not a sign (any more).
+     */
+    public boolean restore(Block block) {
+        BlockState state = block.getState();
+        if (!(state instanceof Sign))
+            return false;
+        Sign sign = (Sign) state;
+        for (Side side : SIDES) {
+            SignSide s = sign.getSide(side);
+            String[] text = lines[side.ordinal()];
+            for (int i = 0; i < text.length; i++) {
+                s.setLine(i, text[i]);
+            }
+            if (colors[side.ordinal()] != null)
+                s.setColor(colors[side.ordinal()]);
+            s.setGlowingText(glowing[side.ordinal()]);
+        }
+        sign.setWaxed(waxed);
+        return state.update(true, false);
+    }
+
+    /**
+     * Writes this snapshot.  Safe to call from any thread.
+     */
+    public void write(DataOutput out) throws IOException {
+        for (Side side : SIDES) {
+            String[] text = lines[side.ordinal()];
+            out.writeByte(text.length);
+            for (String line : text) {
+                out.writeUTF(line == null ? "" : line);
+            }
+            DyeColor color = colors[side.ordinal()];
+            out.writeUTF(color == null ? "" : color.name());
+            out.writeBoolean(glowing[side.ordinal()]);
+        }
+        out.writeBoolean(waxed);
+    }
+
+    /**
+     * Reads a snapshot written by {@link #write(DataOutput)}.
+     */
+    public static SignSnapshot read(DataInput in) throws IOException {
+        String[][] lines = new String[SIDES.length][];
+        DyeColor[] colors = new DyeColor[SIDES.length];
+        boolean[] glowing = new boolean[SIDES.length];
+        for (Side side : SIDES) {
+            String[] text = new String[in.readUnsignedByte()];
+            for (int i = 0; i < text.length; i++) {
+                text[i] = in.readUTF();
+            }
+            lines[side.ordinal()] = text;
+            String color = in.readUTF();
+            try {
+                colors[side.ordinal()] = color.isEmpty() ? null : DyeColor.valueOf(color);
+            } catch (IllegalArgumentException e) {
+                // Unknown to this server version - keep the sign's default colour.
+            }
+            glowing[side.ordinal()] = in.readBoolean();
+        }
+        return new SignSnapshot(lines, colors, glowing, in.readBoolean());
+    }
+
+    /**
+     * @return a snapshot with only the received front text, as stored by version 1 journals.
+     */
+    static SignSnapshot ofFrontText(String[] front) {
+        String[][] lines = new String[SIDES.length][];
+        for (Side side : SIDES) {
+            lines[side.ordinal()] = side == Side.FRONT ? front : new String[0];
+        }
+        return new SignSnapshot(lines, new DyeColor[SIDES.length], new boolean[SIDES.length], false);
+    }
+}
@@ -0,0 +1,354 @@
+package io.github.smank.secretdoors.storage;
+
+import io.github.smank.secretdoors.util.BlockKeys;
+
+import java.io.*;
+import java.sql.*;
+import java.util.*;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * SQLite database of opened SecretOpenables and of how often each door was opened, for servers that want to query
+ * that state.  Uses the SQLite JDBC driver bundled with the server.
+ * <p>
+ * Like {@link DoorJournal} every operation is queued and done by a single background thread, which owns the only
+ * connection.  Each batch of queued records is reduced to the last record per door and written with one prepared
+ * statement batch per table in one transaction.  Lookups of doors left open are queued as well, after the writes
+ * queued before them.
+ * <p>
+ * Tables:
+ * <ul>
+ *     <li>{@code open_doors(world, door_key, chunk, x, y, z, opened_at, record)} - one row per open door, the record
+ *     as written by {@link DoorRecord#write(DataOutput)}.  Indexed by world and chunk key.</li>
+ *     <li>{@code door_usage(world, door_key, x, y, z, opens, last_opened)} - one row per door ever opened.</li>
+ * </ul>
+ * {@code door_key} and {@code chunk} are packed as by {@link BlockKeys}, times are epoch milliseconds.
+ */
+public final class SqliteDoorStorage implements DoorStorage {
+
+    private static final String DRIVER = "org.sqlite.JDBC";
+    // Layout of the stored records, the same as in version 2 journals.
+    private static final int RECORD_VERSION = 2;
+
+    private static final byte OPEN  = 1;
+    private static final byte CLOSE = 2;
+    private static final byte USE   = 3;
+    // Lookup of a chunk known to have doors left open.
+    private static final byte LOAD  = 4;
+    // Lookup queued before the chunks with doors left open were read, only done if the chunk is one of them.
+    private static final byte LOAD_UNCHECKED = 5;
+    // Tells the writer thread to stop.
+    private static final byte STOP  = 6;
+
+    private static final String[] SCHEMA = {
+            "CREATE TABLE IF NOT EXISTS open_doors (world TEXT NOT NULL, door_key INTEGER NOT NULL,"
+                    + " chunk INTEGER NOT NULL, x INTEGER NOT NULL, y INTEGER NOT NULL, z INTEGER NOT NULL,"
+                    + " opened_at INTEGER NOT NULL, record BLOB NOT NULL, PRIMARY KEY (world, door_key))",
+            "CREATE INDEX IF NOT EXISTS open_doors_chunk ON open_doors (world, chunk)",
+            "CREATE TABLE IF NOT EXISTS door_usage (world TEXT NOT NULL, door_key INTEGER NOT NULL,"
+                    + " x INTEGER NOT NULL, y INTEGER NOT NULL, z INTEGER NOT NULL,"
+                    + " opens INTEGER NOT NULL, last_opened INTEGER NOT NULL, PRIMARY KEY (world, door_key))"
+    };
+    private static final String UPSERT_OPEN = "INSERT OR REPLACE INTO open_doors"
+            + " (world, door_key, chunk, x, y, z, opened_at, record) VALUES (?, ?, ?, ?, ?, ?, ?, ?)";
+    private static final String DELETE_OPEN = "DELETE FROM open_doors WHERE world = ? AND door_key = ?";
+    private static final String UPSERT_USE = "INSERT INTO door_usage (world, door_key, x, y, z, opens, last_opened)"
+            + " VALUES (?, ?, ?, ?, ?, ?, ?) ON CONFLICT (world, door_key)"
+            + " DO UPDATE SET opens = opens + excluded.opens, last_opened = excluded.last_opened";
+    // Only rows written before this session connected: doors opened since are open in the world, not left over.
+    private static final String SELECT_CHUNK = "SELECT record FROM open_doors WHERE world = ? AND chunk = ?"
+            + " AND opened_at < ?";
+    private static final String SELECT_CHUNKS = "SELECT DISTINCT world, chunk FROM open_doors";
+
+    private final File file;
+    private final Logger logger;
+
+    private final BlockingQueue<Op> queue = new LinkedBlockingQueue<>();
+    private Thread writer;
+    private volatile boolean running;
+    // Chunks with doors left open by the last shutdown that were not looked up yet.  null until the writer thread has
+    // read them, lookups are queued until then.
+    private volatile Set<WorldPosition> leftOpenChunks;
+
+    //// Writer thread state
+
+    private Connection connection;
+    private PreparedStatement upsertOpen;
+    private PreparedStatement deleteOpen;
+    private PreparedStatement upsertUse;
+    private PreparedStatement selectChunk;
+    // Time the database was connected, rows opened before it are left over from the last run.
+    private long connectedAt;
+
+    public SqliteDoorStorage(File file, Logger logger) {
+        this.file = file;
+        this.logger = logger;
+    }
+
+    /**
+     * Starts the writer thread, which opens the database.  Nothing is read or written on the calling thread.
+     * @throws IOException if the server has no SQLite driver.
+     */
+    @Override
+    public void open() throws IOException {
+        try {
+            Class.forName(DRIVER);
+        } catch (ClassNotFoundException e) {
+            throw new IOException("The server has no SQLite driver (" + DRIVER + ")", e);
+        }
+        running = true;
+        writer = new Thread(this::run, "SecretDoors-Storage");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    @Override
+    public void recordOpen(DoorRecord record) {
+        if (!running)
+            return;
+        queue.add(new Op(OPEN, new WorldPosition(record.getWorld(), record.getKey()), record, null));
+    }
+
+    @Override
+    public void recordClose(UUID world, long key) {
+        if (!running)
+            return;
+        queue.add(new Op(CLOSE, new WorldPosition(world, key), null, null));
+    }
+
+    @Override
+    public void recordUse(UUID world, long key) {
+        if (!running)
+            return;
+        queue.add(new Op(USE, new WorldPosition(world, key), null, null));
+    }
+
+    /**
+     * Looks the chunk up in the database on the writer thread, unless it is known to have no door left open.
+     */
+    @Override
+    public void loadLeftOpen(UUID world, int chunkX, int chunkZ, Consumer<List<DoorRecord>> loaded) {
+        if (!running)
+            return;
+        WorldPosition chunk = new WorldPosition(world, BlockKeys.chunkKey(chunkX, chunkZ));
+        Set<WorldPosition> chunks = leftOpenChunks;
+        if (chunks == null)
+            queue.add(new Op(LOAD_UNCHECKED, chunk, null, loaded));
+        else if (chunks.remove(chunk))
+            queue.add(new Op(LOAD, chunk, null, loaded));
+    }
+
+    /**
+     * Writes everything still queued, closes the database and stops the writer thread.
+     */
+    @Override
+    public void close() {
+        running = false;
+        if (writer == null)
+            return;
+        queue.add(new Op(STOP, null, null, null));
+        try {
+            writer.join(TimeUnit.SECONDS.toMillis(10));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        writer = null;
+    }
+
+    private void run() {
+        List<Op> batch = new ArrayList<>();
+        try {
+            connect();
+            boolean stop = false;
+            while (!stop) {
+                try {
+                    batch.add(queue.take());
+                } catch (InterruptedException e) {
+                    break;
+                }
+                queue.drainTo(batch);
+                stop = apply(batch);
+                batch.clear();
+            }
+        } catch (SQLException e) {
+            running = false;
+            queue.clear();
+            logger.log(Level.SEVERE, "Failed to write " + file.getName() + " - opened doors will not survive a crash", e);
+        } finally {
+            closeQuietly();
+        }
+    }
+
+    private void connect() throws SQLException {
+        connection = DriverManager.getConnection("jdbc:sqlite:" + file.getAbsolutePath());
+        try (Statement s = connection.createStatement()) {
+            // One writer, so WAL lets other tools read the database while the server runs.
+            s.execute("PRAGMA journal_mode=WAL");
+            s.execute("PRAGMA synchronous=NORMAL");
+            for (String sql : SCHEMA) {
+                s.execute(sql);
+            }
+        }
+        connection.setAutoCommit(false);
+        upsertOpen = connection.prepareStatement(UPSERT_OPEN);
+        deleteOpen = connection.prepareStatement(DELETE_OPEN);
+        upsertUse = connection.prepareStatement(UPSERT_USE);
+        selectChunk = connection.prepareStatement(SELECT_CHUNK);
+
+        Set<WorldPosition> chunks = ConcurrentHashMap.newKeySet();
+        try (Statement s = connection.createStatement(); ResultSet rs = s.executeQuery(SELECT_CHUNKS)) {
+            while (rs.next()) {
+                chunks.add(new WorldPosition(UUID.fromString(rs.getString(1)), rs.getLong(2)));
+            }
+        }
+        connection.commit();
+        connectedAt = System.currentTimeMillis();
+        leftOpenChunks = chunks;
+    }
+
+    // Applies the batch in order: writes queued before a lookup are committed before it runs.  Returns true if the
+    // batch contained the STOP marker.
+    private boolean apply(List<Op> batch) throws SQLException {
+        // Last OPEN or CLOSE per door, and number of uses per door, since the last commit.
+        Map<WorldPosition, Op> doors = new LinkedHashMap<>();
+        Map<WorldPosition, Integer> uses = new LinkedHashMap<>();
+        boolean stop = false;
+        for (Op op : batch) {
+            switch (op.type) {
+                case OPEN:
+                case CLOSE:
+                    doors.put(op.position, op);
+                    break;
+                case USE:
+                    uses.merge(op.position, 1, Integer::sum);
+                    break;
+                case LOAD:
+                case LOAD_UNCHECKED:
+                    write(doors, uses);
+                    load(op);
+                    break;
+                default:
+                    stop = true;
+                    break;
+            }
+        }
+        write(doors, uses);
+        return stop;
+    }
+
+    private void write(Map<WorldPosition, Op> doors, Map<WorldPosition, Integer> uses) throws SQLException {
+        if (doors.isEmpty() && uses.isEmpty())
+            return;
+        long now = System.currentTimeMillis();
+        int opened = 0, closed = 0;
+        for (Op op : doors.values()) {
+            String world = op.position.world.toString();
+            long key = op.position.key;
+            if (op.type == CLOSE) {
+                deleteOpen.setString(1, world);
+                deleteOpen.setLong(2, key);
+                deleteOpen.addBatch();
+                closed++;
+                continue;
+            }
+            upsertOpen.setString(1, world);
+            upsertOpen.setLong(2, key);
+            upsertOpen.setLong(3, BlockKeys.chunkKeyOf(key));
+            upsertOpen.setInt(4, BlockKeys.unpackX(key));
+            upsertOpen.setInt(5, BlockKeys.unpackY(key));
+            upsertOpen.setInt(6, BlockKeys.unpackZ(key));
+            upsertOpen.setLong(7, now);
+            upsertOpen.setBytes(8, encode(op.record));
+            upsertOpen.addBatch();
+            opened++;
+        }
+        for (Map.Entry<WorldPosition, Integer> e : uses.entrySet()) {
+            long key = e.getKey().key;
+            upsertUse.setString(1, e.getKey().world.toString());
+            upsertUse.setLong(2, key);
+            upsertUse.setInt(3, BlockKeys.unpackX(key));
+            upsertUse.setInt(4, BlockKeys.unpackY(key));
+            upsertUse.setInt(5, BlockKeys.unpackZ(key));
+            upsertUse.setInt(6, e.getValue());
+            upsertUse.setLong(7, now);
+            upsertUse.addBatch();
+        }
+        try {
+            if (opened > 0)
+                upsertOpen.executeBatch();
+            if (closed > 0)
+                deleteOpen.executeBatch();
+            if (!uses.isEmpty())
+                upsertUse.executeBatch();
+            connection.commit();
+        } catch (SQLException e) {
+            connection.rollback();
+            throw e;
+        }
+        doors.clear();
+        uses.clear();
+    }
+
+    private void load(Op op) throws SQLException {
+        if (op.type == LOAD_UNCHECKED && !leftOpenChunks.remove(op.position))
+            return;
+        List<DoorRecord> records = new ArrayList<>();
+        selectChunk.setString(1, op.position.world.toString());
+        selectChunk.setLong(2, op.position.key);
+        selectChunk.setLong(3, connectedAt);
+        try (ResultSet rs = selectChunk.executeQuery()) {
+            while (rs.next()) {
+                try {
+                    records.add(DoorRecord.read(new DataInputStream(new ByteArrayInputStream(rs.getBytes(1))),
+                            RECORD_VERSION));
+                } catch (IOException e) {
+                    logger.log(Level.WARNING, "Skipping a corrupt open door record in " + file.getName(), e);
+                }
+            }
+        }
+        connection.commit();
+        if (!records.isEmpty())
+            op.loaded.accept(records);
+    }
+
+    private static byte[] encode(DoorRecord record) throws SQLException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(128);
+        try {
+            record.write(new DataOutputStream(bytes));
+        } catch (IOException e) {
+            throw new SQLException("Could not encode a door record", e);
+        }
+        return bytes.toByteArray();
+    }
+
+    private void closeQuietly() {
+        if (connection == null)
+            return;
+        try {
+            connection.close();
+        } catch (SQLException e) {
+            logger.log(Level.WARNING, "Failed to close " + file.getName(), e);
+        }
+        connection = null;
+    }
+
+    private static final class Op {
+        final byte type;
+        final WorldPosition position;
+        final DoorRecord record;
+        final Consumer<List<DoorRecord>> loaded;
+
+        Op(byte type, WorldPosition position, DoorRecord record, Consumer<List<DoorRecord>> loaded) {
+            this.type = type;
+            this.position = position;
+            this.record = record;
+            this.loaded = loaded;
+        }
+    }
+}
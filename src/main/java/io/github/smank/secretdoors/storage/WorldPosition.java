@@ -0,0 +1,31 @@
+package io.github.smank.secretdoors.storage;
+
+import java.util.UUID;
+
+/**
+ * A packed block position or chunk key (see {@link io.github.smank.secretdoors.util.BlockKeys}) within a world,
+ * used as a map key by the storages.
+ */
+final class WorldPosition {
+
+    final UUID world;
+    final long key;
+
+    WorldPosition(UUID world, long key) {
+        this.world = world;
+        this.key = key;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof WorldPosition))
+            return false;
+        WorldPosition p = (WorldPosition) o;
+        return key == p.key && world.equals(p.world);
+    }
+
+    @Override
+    public int hashCode() {
+        return world.hashCode() * 31 + Long.hashCode(key);
+    }
+}
@@ -0,0 +1,60 @@
+package io.github.smank.secretdoors.util;
+
+import org.bukkit.block.Block;
+
+/**
+ * Static helpers for packing block and chunk coordinates into primitive longs.
+ * Block positions use the same layout as Minecraft: 26 bits of x, 26 bits of z and 12 bits of y.
+ */
+public final class BlockKeys {
+
+    private BlockKeys() {}
+
+    /**
+     * @return the packed position of the received coordinates.
+     */
+    public static long pack(int x, int y, int z) {
+        return ((long) (x & 0x3FFFFFF) << 38) | ((long) (z & 0x3FFFFFF) << 12) | (y & 0xFFF);
+    }
+
+    /**
+     * @return the packed position of the received block.
+     */
+    public static long pack(Block block) {
+        return pack(block.getX(), block.getY(), block.getZ());
+    }
+
+    public static int unpackX(long key) {
+        return (int) (key >> 38);
+    }
+
+    public static int unpackY(long key) {
+        return (int) (key << 52 >> 52);
+    }
+
+    public static int unpackZ(long key) {
+        return (int) (key << 26 >> 38);
+    }
+
+    /**
+     * @return the key of the chunk with the received chunk coordinates.
+     */
+    public static long chunkKey(int chunkX, int chunkZ) {
+        return ((long) chunkZ << 32) | (chunkX & 0xFFFFFFFFL);
+    }
+
+    public static int unpackChunkX(long chunkKey) {
+        return (int) chunkKey;
+    }
+
+    public static int unpackChunkZ(long chunkKey) {
+        return (int) (chunkKey >> 32);
+    }
+
+    /**
+     * @return the key of the chunk containing the received packed block position.
+     */
+    public static long chunkKeyOf(long key) {
+        return chunkKey(unpackX(key) >> 4, unpackZ(key) >> 4);
+    }
+}
@@ -0,0 +1,162 @@
+package io.github.smank.secretdoors.util;
+
+import java.util.Arrays;
+import java.util.function.Consumer;
+
+/**
+ * Open addressing hash map from primitive longs to objects, using linear probing and backward shift deletion.
+ * Avoids boxing the keys and the per-entry node objects of {@link java.util.HashMap}.  Null values are not
+ * supported.  Not thread safe.
+ * @param <V> Type of the values.
+ */
+public final class LongObjectMap<V> {
+
+    private static final float LOAD_FACTOR = 0.6f;
+
+    private long[] keys;
+    private V[] values;
+    private int mask;
+    private int size = 0;
+    private int resizeAt;
+
+    public LongObjectMap() {
+        this(16);
+    }
+
+    /**
+     * @param expected Number of entries the map should hold without resizing.
+     */
+    public LongObjectMap(int expected) {
+        allocate(Math.max(4, Integer.highestOneBit((int) (expected / LOAD_FACTOR)) << 1));
+    }
+
+    @SuppressWarnings("unchecked")
+    private void allocate(int capacity) {
+        keys = new long[capacity];
+        values = (V[]) new Object[capacity];
+        mask = capacity - 1;
+        resizeAt = (int) (capacity * LOAD_FACTOR);
+    }
+
+    private static int mix(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * @return the value mapped to {@code key}, or null.
+     */
+    public V get(long key) {
+        int i = mix(key) & mask;
+        V v;
+        while ((v = values[i]) != null) {
+            if (keys[i] == key)
+                return v;
+            i = (i + 1) & mask;
+        }
+        return null;
+    }
+
+    public boolean containsKey(long key) {
+        return get(key) != null;
+    }
+
+    /**
+     * Maps {@code key} to {@code value}.
+     * @return the previous value, or null.
+     */
+    public V put(long key, V value) {
+        if (value == null)
+            throw new NullPointerException("value");
+        int i = mix(key) & mask;
+        V v;
+        while ((v = values[i]) != null) {
+            if (keys[i] == key) {
+                values[i] = value;
+                return v;
+            }
+            i = (i + 1) & mask;
+        }
+        keys[i] = key;
+        values[i] = value;
+        if (++size > resizeAt)
+            rehash(keys.length << 1);
+        return null;
+    }
+
+    /**
+     * Removes the mapping of {@code key}.
+     * @return the removed value, or null.
+     */
+    public V remove(long key) {
+        int i = mix(key) & mask;
+        V v;
+        while ((v = values[i]) != null) {
+            if (keys[i] == key) {
+                shiftBack(i);
+                size--;
+                return v;
+            }
+            i = (i + 1) & mask;
+        }
+        return null;
+    }
+
+    // Backward shift deletion - keeps probe sequences intact without tombstones.
+    private void shiftBack(int hole) {
+        int i = hole;
+        while (true) {
+            i = (i + 1) & mask;
+            if (values[i] == null)
+                break;
+            int home = mix(keys[i]) & mask;
+            // Move the entry into the hole if its home slot is not between the hole and its current slot.
+            if (((i - home) & mask) >= ((i - hole) & mask)) {
+                keys[hole] = keys[i];
+                values[hole] = values[i];
+                hole = i;
+            }
+        }
+        values[hole] = null;
+    }
+
+    public void clear() {
+        Arrays.fill(values, null);
+        size = 0;
+    }
+
+    /**
+     * Calls {@code action} for every value.  The map must not be modified by {@code action}.
+     */
+    public void forEachValue(Consumer<? super V> action) {
+        for (V v : values) {
+            if (v != null)
+                action.accept(v);
+        }
+    }
+
+    private void rehash(int capacity) {
+        long[] oldKeys = keys;
+        V[] oldValues = values;
+        allocate(capacity);
+        for (int j = 0; j < oldValues.length; j++) {
+            V v = oldValues[j];
+            if (v == null)
+                continue;
+            int i = mix(oldKeys[j]) & mask;
+            while (values[i] != null) {
+                i = (i + 1) & mask;
+            }
+            keys[i] = oldKeys[j];
+            values[i] = v;
+        }
+    }
+}
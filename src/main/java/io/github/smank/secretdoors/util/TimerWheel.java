@@ -0,0 +1,176 @@
+package io.github.smank.secretdoors.util;
+
+import java.util.function.Consumer;
+
+/**
+ * Hashed timing wheel driven by an external tick.
+ * <p>
+ * Timers are kept in intrusive doubly linked lists, one per bucket, where the bucket is the deadline tick modulo the
+ * wheel size.  Scheduling, rescheduling and cancelling are O(1), and {@link #advance(Consumer)} only visits the bucket
+ * of the current tick, so every timer due in the same tick fires in a single pass.  Timers further away than one
+ * revolution simply stay in their bucket until their deadline comes around.
+ * <p>
+ * Timer objects are recycled, so once warmed up the wheel does not allocate.  A handle must not be used after it was
+ * cancelled or has fired.  Not thread safe.
+ * @param <T> Type of the values carried by the timers.
+ */
+public final class TimerWheel<T> {
+
+    /**
+     * Handle of a scheduled value.
+     */
+    public static final class Timer<T> {
+        private T value;
+        private long deadline;
+        private Timer<T> prev;
+        private Timer<T> next;
+        private boolean linked;
+
+        private Timer() {}
+
+        /**
+         * @return the tick on which this timer fires.
+         */
+        public long getDeadline() {
+            return deadline;
+        }
+    }
+
+    private final Timer<T>[] buckets;
+    private final int mask;
+    private long tick = 0;
+    private int size = 0;
+
+    // Recycled timers, linked through Timer.next.
+    private Timer<T> free;
+
+    /**
+     * @param wheelSize Number of buckets, rounded up to a power of two.  Ideally at least the usual delay in ticks.
+     */
+    @SuppressWarnings("unchecked")
+    public TimerWheel(int wheelSize) {
+        int n = Integer.highestOneBit(Math.max(2, wheelSize - 1)) << 1;
+        this.buckets = (Timer<T>[]) new Timer[n];
+        this.mask = n - 1;
+    }
+
+    /**
+     * @return the current tick, i.e. the number of times {@link #advance(Consumer)} has been called.
+     */
+    public long getTick() {
+        return tick;
+    }
+
+    /**
+     * @return the number of scheduled timers.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Schedules {@code value} to fire after {@code delay} ticks (at least one).
+     * @return the handle of the scheduled timer.
+     */
+    public Timer<T> schedule(T value, long delay) {
+        Timer<T> timer = free;
+        if (timer != null) {
+            free = timer.next;
+            timer.next = null;
+        } else {
+            timer = new Timer<>();
+        }
+        timer.value = value;
+        link(timer, tick + Math.max(1, delay));
+        size++;
+        return timer;
+    }
+
+    /**
+     * Moves a scheduled timer to fire {@code delay} ticks (at least one) from now.
+     */
+    public void reschedule(Timer<T> timer, long delay) {
+        if (!timer.linked)
+            return;
+        unlink(timer);
+        link(timer, tick + Math.max(1, delay));
+    }
+
+    /**
+     * Cancels a scheduled timer.  Does nothing if it has already fired or been cancelled.
+     */
+    public void cancel(Timer<T> timer) {
+        if (!timer.linked)
+            return;
+        unlink(timer);
+        release(timer);
+        size--;
+    }
+
+    /**
+     * Cancels every scheduled timer.
+     */
+    public void clear() {
+        for (int i = 0; i < buckets.length; i++) {
+            while (buckets[i] != null) {
+                Timer<T> timer = buckets[i];
+                unlink(timer);
+                release(timer);
+            }
+        }
+        size = 0;
+    }
+
+    /**
+     * Advances the wheel by one tick and fires every timer whose deadline is reached.
+     * {@code expired} must not cancel timers other than the one it is called for.
+     * @param expired Called with the value of every timer that fires.
+     */
+    public void advance(Consumer<? super T> expired) {
+        tick++;
+        if (size == 0)
+            return;
+
+        Timer<T> timer = buckets[(int) (tick & mask)];
+        while (timer != null) {
+            Timer<T> next = timer.next;
+            if (timer.deadline <= tick) {
+                unlink(timer);
+                size--;
+                T value = timer.value;
+                release(timer);
+                expired.accept(value);
+            }
+            timer = next;
+        }
+    }
+
+    private void link(Timer<T> timer, long deadline) {
+        int bucket = (int) (deadline & mask);
+        timer.deadline = deadline;
+        timer.prev = null;
+        timer.next = buckets[bucket];
+        if (timer.next != null)
+            timer.next.prev = timer;
+        buckets[bucket] = timer;
+        timer.linked = true;
+    }
+
+    private void unlink(Timer<T> timer) {
+        if (timer.prev != null)
+            timer.prev.next = timer.next;
+        else
+            buckets[(int) (timer.deadline & mask)] = timer.next;
+        if (timer.next != null)
+            timer.next.prev = timer.prev;
+        timer.prev = null;
+        timer.next = null;
+        timer.linked = false;
+    }
+
+    private void release(Timer<T> timer) {
+        timer.value = null;
+        timer.next = free;
+        free = timer;
+    }
+}